@@ -0,0 +1,58 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import android.os.Trace;
+
+/**
+ * Tracer marking sections with android.os.Trace, so that they show up in
+ * systrace.  The shard and rounds are not recorded.  Android checks
+ * itself whether tracing is enabled, which is cheap.  This needs API
+ * level 18, and must only be constructed if Build.VERSION.SDK_INT is
+ * at least that.
+ */
+public class AndroidTracer implements Tracer
+{
+
+  /** API level that added android.os.Trace.  */
+  public static final int MIN_SDK = 18;
+
+  /**
+   * Start a section.
+   * @param s The section.
+   * @return The section as token.
+   */
+  public Object begin (Section s)
+  {
+    Trace.beginSection (s.label);
+    return s;
+  }
+
+  /**
+   * End a section.
+   * @param token The token returned by begin().
+   * @param shard Index of the shard, ignored.
+   * @param rounds Number of rounds done, ignored.
+   */
+  public void end (Object token, int shard, long rounds)
+  {
+    Trace.endSection ();
+  }
+
+}
@@ -0,0 +1,431 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Simulate a counting player's bankroll over sessions.  Each session
+ * starts with a freshly shuffled shoe and a given bankroll, and plays a
+ * fixed number of rounds with the bet set by a BetRamp from the Hi-Lo
+ * true count.  It ends early if the bankroll no longer covers the next
+ * bet.  The rounds themselves are played by a Simulator, and sessions are
+ * split into shards run in parallel just as its rounds.
+ *
+ * Since ruin is rare with a sensible bankroll, its probability can be
+ * estimated by importance sampling:  Each round is played from several
+ * independent reshuffles of the cards not yet dealt, and one of them is
+ * picked with a probability proportional to exp(-tilt * result).  This
+ * favours losing rounds and thus makes ruin frequent.  The session is
+ * weighted by the product of mean(exp(-tilt * results)) /
+ * exp(-tilt * picked) over its rounds, which makes the weighted estimate
+ * exact without knowing the distribution of the round results.  The
+ * weights are summarised as well, to tell whether the estimate can be
+ * trusted.
+ */
+public class BankrollSimulator
+{
+
+  /** Percentiles of the session results to print.  */
+  private static final double[] PERCENTILES = {0.01, 0.05, 0.5, 0.95, 0.99};
+
+  /** Simulator playing the rounds.  */
+  private final Simulator sim;
+
+  /** Number of decks in the shoe.  */
+  private final int decks;
+
+  /** Fraction of the shoe dealt before reshuffling.  */
+  private final float penetration;
+
+  /** The bet ramp.  */
+  private final BetRamp ramp;
+
+  /** Bankroll at the start of each session, in units.  */
+  private final double bankroll;
+
+  /** Number of rounds per session.  */
+  private final int length;
+
+  /** Tilt towards losing rounds for importance sampling, or 0.  */
+  private double tilt;
+
+  /** Number of rounds played to pick one from when tilted.  */
+  private int candidates;
+
+  /**
+   * Construct it.
+   * @param s Simulator to play the rounds with.
+   * @param d Number of decks.
+   * @param pen Fraction of the shoe dealt before reshuffling.
+   * @param r The bet ramp.
+   * @param b Bankroll at the start of each session, in units.
+   * @param l Number of rounds per session.
+   */
+  public BankrollSimulator (Simulator s, int d, float pen, BetRamp r,
+                            double b, int l)
+  {
+    sim = s;
+    decks = d;
+    penetration = pen;
+    ramp = r;
+    bankroll = b;
+    length = l;
+    tilt = 0.0;
+    candidates = 1;
+  }
+
+  /**
+   * Estimate by importance sampling, tilting the rounds towards losses.
+   * Only the ruin estimate is weighted, so that the other results
+   * describe the tilted play.  A larger tilt makes ruin more frequent, but
+   * spreads the weights more.  It is best chosen such that a sizable
+   * fraction of the sessions is ruined, while the effective number of
+   * sessions stays at a good part of all of them.
+   * @param t The tilt per unit lost, or 0 to play plainly.
+   * @param n Number of rounds to pick each one from.
+   * @throws RuntimeException If n is less than 2 with a tilt.
+   */
+  public void setTilt (double t, int n)
+  {
+    if (t != 0.0 && n < 2)
+      throw new RuntimeException ("Tilting needs at least two candidates!");
+
+    tilt = t;
+    candidates = n;
+  }
+
+  /**
+   * Run the simulation.  Each shard plays its sessions with its own RNG,
+   * seeded from the base seed and its index as for Simulator.
+   * @param shards Number of shards to split the work into.
+   * @param sessions Number of sessions to play per shard.
+   * @param seed Base seed for the shards' RNGs.
+   * @param threads Number of worker threads.
+   * @return The merged results of all shards.
+   * @throws RuntimeException If a shard fails.
+   */
+  public BankrollStats run (int shards, long sessions, long seed,
+                            int threads)
+  {
+    final ExecutorService pool = Executors.newFixedThreadPool (threads);
+    try
+      {
+        final List<Future<BankrollStats>> results
+          = new ArrayList<Future<BankrollStats>> ();
+        for (int i = 0; i < shards; ++i)
+          results.add (pool.submit (new Shard (i, sessions, seed)));
+
+        /* Merge in shard order, so that the result does not depend on
+           which shard finishes first.  */
+        final BankrollStats res = new BankrollStats ();
+        for (final Future<BankrollStats> f : results)
+          res.merge (f.get ());
+
+        return res;
+      }
+    catch (InterruptedException exc)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new RuntimeException ("Simulation interrupted!");
+      }
+    catch (ExecutionException exc)
+      {
+        exc.getCause ().printStackTrace ();
+        throw new RuntimeException ("Simulation shard failed: "
+                                    + exc.getCause ().getMessage ());
+      }
+    finally
+      {
+        pool.shutdownNow ();
+      }
+  }
+
+  /**
+   * One shard of the simulation, which is run as a task on the pool.
+   */
+  private class Shard implements Callable<BankrollStats>
+  {
+
+    /** Number of sessions to play.  */
+    private final long sessions;
+
+    /** The shoe dealt from.  */
+    private Shoe shoe;
+
+    /** Shoes to play the candidate rounds on when tilted.  */
+    private final Shoe[] others;
+
+    /** Results of the candidate rounds.  */
+    private final double[] results;
+
+    /** RNG of this shard, shared by all shoes.  */
+    private final ShardRandom rng;
+
+    /** Log of the current session's weight.  */
+    private double logWeight;
+
+    /**
+     * Construct it.
+     * @param id Index of this shard.
+     * @param s Number of sessions to play.
+     * @param seed Base seed of the simulation.
+     */
+    public Shard (int id, long s, long seed)
+    {
+      sessions = s;
+      rng = new ShardRandom (seed + id * 0x9E3779B97F4A7C15l);
+      shoe = new Shoe (decks, penetration, rng);
+      others = new Shoe[tilt != 0.0 ? candidates : 0];
+      for (int k = 0; k < others.length; ++k)
+        others[k] = new Shoe (decks, penetration, rng);
+      results = new double[others.length];
+    }
+
+    /**
+     * Play all sessions.
+     * @return The shard's results.
+     */
+    public BankrollStats call ()
+    {
+      final BankrollStats res = new BankrollStats ();
+      for (long s = 0; s < sessions; ++s)
+        {
+          shoe.shuffle ();
+          logWeight = 0.0;
+
+          double bank = bankroll;
+          boolean lost = false;
+          for (int i = 0; i < length; ++i)
+            {
+              if (shoe.needsShuffle ())
+                shoe.shuffle ();
+
+              final float bet = ramp.getBet (shoe.getTrueCount ());
+              if (bank < bet)
+                {
+                  lost = true;
+                  break;
+                }
+
+              final double value;
+              if (tilt != 0.0)
+                value = playTilted (bet);
+              else
+                value = bet * sim.playRound (sim.deal (shoe), shoe);
+              bank += value;
+              res.addRound (bet, value);
+            }
+
+          res.addSession (bank - bankroll, lost, Math.exp (logWeight));
+        }
+
+      return res;
+    }
+
+    /**
+     * Play a tilted round.  Each candidate is played on a copy of the
+     * shoe with the rest of it reshuffled, and the shoe of the picked one
+     * is continued with.
+     * @param bet The bet in units.
+     * @return The picked round's result in units.
+     */
+    private double playTilted (float bet)
+    {
+      double max = Double.NEGATIVE_INFINITY;
+      for (int k = 0; k < others.length; ++k)
+        {
+          final Shoe s = others[k];
+          s.copyFrom (shoe);
+          s.shuffleRest ();
+          results[k] = bet * sim.playRound (sim.deal (s), s);
+          max = Math.max (max, -tilt * results[k]);
+        }
+
+      /* Relative to the largest exponent, to avoid overflows.  */
+      double sum = 0.0;
+      for (int k = 0; k < others.length; ++k)
+        sum += Math.exp (-tilt * results[k] - max);
+
+      final double u = rng.nextDouble () * sum;
+      int picked = 0;
+      double cum = Math.exp (-tilt * results[0] - max);
+      while (picked < others.length - 1 && u >= cum)
+        {
+          ++picked;
+          cum += Math.exp (-tilt * results[picked] - max);
+        }
+      logWeight += Math.log (sum / others.length) + max
+                   + tilt * results[picked];
+
+      final Shoe tmp = shoe;
+      shoe = others[picked];
+      others[picked] = tmp;
+
+      return results[picked];
+    }
+
+  }
+
+  /**
+   * Print usage information and exit.
+   */
+  private static void usage ()
+  {
+    System.err.println ("Usage: BankrollSimulator [OPTIONS] STRATEGY.xml"
+                        + " [H17.xml]");
+    System.err.println ("  -sessions N     sessions per shard (10000)");
+    System.err.println ("  -length N       rounds per session (1000)");
+    System.err.println ("  -bankroll U     units at session start (200)");
+    System.err.println ("  -ramp SPEC      bets by true count (2:2,3:4,4:8)");
+    System.err.println ("  -shards N       number of shards (threads)");
+    System.err.println ("  -threads N      worker threads (all cores)");
+    System.err.println ("  -decks N        decks in the shoe (6)");
+    System.err.println ("  -penetration F  dealt before shuffle (0.75)");
+    System.err.println ("  -seed N         base RNG seed (0)");
+    System.err.println ("  -deviations F   play index plays from F by count");
+    System.err.println ("  -tilt T         importance sample ruin, tilt T");
+    System.err.println ("  -candidates N   rounds to pick from if tilted (8)");
+    System.err.println ("With H17.xml given, the dealer hits soft 17.");
+    System.exit (1);
+  }
+
+  /**
+   * Run the bankroll simulation from the command line.
+   * @param args Command-line arguments.
+   * @throws IOException If reading the strategy fails.
+   */
+  public static void main (String[] args)
+    throws IOException
+  {
+    long sessions = 10000;
+    int length = 1000;
+    double bankroll = 200.0;
+    String ramp = "2:2,3:4,4:8";
+    int threads = Runtime.getRuntime ().availableProcessors ();
+    int shards = -1;
+    int decks = 6;
+    float penetration = 0.75f;
+    long seed = 0;
+    File deviationFile = null;
+    double tilt = 0.0;
+    int candidates = 8;
+    final List<File> files = new ArrayList<File> ();
+
+    for (int i = 0; i < args.length; ++i)
+      {
+        final String a = args[i];
+        final boolean hasValue = (i + 1 < args.length);
+        if (!a.startsWith ("-"))
+          files.add (new File (a));
+        else if (!hasValue)
+          usage ();
+        else if (a.equals ("-sessions"))
+          sessions = Long.parseLong (args[++i]);
+        else if (a.equals ("-length"))
+          length = Integer.parseInt (args[++i]);
+        else if (a.equals ("-bankroll"))
+          bankroll = Double.parseDouble (args[++i]);
+        else if (a.equals ("-ramp"))
+          ramp = args[++i];
+        else if (a.equals ("-shards"))
+          shards = Integer.parseInt (args[++i]);
+        else if (a.equals ("-threads"))
+          threads = Integer.parseInt (args[++i]);
+        else if (a.equals ("-decks"))
+          decks = Integer.parseInt (args[++i]);
+        else if (a.equals ("-penetration"))
+          penetration = Float.parseFloat (args[++i]);
+        else if (a.equals ("-seed"))
+          seed = Long.parseLong (args[++i]);
+        else if (a.equals ("-deviations"))
+          deviationFile = new File (args[++i]);
+        else if (a.equals ("-tilt"))
+          tilt = Double.parseDouble (args[++i]);
+        else if (a.equals ("-candidates"))
+          candidates = Integer.parseInt (args[++i]);
+        else
+          usage ();
+      }
+    if (shards < 0)
+      shards = threads;
+    if (files.isEmpty () || files.size () > 2)
+      usage ();
+
+    final boolean h17 = (files.size () == 2);
+    final Strategy strategy
+      = Simulator.loadStrategy (files.get (0), h17 ? files.get (1) : null);
+    final Simulator sim = new Simulator (strategy, h17, decks, penetration);
+    if (deviationFile != null)
+      sim.setDeviations (Simulator.loadDeviations (strategy, deviationFile));
+
+    final BetRamp r = BetRamp.parse (ramp);
+    final BankrollSimulator bs
+      = new BankrollSimulator (sim, decks, penetration, r, bankroll, length);
+    if (tilt != 0.0)
+      bs.setTilt (tilt, candidates);
+    final BankrollStats res = bs.run (shards, sessions, seed, threads);
+
+    final double mean = res.getWinRate ();
+    final double sd = res.getDeviation ();
+    System.out.printf ("Bet ramp:       1-%s (%s)%n",
+                       r.getMaxBet (), r.toString ());
+    System.out.printf ("Rounds:         %d%n", res.getRounds ());
+    System.out.printf ("Average bet:    %.3f units%n", res.getAverageBet ());
+    System.out.printf ("Win rate:       %+.4f units per 100 rounds%n",
+                       100.0 * mean);
+    System.out.printf ("Player EV:      %+.4f%% of the amount bet%n",
+                       100.0 * mean / res.getAverageBet ());
+    System.out.printf ("Std deviation:  %.3f units per round,"
+                       + " %.2f per 100%n", sd, 10.0 * sd);
+    System.out.printf ("N0:             %.0f rounds%n", res.getN0 ());
+    System.out.printf ("Sessions:       %d, %d rounds each%n",
+                       res.getSessions (), length);
+    System.out.printf ("Session result: %+.2f +- %.2f units%n",
+                       res.getSessionMean (), res.getSessionDeviation ());
+    for (final double q : PERCENTILES)
+      System.out.printf ("Percentile %2.0f:  %+.2f units%n",
+                         100.0 * q, res.getSessionQuantile (q));
+    System.out.printf ("Session ruin:   %.4f%% +- %.4f%% with %.0f units%n",
+                       100.0 * res.getRuinRate (), 100.0 * res.getRuinError (),
+                       bankroll);
+    if (tilt != 0.0)
+      {
+        System.out.println ("Only the session ruin is weighted, the other"
+                            + " results are of the tilted play.");
+        System.out.printf ("Mean weight:    %.4f%n", res.getMeanWeight ());
+        System.out.printf ("Effective:      %.0f sessions%n",
+                           res.getEffectiveSessions ());
+        System.out.printf ("Largest weight: %.4f%% of the total%n",
+                           100.0 * res.getMaxWeightShare ());
+      }
+    System.out.printf ("Risk of ruin:   %.4f%% over unlimited rounds%n",
+                       100.0 * res.getRiskOfRuin (bankroll));
+  }
+
+}
@@ -0,0 +1,292 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+/**
+ * Accumulated results of a bankroll simulation.  Rounds are recorded with
+ * their bet and result in units, and sessions with their final result and
+ * whether the bankroll was lost.  As for CellStats, only sums are kept so
+ * that the shards' results can be merged and mean and variance derived
+ * later on.  The distribution of session results is kept in a quantile
+ * sketch, so that its percentiles are available in fixed memory.
+ *
+ * Sessions played with importance sampling carry their likelihood ratio
+ * as weight.  Only the ruin estimate and the weights
+ * themselves are kept weighted, all other sums are plain.
+ */
+public class BankrollStats
+{
+
+  /** Size parameter of the session result sketch.  */
+  private static final int SKETCH_SIZE = 512;
+
+  /** Number of rounds played.  */
+  private long rounds;
+
+  /** Total amount bet, in units.  */
+  private double wagered;
+
+  /** Sum of round results.  */
+  private double sum;
+
+  /** Sum of squared round results.  */
+  private double sumSq;
+
+  /** Number of sessions played.  */
+  private long sessions;
+
+  /** Sum of weights of sessions which lost the bankroll.  */
+  private double ruined;
+
+  /** Sum of squared weights of sessions which lost the bankroll.  */
+  private double ruinedSq;
+
+  /** Sum of session weights.  */
+  private double weights;
+
+  /** Sum of squared session weights.  */
+  private double weightsSq;
+
+  /** Largest session weight.  */
+  private double maxWeight;
+
+  /** Sum of session results.  */
+  private double sessionSum;
+
+  /** Sum of squared session results.  */
+  private double sessionSumSq;
+
+  /** Distribution of the session results.  */
+  private final QuantileSketch sessionResults
+    = new QuantileSketch (SKETCH_SIZE);
+
+  /**
+   * Record a round.
+   * @param bet The initial bet in units.
+   * @param value The round's result in units.
+   */
+  public void addRound (float bet, double value)
+  {
+    ++rounds;
+    wagered += bet;
+    sum += value;
+    sumSq += value * value;
+  }
+
+  /**
+   * Record a finished session.
+   * @param value Result of the session in units.
+   * @param lost Whether the bankroll was lost.
+   * @param weight Likelihood ratio of the session, 1 without importance
+   *               sampling.
+   */
+  public void addSession (double value, boolean lost, double weight)
+  {
+    ++sessions;
+    if (lost)
+      {
+        ruined += weight;
+        ruinedSq += weight * weight;
+      }
+    weights += weight;
+    weightsSq += weight * weight;
+    maxWeight = Math.max (maxWeight, weight);
+    sessionSum += value;
+    sessionSumSq += value * value;
+    sessionResults.add (value);
+  }
+
+  /**
+   * Merge another instance into this one.
+   * @param o The other stats.
+   */
+  public void merge (BankrollStats o)
+  {
+    rounds += o.rounds;
+    wagered += o.wagered;
+    sum += o.sum;
+    sumSq += o.sumSq;
+    sessions += o.sessions;
+    ruined += o.ruined;
+    ruinedSq += o.ruinedSq;
+    weights += o.weights;
+    weightsSq += o.weightsSq;
+    maxWeight = Math.max (maxWeight, o.maxWeight);
+    sessionSum += o.sessionSum;
+    sessionSumSq += o.sessionSumSq;
+    sessionResults.merge (o.sessionResults);
+  }
+
+  /**
+   * Get the number of rounds played.
+   * @return Number of rounds.
+   */
+  public long getRounds ()
+  {
+    return rounds;
+  }
+
+  /**
+   * Get the average initial bet.
+   * @return Average bet in units.
+   */
+  public double getAverageBet ()
+  {
+    return wagered / rounds;
+  }
+
+  /**
+   * Get the win rate per round.
+   * @return Mean round result in units.
+   */
+  public double getWinRate ()
+  {
+    return sum / rounds;
+  }
+
+  /**
+   * Get the standard deviation of a round.
+   * @return Standard deviation in units.
+   */
+  public double getDeviation ()
+  {
+    final double mean = getWinRate ();
+    return Math.sqrt (sumSq / rounds - mean * mean);
+  }
+
+  /**
+   * Get N0, the number of rounds after which the expected win equals
+   * one standard deviation.
+   * @return N0 in rounds, infinite if the win rate is not positive.
+   */
+  public double getN0 ()
+  {
+    final double mean = getWinRate ();
+    if (mean <= 0.0)
+      return Double.POSITIVE_INFINITY;
+
+    final double sd = getDeviation ();
+    return sd * sd / (mean * mean);
+  }
+
+  /**
+   * Get the number of sessions played.
+   * @return Number of sessions.
+   */
+  public long getSessions ()
+  {
+    return sessions;
+  }
+
+  /**
+   * Get the (weighted) fraction of sessions which lost the bankroll.
+   * @return Observed risk of ruin.
+   */
+  public double getRuinRate ()
+  {
+    return ruined / sessions;
+  }
+
+  /**
+   * Get the standard error of the observed risk of ruin.
+   * @return Standard error of getRuinRate().
+   */
+  public double getRuinError ()
+  {
+    final double p = getRuinRate ();
+    return Math.sqrt ((ruinedSq / sessions - p * p) / sessions);
+  }
+
+  /**
+   * Get the mean session weight, which should be close to 1 if the
+   * importance sampling works.
+   * @return Mean weight.
+   */
+  public double getMeanWeight ()
+  {
+    return weights / sessions;
+  }
+
+  /**
+   * Get the largest session weight, relative to the sum of all weights.
+   * A large share means that a few sessions dominate the estimate.
+   * @return Share of the largest weight.
+   */
+  public double getMaxWeightShare ()
+  {
+    return maxWeight / weights;
+  }
+
+  /**
+   * Get the effective number of sessions, (sum w)^2 / sum w^2.  This is
+   * the number of sessions an unweighted sample of the same variance
+   * would have.
+   * @return Effective sample size.
+   */
+  public double getEffectiveSessions ()
+  {
+    return weights * weights / weightsSq;
+  }
+
+  /**
+   * Get the mean session result.
+   * @return Mean session result in units.
+   */
+  public double getSessionMean ()
+  {
+    return sessionSum / sessions;
+  }
+
+  /**
+   * Get the standard deviation of a session's result.
+   * @return Standard deviation in units.
+   */
+  public double getSessionDeviation ()
+  {
+    final double mean = getSessionMean ();
+    return Math.sqrt (sessionSumSq / sessions - mean * mean);
+  }
+
+  /**
+   * Estimate a quantile of the session results.
+   * @param q The quantile, in [0, 1].
+   * @return The estimated session result in units.
+   */
+  public double getSessionQuantile (double q)
+  {
+    return sessionResults.getQuantile (q);
+  }
+
+  /**
+   * Estimate the risk of ruin for an unlimited number of rounds, by the
+   * usual diffusion approximation exp(-2 * mean * bankroll / variance).
+   * @param bankroll The bankroll in units.
+   * @return Estimated risk of ruin.
+   */
+  public double getRiskOfRuin (double bankroll)
+  {
+    final double mean = getWinRate ();
+    if (mean <= 0.0)
+      return 1.0;
+
+    final double sd = getDeviation ();
+    return Math.exp (-2.0 * mean * bankroll / (sd * sd));
+  }
+
+}
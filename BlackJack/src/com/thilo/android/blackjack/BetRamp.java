@@ -0,0 +1,136 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+/**
+ * Bet sizing by the true count.  The ramp is a list of steps, each of
+ * which sets the bet (in units) from a minimum true count on.  Below the
+ * first step, the bet is one unit.  As for the playing decisions, the
+ * true count is rounded down.
+ */
+public class BetRamp
+{
+
+  /** Minimum true count of each step, ascending.  */
+  private final int[] counts;
+
+  /** Bet of each step.  */
+  private final float[] bets;
+
+  /**
+   * Construct it from the steps.
+   * @param c Minimum true count of each step, ascending.
+   * @param b Bet of each step in units.
+   * @throws RuntimeException If the steps are invalid.
+   */
+  public BetRamp (int[] c, float[] b)
+  {
+    if (c.length != b.length)
+      throw new RuntimeException ("Bet ramp counts and bets differ!");
+    for (int i = 0; i < c.length; ++i)
+      {
+        if (!(b[i] > 0.0f))
+          throw new RuntimeException ("Bets must be positive!");
+        if (i > 0 && c[i] <= c[i - 1])
+          throw new RuntimeException ("Bet ramp counts must ascend!");
+      }
+
+    counts = c.clone ();
+    bets = b.clone ();
+  }
+
+  /**
+   * Parse a ramp given as comma-separated steps "COUNT:BET",
+   * like "2:2,3:4,4:8".
+   * @param spec The ramp.
+   * @return The parsed ramp.
+   * @throws RuntimeException If the ramp is invalid.
+   */
+  public static BetRamp parse (String spec)
+  {
+    final String[] steps = spec.split (",");
+    final int[] c = new int[steps.length];
+    final float[] b = new float[steps.length];
+    for (int i = 0; i < steps.length; ++i)
+      {
+        final String[] parts = steps[i].trim ().split (":");
+        if (parts.length != 2)
+          throw new RuntimeException ("Invalid bet ramp step: " + steps[i]);
+        try
+          {
+            c[i] = Integer.parseInt (parts[0].trim ());
+            b[i] = Float.parseFloat (parts[1].trim ());
+          }
+        catch (NumberFormatException exc)
+          {
+            throw new RuntimeException ("Invalid bet ramp step: "
+                                        + steps[i]);
+          }
+      }
+
+    return new BetRamp (c, b);
+  }
+
+  /**
+   * Get the bet for a true count.
+   * @param trueCount The true count before the round is dealt.
+   * @return The bet in units.
+   */
+  public float getBet (float trueCount)
+  {
+    final int tc = (int) Math.floor (trueCount);
+    float res = 1.0f;
+    for (int i = 0; i < counts.length && counts[i] <= tc; ++i)
+      res = bets[i];
+
+    return res;
+  }
+
+  /**
+   * Get the largest bet of the ramp.
+   * @return The largest bet in units.
+   */
+  public float getMaxBet ()
+  {
+    float res = 1.0f;
+    for (final float b : bets)
+      res = Math.max (res, b);
+
+    return res;
+  }
+
+  /**
+   * Format the ramp as it is parsed.
+   * @return The ramp as string.
+   */
+  @Override
+  public String toString ()
+  {
+    final StringBuilder res = new StringBuilder ();
+    for (int i = 0; i < counts.length; ++i)
+      {
+        if (i > 0)
+          res.append (',');
+        res.append (counts[i]).append (':').append (bets[i]);
+      }
+
+    return res.toString ();
+  }
+
+}
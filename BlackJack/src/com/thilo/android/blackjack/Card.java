@@ -18,21 +18,20 @@
 
 package com.thilo.android.blackjack;
 
-import java.io.Serializable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * An "abstract" card.  This simply contains the card's type and some
- * basic routines, and has nothing to do with the UI.  It is serializable,
- * which is however only used to store the state in Android.  A non-Android
- * way is used for that so that this class can be used for non-Android
- * standalone Java game simulation.
+ * basic routines, and has nothing to do with the UI.  It can be written
+ * in a compact binary form, which is used to store the state in Android.
+ * Plain data streams are used for that so that this class can be used for
+ * non-Android standalone Java game simulation.
  */
-public class Card implements Serializable
+public class Card
 {
 
-  /** Serial version id.  */
-  private static final long serialVersionUID = 0l;
-
   /**
    * Enum for the card suits.
    */
@@ -69,6 +68,72 @@ public class Card implements Serializable
     type = t;
   }
 
+  /** Number of distinct cards, used for the card codes.  */
+  public static final int CODES = 52;
+
+  /** Shared instances for all card codes.  */
+  private static final Card[] byCode = new Card[CODES];
+
+  static
+    {
+      for (final Suit s : Suit.values ())
+        for (byte t = ACE; t <= KING; ++t)
+          {
+            final Card c = new Card (s, t);
+            byCode[c.getCode ()] = c;
+          }
+    }
+
+  /**
+   * Return a compact code for the card, in the range [0, CODES).  This is
+   * used for storing cards in binary form.
+   * @return The card's code.
+   */
+  public int getCode ()
+  {
+    return suit.ordinal () * KING + type - ACE;
+  }
+
+  /**
+   * Get the card for a code.  Since cards are immutable, this returns
+   * a shared instance.
+   * @param code The card code.
+   * @return The card with this code.
+   * @throws RuntimeException If the code is invalid.
+   */
+  public static Card fromCode (int code)
+  {
+    if (code < 0 || code >= CODES)
+      throw new RuntimeException ("Invalid card code: " + code);
+    return byCode[code];
+  }
+
+  /**
+   * Write the card in binary form.
+   * @param out Stream to write to.
+   * @throws IOException If writing fails.
+   */
+  public void write (DataOutput out)
+    throws IOException
+  {
+    out.writeByte (getCode ());
+  }
+
+  /**
+   * Read a card written by write().
+   * @param in Stream to read from.
+   * @return The card read.
+   * @throws IOException If reading fails or the data is invalid.
+   */
+  public static Card read (DataInput in)
+    throws IOException
+  {
+    final int code = in.readUnsignedByte ();
+    if (code >= CODES)
+      throw new IOException ("Invalid card code: " + code);
+    return fromCode (code);
+  }
+
   /**
    * Return the black jack value of the card.  Aces are counted as 11
    * here, and "soft" values are handled differently.
@@ -20,6 +20,10 @@ package com.thilo.android.blackjack;
 
 import android.content.res.Resources;
 
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 
 import android.util.Log;
@@ -27,7 +31,9 @@ import android.util.Log;
 /**
  * This class handles access to the card image ressources.  It is intended
  * so that these can be changed flexibly, from access via multiple files to
- * a single large image which is cropped and the like.
+ * a single large image which is cropped and the like.  All card faces are
+ * decoded once, at the size for the screen density, into a single atlas
+ * bitmap, from which the cards are then drawn.
  */
 public class CardImages
 {
@@ -35,20 +41,47 @@ public class CardImages
   /** Log tag for this class.  */
   private static final String TAG = "BJTrainer/CardImages";
 
-  /** The stored ressources object.  */
-  private Resources res;
+  /** Number of cards per row in the atlas.  */
+  private static final int ATLAS_COLUMNS = 13;
 
-  /** Store a dummy ressource here for size requests.  */
-  private Drawable dummy;
+  /** Width of a card.  */
+  private final int width;
+  /** Height of a card.  */
+  private final int height;
+
+  /** The atlas holding all card faces.  */
+  private Bitmap atlas;
+
+  /** Source rectangle in the atlas for each card code.  */
+  private final Rect[] sources;
 
   /**
-   * Construct it.
+   * Construct it, which builds the atlas.
    * @param r Ressources to use.
    */
   public CardImages (Resources r)
   {
-    res = r;
-    dummy = getCard (new Card (Card.Suit.CLUBS, Card.JACK));
+    final Drawable dummy = r.getDrawable (IDs[getIndex (Card.fromCode (0))]);
+    width = dummy.getIntrinsicWidth ();
+    height = dummy.getIntrinsicHeight ();
+
+    final int rows = (Card.CODES + ATLAS_COLUMNS - 1) / ATLAS_COLUMNS;
+    atlas = Bitmap.createBitmap (width * ATLAS_COLUMNS, height * rows,
+                                 Bitmap.Config.ARGB_8888);
+    sources = new Rect[Card.CODES];
+
+    final Canvas c = new Canvas (atlas);
+    for (int code = 0; code < Card.CODES; ++code)
+      {
+        final int left = width * (code % ATLAS_COLUMNS);
+        final int top = height * (code / ATLAS_COLUMNS);
+        sources[code] = new Rect (left, top, left + width, top + height);
+
+        final Card card = Card.fromCode (code);
+        final Drawable d = r.getDrawable (IDs[getIndex (card)]);
+        d.setBounds (left, top, left + width, top + height);
+        d.draw (c);
+      }
 
     Log.d (TAG, String.format ("Card images:"));
     Log.d (TAG, String.format ("  width:  %d", getWidth ()));
@@ -62,7 +95,7 @@ public class CardImages
    */
   public int getWidth ()
   {
-    return dummy.getIntrinsicWidth ();
+    return width;
   }
 
   /**
@@ -71,7 +104,7 @@ public class CardImages
    */
   public int getHeight ()
   {
-    return dummy.getIntrinsicHeight ();
+    return height;
   }
 
   /**
@@ -85,11 +118,33 @@ public class CardImages
   }
 
   /**
-   * Get the drawable for a specified card.
+   * Draw a card from the atlas.
+   * @param screen Canvas to draw to.
    * @param c The card we want to draw.
-   * @return Drawable for it.
+   * @param dst Target rectangle, the card is scaled to it.
+   * @param p Paint to use, it should filter when scaling.
+   */
+  public void draw (Canvas screen, Card c, Rect dst, Paint p)
+  {
+    screen.drawBitmap (atlas, sources[c.getCode ()], dst, p);
+  }
+
+  /**
+   * Release the atlas.  Cards can not be drawn afterwards.
+   */
+  public void recycle ()
+  {
+    if (atlas != null)
+      atlas.recycle ();
+    atlas = null;
+  }
+
+  /**
+   * Find the index of a card's image in IDs.
+   * @param c The card.
+   * @return Index of its image.
    */
-  public Drawable getCard (Card c)
+  private static int getIndex (Card c)
   {
     int suit = 0;
     switch (c.suit)
@@ -130,8 +185,7 @@ public class CardImages
           break;
       }
 
-    final int ind = suit + 4 * type;
-    return res.getDrawable (IDs[ind]);
+    return suit + 4 * type;
   }
 
   /** Auto-generated array mapping integers to IDs of corresponding cards.  */
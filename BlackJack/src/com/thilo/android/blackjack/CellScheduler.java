@@ -0,0 +1,390 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.util.Random;
+
+/**
+ * Spaced-repetition scheduler for strategy cells.  Each cell has a due
+ * time on a clock counting the hands dealt, and the next cell is taken from
+ * an indexed binary min-heap in O(log n).  Cells answered wrongly are
+ * rescheduled after a gap that is shorter the higher their difficulty and
+ * cost are, and the sooner they were missed again, so that they come back
+ * sooner; cells answered correctly are learned and leave the schedule.
+ * All per-cell state is kept in primitive arrays indexed by cell number.
+ */
+public class CellScheduler
+{
+
+  /** Due time of cells that are not scheduled.  */
+  public static final int NOT_QUEUED = -1;
+
+  /** Minimum number of hands before a wrong cell comes back.  */
+  private static final int MIN_GAP = 3;
+  /**
+   * Additional gap for cells that are neither difficult nor costly, and
+   * limit of the time since the last answer that is used for the gap.
+   */
+  private static final int BASE_GAP = 24;
+
+  /** Weight of the latest answer in the difficulty average.  */
+  private static final float DIFFICULTY_WEIGHT = 0.3f;
+  /** Difficulty of cells not yet answered.  */
+  private static final float INITIAL_DIFFICULTY = 0.5f;
+
+  /** Number of hands dealt so far.  */
+  int clock;
+
+  /** Due time per cell, or NOT_QUEUED.  */
+  final int[] due;
+
+  /** Clock value when each cell was last answered, or -1.  */
+  final int[] lastSeen;
+
+  /** Number of answers per cell.  */
+  final short[] attempts;
+
+  /** Number of wrong answers per cell.  */
+  final short[] errors;
+
+  /** Moving average of wrong answers per cell, in [0, 1].  */
+  final float[] difficulty;
+
+  /** Relative cost of a mistake per cell, 1 by default.  */
+  private final float[] cost;
+
+  /** The heap of scheduled cells.  */
+  private final short[] heap;
+
+  /** Position of each cell in the heap, or -1.  */
+  private final short[] position;
+
+  /** Number of cells in the heap.  */
+  private int size;
+
+  /* The gaps must shrink with the difficulty, the cost and the time since
+     the last answer.  */
+  static
+  {
+    final int gap = getGap (0.5f, 1.0f, BASE_GAP);
+    assert (getGap (0.9f, 1.0f, BASE_GAP) < gap);
+    assert (getGap (0.5f, 4.0f, BASE_GAP) < gap);
+    assert (getGap (0.5f, 1.0f, BASE_GAP / 2) < gap);
+    assert (getGap (0.5f, 0.25f, BASE_GAP) > gap);
+  }
+
+  /**
+   * Construct it with nothing scheduled.
+   */
+  public CellScheduler ()
+  {
+    due = new int[Strategy.NUM_CELLS];
+    lastSeen = new int[Strategy.NUM_CELLS];
+    attempts = new short[Strategy.NUM_CELLS];
+    errors = new short[Strategy.NUM_CELLS];
+    difficulty = new float[Strategy.NUM_CELLS];
+    cost = new float[Strategy.NUM_CELLS];
+    heap = new short[Strategy.NUM_CELLS];
+    position = new short[Strategy.NUM_CELLS];
+
+    for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+      cost[c] = 1.0f;
+
+    clock = 0;
+    size = 0;
+  }
+
+  /**
+   * Start over, scheduling all cells in a random ordering.
+   * @param r Random number generator for the ordering.
+   */
+  public void reset (Random r)
+  {
+    for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+      due[c] = c;
+    for (int i = Strategy.NUM_CELLS - 1; i > 0; --i)
+      {
+        final int j = r.nextInt (i + 1);
+        final int tmp = due[i];
+        due[i] = due[j];
+        due[j] = tmp;
+      }
+
+    for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+      {
+        lastSeen[c] = -1;
+        attempts[c] = 0;
+        errors[c] = 0;
+        difficulty[c] = INITIAL_DIFFICULTY;
+      }
+
+    clock = 0;
+    rebuild ();
+  }
+
+  /**
+   * Rebuild the heap from the due times, after they were set directly.
+   */
+  void rebuild ()
+  {
+    size = 0;
+    for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+      if (due[c] == NOT_QUEUED)
+        position[c] = -1;
+      else
+        {
+          heap[size] = (short) c;
+          position[c] = (short) size;
+          ++size;
+        }
+
+    for (int i = size / 2 - 1; i >= 0; --i)
+      siftDown (i);
+  }
+
+  /**
+   * Get the number of scheduled cells.
+   * @return Number of cells still to learn.
+   */
+  public int size ()
+  {
+    return size;
+  }
+
+  /**
+   * Get the current clock value.
+   * @return Number of hands dealt so far.
+   */
+  public int getClock ()
+  {
+    return clock;
+  }
+
+  /**
+   * Set the relative cost of a mistake for a cell.  Costly cells come
+   * back sooner after a wrong answer.
+   * @param cell The cell.
+   * @param c Cost, 1 being the default.
+   */
+  public void setCost (int cell, float c)
+  {
+    if (!(c > 0.0f))
+      throw new RuntimeException ("Cell cost must be positive!");
+    cost[cell] = c;
+  }
+
+  /**
+   * Get the error rate of a cell.
+   * @param cell The cell.
+   * @return Fraction of wrong answers, or 0 if never answered.
+   */
+  public float getErrorRate (int cell)
+  {
+    if (attempts[cell] == 0)
+      return 0.0f;
+    return (float) errors[cell] / attempts[cell];
+  }
+
+  /**
+   * Take the next cell to deal and advance the clock.  The cell is no
+   * longer scheduled until answer() or requeue() is called for it.
+   * @return The cell, or -1 if none is scheduled.
+   */
+  public int next ()
+  {
+    if (size == 0)
+      return -1;
+
+    final int cell = heap[0];
+    remove (cell);
+    ++clock;
+
+    return cell;
+  }
+
+  /**
+   * Record the answer for a cell taken with next().
+   * @param cell The cell.
+   * @param wrong Whether it was answered wrongly.
+   */
+  public void answer (int cell, boolean wrong)
+  {
+    final int since = (lastSeen[cell] < 0) ? BASE_GAP : clock - lastSeen[cell];
+    lastSeen[cell] = clock;
+
+    if (attempts[cell] < Short.MAX_VALUE)
+      {
+        ++attempts[cell];
+        if (wrong)
+          ++errors[cell];
+      }
+    difficulty[cell] += DIFFICULTY_WEIGHT
+                          * ((wrong ? 1.0f : 0.0f) - difficulty[cell]);
+
+    /* Cells are only rescheduled while all their answers were wrong, so
+       the error rate is always 1 here and not used.  */
+    if (wrong)
+      schedule (cell, getNow () + getGap (difficulty[cell], cost[cell],
+                                          since));
+  }
+
+  /**
+   * Compute the gap before a wrongly answered cell comes back.  It is the
+   * time since the cell's previous answer, at most BASE_GAP, scaled by the
+   * ease (1 - difficulty) / cost, so that a cell missed again comes back
+   * sooner each time.
+   * @param d Difficulty of the cell, including this answer.
+   * @param c Cost of the cell.
+   * @param since Number of hands since its previous answer.
+   * @return Number of hands until it is due.
+   */
+  static int getGap (float d, float c, int since)
+  {
+    final float ease = (1.0f - d) / c;
+    return MIN_GAP + (int) (Math.min (since, BASE_GAP) * ease);
+  }
+
+  /**
+   * Schedule a cell taken with next() but not answered as due now.
+   * @param cell The cell.
+   */
+  public void requeue (int cell)
+  {
+    schedule (cell, getNow ());
+  }
+
+  /**
+   * Get the due time of a cell to be dealt next.  Each rescheduled cell
+   * delays the ones due after it by a hand, so that the earliest due time
+   * can be behind the clock.  Gaps are counted from there, so that they
+   * are the number of hands dealt before the cell.
+   * @return The earliest due time, or the clock if that is earlier.
+   */
+  private int getNow ()
+  {
+    if (size == 0)
+      return clock;
+    return Math.min (clock, due[heap[0]]);
+  }
+
+  /**
+   * Put a cell into the heap.
+   * @param cell The cell, which must not be scheduled.
+   * @param when Its due time.
+   */
+  private void schedule (int cell, int when)
+  {
+    assert (position[cell] == -1);
+
+    due[cell] = when;
+    heap[size] = (short) cell;
+    position[cell] = (short) size;
+    ++size;
+    siftUp (size - 1);
+  }
+
+  /**
+   * Take a cell out of the heap.
+   * @param cell The cell, which must be scheduled.
+   */
+  private void remove (int cell)
+  {
+    final int i = position[cell];
+    assert (i >= 0);
+
+    --size;
+    if (i != size)
+      {
+        put (i, heap[size]);
+        siftDown (i);
+        siftUp (i);
+      }
+
+    position[cell] = -1;
+    due[cell] = NOT_QUEUED;
+  }
+
+  /**
+   * Move an element up to its place in the heap.
+   * @param i Its position.
+   */
+  private void siftUp (int i)
+  {
+    final short cell = heap[i];
+    while (i > 0)
+      {
+        final int parent = (i - 1) / 2;
+        if (!before (cell, heap[parent]))
+          break;
+        put (i, heap[parent]);
+        i = parent;
+      }
+    put (i, cell);
+  }
+
+  /**
+   * Move an element down to its place in the heap.
+   * @param i Its position.
+   */
+  private void siftDown (int i)
+  {
+    final short cell = heap[i];
+    while (true)
+      {
+        int child = 2 * i + 1;
+        if (child >= size)
+          break;
+        if (child + 1 < size && before (heap[child + 1], heap[child]))
+          ++child;
+        if (!before (heap[child], cell))
+          break;
+        put (i, heap[child]);
+        i = child;
+      }
+    put (i, cell);
+  }
+
+  /**
+   * Store a cell at a heap position.
+   * @param i The position.
+   * @param cell The cell.
+   */
+  private void put (int i, short cell)
+  {
+    heap[i] = cell;
+    position[cell] = (short) i;
+  }
+
+  /**
+   * Compare cells in the heap order:  Earlier due first, and for equal
+   * due times more difficult cells first.
+   * @param a First cell.
+   * @param b Second cell.
+   * @return True iff a comes strictly before b.
+   */
+  private boolean before (int a, int b)
+  {
+    if (due[a] != due[b])
+      return due[a] < due[b];
+    if (difficulty[a] != difficulty[b])
+      return difficulty[a] > difficulty[b];
+    return a < b;
+  }
+
+}
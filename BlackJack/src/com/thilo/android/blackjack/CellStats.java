@@ -0,0 +1,206 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import java.util.Arrays;
+
+/**
+ * Accumulated simulation results per strategy cell and true count.  For
+ * each slot, the number of rounds as well as the sum and sum of squares
+ * of the round results are kept in primitive arrays, so that adding a
+ * round is cheap and mean and variance can be derived later on.  Each
+ * simulation shard fills its own instance, which are then merged.
+ */
+public class CellStats
+{
+
+  /** True counts are clamped to [-MAX_COUNT, MAX_COUNT].  */
+  public static final int MAX_COUNT = 10;
+
+  /** Number of true count buckets per cell.  */
+  public static final int COUNT_BUCKETS = 2 * MAX_COUNT + 1;
+
+  /** Total number of slots.  */
+  public static final int SLOTS = Strategy.NUM_CELLS * COUNT_BUCKETS;
+
+  /** Number of rounds per slot.  */
+  final long[] count;
+
+  /** Sum of round results per slot.  */
+  final double[] sum;
+
+  /** Sum of squared round results per slot.  */
+  final double[] sumSq;
+
+  /**
+   * Construct it empty.
+   */
+  public CellStats ()
+  {
+    count = new long[SLOTS];
+    sum = new double[SLOTS];
+    sumSq = new double[SLOTS];
+  }
+
+  /**
+   * Record the result of a round.
+   * @param cell Strategy cell of the initial hand.
+   * @param trueCount True count before the round was dealt.
+   * @param value The round's result, in units of the initial bet.
+   */
+  public void add (int cell, float trueCount, double value)
+  {
+    final int slot = getSlot (cell, getBucket (trueCount));
+    ++count[slot];
+    sum[slot] += value;
+    sumSq[slot] += value * value;
+  }
+
+  /**
+   * Merge another instance into this one.
+   * @param o The other stats.
+   */
+  public void merge (CellStats o)
+  {
+    for (int i = 0; i < SLOTS; ++i)
+      {
+        count[i] += o.count[i];
+        sum[i] += o.sum[i];
+        sumSq[i] += o.sumSq[i];
+      }
+  }
+
+  /**
+   * Write the accumulated data.  Only slots with rounds in them are
+   * written, which keeps checkpoints of short runs small.
+   * @param out Stream to write to.
+   * @throws IOException If writing fails.
+   */
+  public void write (DataOutput out)
+    throws IOException
+  {
+    int used = 0;
+    for (int i = 0; i < SLOTS; ++i)
+      if (count[i] != 0)
+        ++used;
+
+    out.writeInt (used);
+    for (int i = 0; i < SLOTS; ++i)
+      if (count[i] != 0)
+        {
+          out.writeShort (i);
+          out.writeLong (count[i]);
+          out.writeDouble (sum[i]);
+          out.writeDouble (sumSq[i]);
+        }
+  }
+
+  /**
+   * Replace the data by what was written with write().
+   * @param in Stream to read from.
+   * @throws IOException If reading fails or the data is invalid.
+   */
+  public void read (DataInput in)
+    throws IOException
+  {
+    Arrays.fill (count, 0);
+    Arrays.fill (sum, 0.0);
+    Arrays.fill (sumSq, 0.0);
+
+    final int used = in.readInt ();
+    for (int j = 0; j < used; ++j)
+      {
+        final int i = in.readUnsignedShort ();
+        if (i >= SLOTS)
+          throw new IOException ("Invalid slot in saved stats!");
+        count[i] = in.readLong ();
+        sum[i] = in.readDouble ();
+        sumSq[i] = in.readDouble ();
+      }
+  }
+
+  /**
+   * Get the total number of rounds recorded.
+   * @return Number of rounds.
+   */
+  public long getRounds ()
+  {
+    long res = 0;
+    for (int i = 0; i < SLOTS; ++i)
+      res += count[i];
+    return res;
+  }
+
+  /**
+   * Get the sum of all round results recorded.
+   * @return Sum of results.
+   */
+  public double getSum ()
+  {
+    double res = 0.0;
+    for (int i = 0; i < SLOTS; ++i)
+      res += sum[i];
+    return res;
+  }
+
+  /**
+   * Get the sum of all squared round results recorded.
+   * @return Sum of squared results.
+   */
+  public double getSumSquares ()
+  {
+    double res = 0.0;
+    for (int i = 0; i < SLOTS; ++i)
+      res += sumSq[i];
+    return res;
+  }
+
+  /**
+   * Find the bucket for a true count.  The true count is rounded down,
+   * as is customary for betting and playing decisions.
+   * @param trueCount The true count.
+   * @return Bucket index in [0, COUNT_BUCKETS).
+   */
+  public static int getBucket (float trueCount)
+  {
+    int tc = (int) Math.floor (trueCount);
+    if (tc < -MAX_COUNT)
+      tc = -MAX_COUNT;
+    else if (tc > MAX_COUNT)
+      tc = MAX_COUNT;
+
+    return tc + MAX_COUNT;
+  }
+
+  /**
+   * Find the slot index for a cell and bucket.
+   * @param cell Strategy cell.
+   * @param bucket True count bucket.
+   * @return Slot index.
+   */
+  public static int getSlot (int cell, int bucket)
+  {
+    return cell * COUNT_BUCKETS + bucket;
+  }
+
+}
@@ -0,0 +1,214 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Writes and reads checkpoints of simulation shards.  Shards take a
+ * snapshot of their state in memory at a round boundary and hand it over,
+ * and the actual file I/O is done on a background thread so that workers
+ * are not stalled by the disk.  Each file is written under a temporary
+ * name, synced and then renamed over the previous checkpoint, so that
+ * there is always a complete checkpoint even if the process dies while
+ * writing.  A fingerprint of the simulation parameters guards against
+ * resuming with different settings.
+ */
+public class Checkpointer
+{
+
+  /** Magic number at the file start, "BJCK".  */
+  private static final int MAGIC = 0x424a434b;
+  /** Version of the file format.  */
+  private static final int VERSION = 2;
+
+  /** Directory holding the checkpoints.  */
+  private final File dir;
+
+  /** Interval between checkpoints in nanoseconds.  */
+  public final long interval;
+
+  /** Fingerprint of the simulation parameters.  */
+  private final long fingerprint;
+
+  /** Background thread writing the files.  */
+  private final ExecutorService writer;
+
+  /**
+   * Construct it.
+   * @param d Directory for the checkpoint files.
+   * @param millis Interval between checkpoints in milliseconds.
+   * @param fp Fingerprint of the simulation parameters.
+   * @throws IOException If the directory can not be created.
+   */
+  public Checkpointer (File d, long millis, long fp)
+    throws IOException
+  {
+    if (!d.isDirectory () && !d.mkdirs ())
+      throw new IOException ("Could not create checkpoint directory!");
+
+    dir = d;
+    interval = TimeUnit.MILLISECONDS.toNanos (millis);
+    fingerprint = fp;
+    writer = Executors.newSingleThreadExecutor ();
+  }
+
+  /**
+   * Queue a snapshot of a shard for writing.
+   * @param shard Index of the shard.
+   * @param state The shard's serialised state.
+   * @return Future that is done when the file is written.
+   */
+  public Future<?> submit (final int shard, final byte[] state)
+  {
+    return writer.submit (new Runnable ()
+      {
+        public void run ()
+        {
+          try
+            {
+              write (shard, state);
+            }
+          catch (IOException exc)
+            {
+              exc.printStackTrace ();
+              System.err.println ("Writing checkpoint of shard " + shard
+                                  + " failed, keeping the previous one.");
+            }
+        }
+      });
+  }
+
+  /**
+   * Load the last checkpoint of a shard.
+   * @param shard Index of the shard.
+   * @return The shard's serialised state, or null if there is none.
+   * @throws IOException If the checkpoint is corrupt or does not match.
+   */
+  public byte[] load (int shard)
+    throws IOException
+  {
+    final File f = getFile (shard);
+    if (!f.exists ())
+      return null;
+
+    final DataInputStream in = new DataInputStream (new FileInputStream (f));
+    try
+      {
+        if (in.readInt () != MAGIC || in.readInt () != VERSION)
+          throw new IOException ("Not a checkpoint file: " + f);
+        if (in.readLong () != fingerprint || in.readInt () != shard)
+          throw new IOException ("Checkpoint is from another simulation: "
+                                 + f);
+
+        final byte[] state = new byte[in.readInt ()];
+        in.readFully (state);
+
+        final CRC32 crc = new CRC32 ();
+        crc.update (state);
+        if (in.readLong () != crc.getValue ())
+          throw new IOException ("Checkpoint is corrupt: " + f);
+
+        return state;
+      }
+    finally
+      {
+        in.close ();
+      }
+  }
+
+  /**
+   * Wait until all queued checkpoints are written and stop the writer.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public void finish ()
+    throws InterruptedException
+  {
+    writer.shutdown ();
+    writer.awaitTermination (Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Remove the checkpoints after the simulation is complete.
+   * @param shards Number of shards.
+   */
+  public void delete (int shards)
+  {
+    for (int i = 0; i < shards; ++i)
+      getFile (i).delete ();
+  }
+
+  /**
+   * Write a checkpoint file.
+   * @param shard Index of the shard.
+   * @param state The shard's serialised state.
+   * @throws IOException If writing fails.
+   */
+  private void write (int shard, byte[] state)
+    throws IOException
+  {
+    final CRC32 crc = new CRC32 ();
+    crc.update (state);
+
+    final File tmp = new File (dir, "shard-" + shard + ".tmp");
+    final FileOutputStream fileOut = new FileOutputStream (tmp);
+    try
+      {
+        final DataOutputStream out = new DataOutputStream (fileOut);
+        out.writeInt (MAGIC);
+        out.writeInt (VERSION);
+        out.writeLong (fingerprint);
+        out.writeInt (shard);
+        out.writeInt (state.length);
+        out.write (state);
+        out.writeLong (crc.getValue ());
+        out.flush ();
+        fileOut.getFD ().sync ();
+      }
+    finally
+      {
+        fileOut.close ();
+      }
+
+    if (!tmp.renameTo (getFile (shard)))
+      throw new IOException ("Renaming checkpoint failed: " + tmp);
+  }
+
+  /**
+   * Get the checkpoint file of a shard.
+   * @param shard Index of the shard.
+   * @return The file.
+   */
+  private File getFile (int shard)
+  {
+    return new File (dir, "shard-" + shard + ".ckpt");
+  }
+
+}
@@ -0,0 +1,237 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import java.util.Arrays;
+
+/**
+ * Counters of playing decisions per strategy cell:  How often each
+ * decision was chosen, how many of them were not optimal and the EV lost
+ * by those.  Recording a decision is O(1), so that this can be fed both
+ * from the trainer and from simulated imperfect players.  The counters
+ * are longs, since long simulations make billions of decisions.  The EV tables
+ * hold the EV of the first decision of a hand only, so later decisions
+ * (like on hard 14 after a hit) are counted but not priced, and the EV
+ * lost is a lower bound.
+ */
+public class DecisionStats
+{
+
+  /** Number of decisions per cell.  */
+  public static final int DECISIONS = EvTable.DECISIONS;
+
+  /** Number of decisions per cell and chosen decision.  */
+  private final long[] chosen;
+
+  /** Number of decisions per cell.  */
+  private final long[] total;
+
+  /** Number of wrong decisions per cell.  */
+  private final long[] errors;
+
+  /** EV lost per cell, in units of the initial bet.  */
+  private final double[] evLost;
+
+  /**
+   * Construct it empty.
+   */
+  public DecisionStats ()
+  {
+    chosen = new long[Strategy.NUM_CELLS * DECISIONS];
+    total = new long[Strategy.NUM_CELLS];
+    errors = new long[Strategy.NUM_CELLS];
+    evLost = new double[Strategy.NUM_CELLS];
+  }
+
+  /**
+   * Record a decision.
+   * @param cell The strategy cell.
+   * @param c The decision chosen.
+   * @param optimal The optimal decision.
+   * @param ev EV table to price mistakes with, may be null.  It should
+   *           be given only for the first decision of a hand.
+   */
+  public void record (int cell, Strategy.Decision c,
+                      Strategy.Decision optimal, EvTable ev)
+  {
+    ++chosen[cell * DECISIONS + c.ordinal ()];
+    ++total[cell];
+    if (c != optimal)
+      {
+        ++errors[cell];
+        if (ev != null)
+          evLost[cell] += ev.getLoss (cell, c, optimal);
+      }
+  }
+
+  /**
+   * Merge another instance into this one.
+   * @param o The other stats.
+   */
+  public void merge (DecisionStats o)
+  {
+    for (int i = 0; i < chosen.length; ++i)
+      chosen[i] += o.chosen[i];
+    for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+      {
+        total[c] += o.total[c];
+        errors[c] += o.errors[c];
+        evLost[c] += o.evLost[c];
+      }
+  }
+
+  /**
+   * Clear all counters.
+   */
+  public void clear ()
+  {
+    Arrays.fill (chosen, 0);
+    Arrays.fill (total, 0);
+    Arrays.fill (errors, 0);
+    Arrays.fill (evLost, 0.0);
+  }
+
+  /**
+   * Get how often a decision was chosen.
+   * @param cell The cell.
+   * @param d The decision.
+   * @return Number of times it was chosen.
+   */
+  public long getChosen (int cell, Strategy.Decision d)
+  {
+    return chosen[cell * DECISIONS + d.ordinal ()];
+  }
+
+  /**
+   * Get the number of decisions.
+   * @param cell The cell, or -1 for all cells.
+   * @return Number of decisions recorded.
+   */
+  public long getTotal (int cell)
+  {
+    if (cell != -1)
+      return total[cell];
+
+    long res = 0;
+    for (final long n : total)
+      res += n;
+    return res;
+  }
+
+  /**
+   * Get the number of wrong decisions.
+   * @param cell The cell, or -1 for all cells.
+   * @return Number of wrong decisions recorded.
+   */
+  public long getErrors (int cell)
+  {
+    if (cell != -1)
+      return errors[cell];
+
+    long res = 0;
+    for (final long n : errors)
+      res += n;
+    return res;
+  }
+
+  /**
+   * Get the error rate.
+   * @param cell The cell, or -1 for all cells.
+   * @return Fraction of wrong decisions, or 0 if none were recorded.
+   */
+  public float getErrorRate (int cell)
+  {
+    final long n = getTotal (cell);
+    if (n == 0)
+      return 0.0f;
+    return (float) ((double) getErrors (cell) / n);
+  }
+
+  /**
+   * Get the EV lost by wrong decisions.
+   * @param cell The cell, or -1 for all cells.
+   * @return EV lost in units of the initial bet.
+   */
+  public double getEvLost (int cell)
+  {
+    if (cell != -1)
+      return evLost[cell];
+
+    double res = 0.0;
+    for (final double v : evLost)
+      res += v;
+    return res;
+  }
+
+  /**
+   * Write the counters.  Only cells with decisions are written.
+   * @param out Stream to write to.
+   * @throws IOException If writing fails.
+   */
+  public void write (DataOutput out)
+    throws IOException
+  {
+    int used = 0;
+    for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+      if (total[c] != 0)
+        ++used;
+
+    out.writeShort (used);
+    for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+      if (total[c] != 0)
+        {
+          out.writeShort (c);
+          for (int d = 0; d < DECISIONS; ++d)
+            out.writeLong (chosen[c * DECISIONS + d]);
+          out.writeLong (total[c]);
+          out.writeLong (errors[c]);
+          out.writeDouble (evLost[c]);
+        }
+  }
+
+  /**
+   * Replace the counters by what was written with write().
+   * @param in Stream to read from.
+   * @throws IOException If reading fails or the data is invalid.
+   */
+  public void read (DataInput in)
+    throws IOException
+  {
+    clear ();
+
+    final int used = in.readUnsignedShort ();
+    for (int j = 0; j < used; ++j)
+      {
+        final int c = in.readUnsignedShort ();
+        if (c >= Strategy.NUM_CELLS)
+          throw new IOException ("Invalid cell in saved decisions!");
+
+        for (int d = 0; d < DECISIONS; ++d)
+          chosen[c * DECISIONS + d] = in.readLong ();
+        total[c] = in.readLong ();
+        errors[c] = in.readLong ();
+        evLost[c] = in.readDouble ();
+      }
+  }
+
+}
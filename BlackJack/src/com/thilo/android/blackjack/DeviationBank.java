@@ -0,0 +1,239 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.io.IOException;
+
+import java.util.Arrays;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * A strategy with count-based index plays.  Each cell has a true count
+ * threshold and two entries, the one played below the threshold and the
+ * one played at or above it.  Cells without deviation have a threshold
+ * of minus infinity, so that deciding always takes a single comparison.
+ * Deviations are read from index files like the Illustrious 18, which
+ * give per cell the index and the play either from or below it, and the
+ * other side is the entry of the base strategy.
+ */
+public class DeviationBank
+{
+
+  /** Threshold per cell.  */
+  private final float[] threshold;
+
+  /** Entry per cell below the threshold.  */
+  private final Strategy.MatrixEntry[] below;
+  /** Entry per cell at or above the threshold.  */
+  private final Strategy.MatrixEntry[] above;
+
+  /** Number of cells with a deviation.  */
+  private int count;
+
+  /**
+   * Construct it without deviations.
+   * @param base The base strategy.
+   */
+  public DeviationBank (Strategy base)
+  {
+    threshold = new float[Strategy.NUM_CELLS];
+    below = new Strategy.MatrixEntry[Strategy.NUM_CELLS];
+    above = new Strategy.MatrixEntry[Strategy.NUM_CELLS];
+    Arrays.fill (threshold, Float.NEGATIVE_INFINITY);
+    for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+      {
+        below[c] = base.getEntry (c);
+        above[c] = below[c];
+      }
+    count = 0;
+  }
+
+  /**
+   * Add a deviation.
+   * @param cell The cell.
+   * @param index The true count index.
+   * @param fromIndex If true, the play is made at or above the index,
+   *                  otherwise below it.
+   * @param e The play.
+   * @throws RuntimeException If the cell has a deviation already.
+   */
+  public void add (int cell, float index, boolean fromIndex,
+                   Strategy.MatrixEntry e)
+  {
+    if (threshold[cell] != Float.NEGATIVE_INFINITY)
+      throw new RuntimeException ("Cell has a deviation already!");
+
+    threshold[cell] = index;
+    if (fromIndex)
+      above[cell] = e;
+    else
+      below[cell] = e;
+    ++count;
+  }
+
+  /**
+   * Get the number of deviations.
+   * @return Number of cells with a deviation.
+   */
+  public int getCount ()
+  {
+    return count;
+  }
+
+  /**
+   * Get the threshold of a cell.
+   * @param cell The cell.
+   * @return The threshold, minus infinity if there is no deviation.
+   */
+  public float getThreshold (int cell)
+  {
+    return threshold[cell];
+  }
+
+  /**
+   * Get the entry played in a cell.
+   * @param cell The cell.
+   * @param trueCount The true count.
+   * @return The entry.
+   */
+  public Strategy.MatrixEntry getEntry (int cell, float trueCount)
+  {
+    return trueCount >= threshold[cell] ? above[cell] : below[cell];
+  }
+
+  /**
+   * Decide what to do at a given true count.
+   * @param g The current game.
+   * @param allowSplit Whether pairs may be split.
+   * @param trueCount The true count.
+   * @return Playing decision.
+   * @throws RuntimeException If the strategy has no entry.
+   */
+  public Strategy.Decision decide (Game g, boolean allowSplit,
+                                   float trueCount)
+  {
+    final int cell = Strategy.getCell (g, allowSplit);
+    if (cell == -1)
+      return Strategy.Decision.HIT;
+    return Strategy.resolve (getEntry (cell, trueCount), g.getPlayerHand ());
+  }
+
+  /**
+   * Add the deviations of an index file.
+   * @param p The parser to use.
+   * @throws RuntimeException If the XML is invalid.
+   */
+  public void fill (XmlPullParser p)
+  {
+    try
+      {
+        p.setFeature (XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+
+        /* Skip forward to the root element like Strategy.fill().  */
+        if (p.getEventType () != XmlPullParser.START_DOCUMENT)
+          throw new RuntimeException ("Expected document start event!");
+        while (p.getEventType () != XmlPullParser.START_TAG)
+          if (p.next () == XmlPullParser.END_DOCUMENT)
+            throw new RuntimeException ("Expected deviations as root"
+                                        + " element!");
+        if (!Strategy.checkTag (p, "deviations"))
+          throw new RuntimeException ("Expected deviations as root"
+                                      + " element!");
+
+        while (p.nextTag () == XmlPullParser.START_TAG)
+          {
+            Strategy.Matrix m;
+            if (Strategy.checkTag (p, "hard"))
+              m = Strategy.Matrix.HARD;
+            else if (Strategy.checkTag (p, "soft"))
+              m = Strategy.Matrix.SOFT;
+            else if (Strategy.checkTag (p, "pairs"))
+              m = Strategy.Matrix.PAIR;
+            else
+              throw new RuntimeException ("Expected matrix tag!");
+            parseMatrix (p, m);
+          }
+
+        if (p.next () != XmlPullParser.END_DOCUMENT)
+          throw new RuntimeException ("Expected end of document!");
+      }
+    catch (XmlPullParserException exc)
+      {
+        exc.printStackTrace ();
+        throw new RuntimeException ("Parsing failed: " + exc.getMessage ());
+      }
+    catch (IOException exc)
+      {
+        exc.printStackTrace ();
+        throw new RuntimeException ("Reading XML failed: "
+                                    + exc.getMessage ());
+      }
+  }
+
+  /**
+   * Parse the deviations of one matrix.
+   * @param p The parser to use.
+   * @param m The matrix.
+   * @throws RuntimeException If parsing fails.
+   * @throws XmlPullParserException If the parser throws.
+   * @throws IOException If reading the XML fails.
+   */
+  private void parseMatrix (XmlPullParser p, Strategy.Matrix m)
+    throws XmlPullParserException, IOException
+  {
+    while (p.nextTag () == XmlPullParser.START_TAG)
+      {
+        if (!Strategy.checkTag (p, "index"))
+          throw new RuntimeException ("Expected index tag!");
+
+        final String player = p.getAttributeValue (null, "player");
+        final String dealer = p.getAttributeValue (null, "dealer");
+        final String from = p.getAttributeValue (null, "from");
+        final String below = p.getAttributeValue (null, "below");
+        if (player == null || dealer == null)
+          throw new RuntimeException ("player or dealer attribute missing!");
+        if ((from == null) == (below == null))
+          throw new RuntimeException ("Expected either from or below"
+                                      + " attribute!");
+
+        final int cell;
+        final float index;
+        try
+          {
+            cell = Strategy.getCell (m, Integer.parseInt (player),
+                                     Integer.parseInt (dealer));
+            index = Float.parseFloat (from != null ? from : below);
+          }
+        catch (NumberFormatException exc)
+          {
+            throw new RuntimeException ("Invalid number in index: "
+                                        + exc.getMessage ());
+          }
+
+        add (cell, index, from != null, Strategy.parseEntry (p.nextText ()));
+
+        /* nextText advances to END_TAG already!  */
+        if (p.getEventType () != XmlPullParser.END_TAG)
+          throw new RuntimeException ("Expected index end tag!");
+      }
+  }
+
+}
@@ -26,11 +26,18 @@ import android.os.Bundle;
 
 import android.preference.PreferenceManager;
 
-import android.webkit.WebView;
+import android.view.View;
+
+import android.widget.TextView;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Activity to display the optimal strategy to the user, which is done
- * by building a HTML page displayed then in a WebView.
+ * by a StrategyChart.  Cells where the user made wrong decisions in the
+ * trainer are framed, the darker the more often.  The chart is built in
+ * the background and shown when it is ready.
  */
 public class DisplayStrategy extends Activity
 {
@@ -38,8 +45,10 @@ public class DisplayStrategy extends Activity
   /** Shared preferences used.  */
   private SharedPreferences pref;
 
-  /** The strategy displayed.  */
-  private Strategy optimal;
+  /** Executor for building the chart.  */
+  private ExecutorService startup;
+  /** Whether the activity is destroyed.  */
+  private boolean destroyed;
 
   /**
    * Create the activity.
@@ -54,212 +63,58 @@ public class DisplayStrategy extends Activity
     setContentView (R.layout.strategy_display);
 
     final boolean h17 = pref.getBoolean ("h17", false);
-    optimal = new Strategy ();
-    optimal.fill (getResources ().getXml (R.xml.strategy_stand17), false);
+    TextView rules = (TextView) findViewById (R.id.strategy_rules);
     if (h17)
-      optimal.fill (getResources ().getXml (R.xml.strategy_h17), true);
-
-    WebView v = (WebView) findViewById (R.id.strategy_display);
-    v.loadData (buildHTML (), "text/html", null);
-  }
-
-  /**
-   * Actually build the HTML page.
-   * @return HTML data to display.
-   */
-  private String buildHTML ()
-  {
-    StringBuffer data = new StringBuffer ();
-    data.append ("<!DOCTYPE html>");
-    data.append ("<html><head>");
-
-    data.append ("<style type='text/css'>");
-    data.append ("table { border-collapse: collapse; }");
-    data.append ("td, th { border: thin solid black; text-align: center; }");
-    data.append (".hit { background-color: #0f0; }");
-    data.append (".stand { background-color: red; }");
-    data.append (".split { background-color: yellow; }");
-    data.append (".double { background-color: cyan; }");
-    data.append ("</style>");
-
-    data.append ("</head><body>");
-
-    data.append ("<p>");
-    if (pref.getBoolean ("h17", false))
-      data.append (getString (R.string.html_h17));
+      rules.setText (R.string.chart_h17);
     else
-      data.append (getString (R.string.html_noH17));
-    data.append ("</p>");
+      rules.setText (R.string.chart_noH17);
 
-    data.append ("<table>");
-    data.append ("<thead>");
-    data.append ("<tr>");
-    data.append ("<th rowspan='2'>");
-    data.append (getString (R.string.html_player_hand));
-    data.append ("</th>");
-    data.append ("<th colspan='10'>");
-    data.append (getString (R.string.html_dealer_card));
-    data.append ("</th>");
-    data.append ("</tr>");
-    data.append ("<tr>");
-    putDealerHeader (data);
-    data.append ("</tr>");
-    data.append ("</thead>");
-
-    buildMatrix (data, R.string.html_hard, Strategy.Matrix.HARD, 5, 20);
-    buildMatrix (data, R.string.html_soft, Strategy.Matrix.SOFT, 13, 20);
-    buildMatrix (data, R.string.html_pairs, Strategy.Matrix.PAIR, 2, 11);
-
-    data.append ("</table>");
-    data.append ("</body></html");
-
-    return data.toString ();
-  }
-
-  /**
-   * Build HTML for one of the three matrices.
-   * @param data Put data here.
-   * @param titleId String-ID for title to add.
-   * @param mType Matrix type to show.
-   * @param from From this player index.
-   * @param to To this player index.
-   */
-  private void buildMatrix (StringBuffer data, int titleId,
-                            Strategy.Matrix mType, int from, int to)
-  {
-    data.append ("<tbody><tr>");
-    data.append ("<th colspan='11'>");
-    data.append (getString (titleId));
-    data.append ("</th></tr>");
-
-    if (mType != Strategy.Matrix.HARD)
+    final TrainerStats stats = new TrainerStats ();
+    stats.load (this);
+    final DecisionStats decisions = stats.decisions;
+    final long total = decisions.getTotal (-1);
+    if (total > 0)
       {
-        data.append ("<tr><td></td>");
-        putDealerHeader (data);
-        data.append ("</tr>");
+        TextView heat = (TextView) findViewById (R.id.strategy_heat);
+        heat.setText (String.format (getString (R.string.chart_heat),
+                                     decisions.getErrors (-1), total,
+                                     100.0 * decisions.getEvLost (-1)
+                                       / total));
+        heat.setVisibility (View.VISIBLE);
       }
 
-    final Strategy.MatrixEntry[][] m = optimal.getMatrix (mType);
-    Strategy.MatrixEntry[] currentRow = null;
-    String currentEnd = null, currentStart = null;
-    for (int i = to; i >= from; --i)
+    final StrategyChart chart
+      = (StrategyChart) findViewById (R.id.strategy_chart);
+    chart.setStats (decisions);
+
+    destroyed = false;
+    startup = Executors.newSingleThreadExecutor ();
+    startup.execute (new Runnable ()
       {
-        boolean mismatch = false;
-        if (currentRow == null)
-          mismatch = true;
-        else
-          for (int j = 2; j <= 11; ++j)
-            if (currentRow[j]  != m[i][j])
+        public void run ()
+        {
+          StrategyChart.buildSheet (getApplicationContext (), h17);
+          runOnUiThread (new Runnable ()
+            {
+              public void run ()
               {
-                mismatch = true;
-                break;
+                if (!destroyed)
+                  chart.setRules (h17);
               }
-
-        if (mismatch)
-          {
-            if (currentRow != null)
-              buildRow (data, currentStart, currentEnd, currentRow);
-
-            currentRow = m[i];
-            currentEnd = null;
-          }
-
-        switch (mType)
-          {
-            case HARD:
-              currentStart = String.format ("%d", i);
-              break;
-
-            case SOFT:
-              currentStart = String.format ("A,%d", i - 11);
-              break;
-
-            case PAIR:
-              String val;
-              if (i == 11)
-                val = "A";
-              else
-                val = String.format ("%d", i);
-              currentStart = String.format ("%s,%s", val, val);
-              break;
-
-            default:
-              assert (false);
-          }
-
-        if (currentEnd == null)
-          currentEnd = currentStart;
-      }
-    buildRow (data, currentStart, currentEnd, currentRow);
-
-    data.append ("</th></tr>");
-    data.append ("</tbody>");
-  }
-
-  /**
-   * Build HTML for one table row.
-   * @param data Put data here.
-   * @param start Start label.
-   * @param end End label.
-   * @param row Data of this row.
-   */
-  private void buildRow (StringBuffer data, String start, String end,
-                         Strategy.MatrixEntry[] row)
-  {
-    String player;
-    if (!start.equals (end))
-      player = String.format ("%s-%s", start, end);
-    else
-      player = start;
-    
-    data.append (String.format ("<tr><th>%s</th>", player));
-    for (int i = 2; i <= 11; ++i)
-      {
-        String clazz = null, content = null;
-        switch (row[i])
-          {
-            case HIT:
-              clazz = "hit";
-              content = "H";
-              break;
-
-            case STAND:
-              clazz = "stand";
-              content = "S";
-              break;
-
-            case SPLIT:
-              clazz = "split";
-              content = "SP";
-              break;
-
-            case DOUBLE_HIT:
-              clazz = "double";
-              content = "Dh";
-              break;
-
-            case DOUBLE_STAND:
-              clazz = "double";
-              content = "Ds";
-              break;
-
-            default:
-              assert (false);
-          }
-        data.append (String.format ("<td class='%s'>%s</td>", clazz, content));
-      }
-    data.append ("</tr>");
+            });
+        }
+      });
   }
 
   /**
-   * Put HTML code for dealer header.
-   * @param data Where to put the data.
+   * Stop building the chart when the activity goes away.
    */
-  private void putDealerHeader (StringBuffer data)
+  @Override
+  public void onDestroy ()
   {
-    for (int i = 2; i <= 10; ++i)
-      data.append (String.format ("<th>%d</th>", i));
-    data.append ("<th>A</th>");
+    destroyed = true;
+    startup.shutdown ();
+    super.onDestroy ();
   }
 
 }
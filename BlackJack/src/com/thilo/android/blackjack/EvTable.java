@@ -0,0 +1,160 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import java.util.Arrays;
+
+/**
+ * Expected value of each decision in each strategy cell, as estimated by
+ * the simulator.  This is used to price mistakes:  The EV lost by a
+ * decision is the difference to the EV of the optimal one.
+ */
+public class EvTable
+{
+
+  /** Magic number at the start of the data, "BJEV".  */
+  private static final int MAGIC = 0x424a4556;
+  /** Version of the data format.  */
+  private static final int VERSION = 1;
+
+  /** Number of decisions per cell.  */
+  public static final int DECISIONS = Strategy.Decision.values ().length;
+
+  /** EV per cell and decision, NaN if unknown.  */
+  private final float[] ev;
+
+  /**
+   * Construct it with all values unknown.
+   */
+  public EvTable ()
+  {
+    ev = new float[Strategy.NUM_CELLS * DECISIONS];
+    Arrays.fill (ev, Float.NaN);
+  }
+
+  /**
+   * Get the EV of a decision.
+   * @param cell The cell.
+   * @param d The decision.
+   * @return The EV in units of the initial bet, or NaN if unknown.
+   */
+  public float get (int cell, Strategy.Decision d)
+  {
+    return ev[cell * DECISIONS + d.ordinal ()];
+  }
+
+  /**
+   * Set the EV of a decision.
+   * @param cell The cell.
+   * @param d The decision.
+   * @param v The EV in units of the initial bet, or NaN if unknown.
+   */
+  public void set (int cell, Strategy.Decision d, float v)
+  {
+    ev[cell * DECISIONS + d.ordinal ()] = v;
+  }
+
+  /**
+   * Get the EV lost by a decision instead of the optimal one.
+   * @param cell The cell.
+   * @param chosen The decision made.
+   * @param optimal The optimal decision.
+   * @return The EV lost, which is zero if unknown.
+   */
+  public float getLoss (int cell, Strategy.Decision chosen,
+                        Strategy.Decision optimal)
+  {
+    final float loss = get (cell, optimal) - get (cell, chosen);
+    if (loss > 0.0f)
+      return loss;
+
+    /* This is also reached for NaN.  */
+    return 0.0f;
+  }
+
+  /**
+   * Get the average EV lost by a mistake in a cell, that is by one of the
+   * decisions with known EV other than the best one.
+   * @param cell The cell.
+   * @return The average loss, or NaN if less than two EVs are known.
+   */
+  public float getMistakeLoss (int cell)
+  {
+    float best = Float.NEGATIVE_INFINITY;
+    float sum = 0.0f;
+    int known = 0;
+    for (int i = 0; i < DECISIONS; ++i)
+      {
+        final float v = ev[cell * DECISIONS + i];
+        if (Float.isNaN (v))
+          continue;
+
+        best = Math.max (best, v);
+        sum += v;
+        ++known;
+      }
+
+    if (known < 2)
+      return Float.NaN;
+    return (known * best - sum) / (known - 1);
+  }
+
+  /**
+   * Write the table.
+   * @param out Stream to write to.
+   * @throws IOException If writing fails.
+   */
+  public void write (DataOutput out)
+    throws IOException
+  {
+    out.writeInt (MAGIC);
+    out.writeInt (VERSION);
+    out.writeShort (Strategy.NUM_CELLS);
+    out.writeByte (DECISIONS);
+    for (final float v : ev)
+      out.writeFloat (v);
+  }
+
+  /**
+   * Read a table written by write().
+   * @param in Stream to read from.
+   * @return The table read.
+   * @throws IOException If reading fails or the data does not match.
+   */
+  public static EvTable read (DataInput in)
+    throws IOException
+  {
+    if (in.readInt () != MAGIC || in.readInt () != VERSION)
+      throw new IOException ("Not an EV table!");
+    if (in.readUnsignedShort () != Strategy.NUM_CELLS
+        || in.readUnsignedByte () != DECISIONS)
+      throw new IOException ("EV table has wrong layout!");
+
+    final EvTable res = new EvTable ();
+    for (int i = 0; i < res.ev.length; ++i)
+      res.ev[i] = in.readFloat ();
+
+    return res;
+  }
+
+}
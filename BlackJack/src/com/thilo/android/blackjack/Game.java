@@ -18,21 +18,32 @@
 
 package com.thilo.android.blackjack;
 
-import java.io.Serializable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Non-UI (general) stuff for managing a single BlackJack game.  This keeps
  * track of player decisions and manages the dealer's actions as well as
- * finding the game outcome.  It is serializable,
- * which is however only used to store the state in Android.  A non-Android
- * way is used for that so that this class can be used for non-Android
- * standalone Java game simulation.
+ * finding the game outcome.  It can be written in a compact binary form,
+ * which is used to store the state in Android.  Plain data streams are
+ * used for that so that this class can be used for non-Android
+ * standalone Java game simulation.  A GameListener can observe the cards
+ * drawn, the decisions and the ending.  The dealer's hand may be dealt
+ * with the hole card already, in which case a dealer blackjack ends the
+ * game right away, as if the dealer peeked.
  */
-public class Game implements Serializable
+public class Game
 {
 
-  /** Serial version id.  */
-  private static final long serialVersionUID = 0l;
+  /** Flag bit for hitSoft17 in the binary form.  */
+  private static final int FLAG_H17 = 1;
+  /** Flag bit for doubled in the binary form.  */
+  private static final int FLAG_DOUBLED = 2;
+  /** Flag bit for split in the binary form.  */
+  private static final int FLAG_SPLIT = 4;
+  /** Flag bit for running in the binary form.  */
+  private static final int FLAG_RUNNING = 8;
 
   /**
    * Possible game endings.
@@ -57,8 +68,8 @@ public class Game implements Serializable
   /** The dealer's hand.  */
   private Hand dealer;
 
-  /** Card supply for drawing.  */
-  private transient CardSupply deck;
+  /** Card supply for drawing.  This is not stored in the binary form.  */
+  private CardSupply deck;
 
   /** Whether we have already calculated current state.  */
   private boolean calculated;
@@ -75,6 +86,9 @@ public class Game implements Serializable
   /** Payout factor in case of end.  */
   private float payout;
 
+  /** Listener to report to.  This is not stored in the binary form.  */
+  private GameListener listener;
+
   /**
    * Construct it with initial hands for player and dealer as well as supply.
    * @param p Player hand.
@@ -92,9 +106,89 @@ public class Game implements Serializable
     running = true;
     doubled = false;
     split = false;
+    listener = GameListener.NONE;
     calculate ();
   }
 
+  /**
+   * Copy a game, for playing it on differently.  The player's hand is
+   * copied, while the dealer's one is given so that split games can
+   * share the copy of their dealer's hand.
+   * @param o The game to copy.
+   * @param d Dealer hand of the copy.
+   */
+  public Game (Game o, Hand d)
+  {
+    player = new Hand (o.player);
+    dealer = d;
+    deck = o.deck;
+    hitSoft17 = o.hitSoft17;
+
+    calculated = o.calculated;
+    doubled = o.doubled;
+    split = o.split;
+    running = o.running;
+    result = o.result;
+    payout = o.payout;
+    listener = o.listener;
+  }
+
+  /**
+   * Attach a listener, replacing the previous one.
+   * @param l The listener, GameListener.NONE to detach.
+   */
+  public void setListener (GameListener l)
+  {
+    listener = l;
+  }
+
+  /**
+   * Write the game in binary form.  The card supply is not written, and
+   * the result is calculated again from the hands when reading.
+   * @param out Stream to write to.
+   * @throws IOException If writing fails.
+   */
+  public void write (DataOutput out)
+    throws IOException
+  {
+    int flags = 0;
+    if (hitSoft17)
+      flags |= FLAG_H17;
+    if (doubled)
+      flags |= FLAG_DOUBLED;
+    if (split)
+      flags |= FLAG_SPLIT;
+    if (running)
+      flags |= FLAG_RUNNING;
+
+    out.writeByte (flags);
+    player.write (out);
+    dealer.write (out);
+  }
+
+  /**
+   * Read a game written by write().
+   * @param in Stream to read from.
+   * @param s Card supply to use for the game.
+   * @return The game read.
+   * @throws IOException If reading fails or the data is invalid.
+   */
+  public static Game read (DataInput in, CardSupply s)
+    throws IOException
+  {
+    final int flags = in.readUnsignedByte ();
+    final Hand p = Hand.read (in);
+    final Hand d = Hand.read (in);
+
+    final Game res = new Game (p, d, s, (flags & FLAG_H17) != 0);
+    res.doubled = ((flags & FLAG_DOUBLED) != 0);
+    res.split = ((flags & FLAG_SPLIT) != 0);
+    res.running = ((flags & FLAG_RUNNING) != 0);
+    res.calculate ();
+
+    return res;
+  }
+
   /**
    * Perform player hit.
    * @throws RuntimeException If the game is already finished.
@@ -104,8 +198,9 @@ public class Game implements Serializable
     if (!running)
       throw new RuntimeException ("Game is already finished!");
 
-    player.add (deck.getNextCard ());
-    calculate ();
+    if (GameListener.HOOKS)
+      listener.onDecision (this, Strategy.Decision.HIT);
+    hit ();
   }
 
   /**
@@ -117,13 +212,9 @@ public class Game implements Serializable
     if (!running)
       throw new RuntimeException ("Game is already finished!");
 
-    /* Now play the dealer.  */
-    while (dealer.getTotal () < 17
-           || (hitSoft17 && dealer.getTotal () == 17 && dealer.isSoft ()))
-      dealer.add (deck.getNextCard ());
-
-    running = false;
-    calculate ();
+    if (GameListener.HOOKS)
+      listener.onDecision (this, Strategy.Decision.STAND);
+    stand ();
   }
 
   /**
@@ -133,20 +224,27 @@ public class Game implements Serializable
    */
   public void doDouble ()
   {
+    if (!running)
+      throw new RuntimeException ("Game is already finished!");
     if (!player.canDouble ())
       throw new RuntimeException ("Player can not double!");
     assert (!doubled);
     doubled = true;
+    if (GameListener.HOOKS)
+      listener.onDecision (this, Strategy.Decision.DOUBLE);
 
-    doHit ();
-    doStand ();
+    /* The hit may bust the player, which ends the game already.  */
+    hit ();
+    if (running)
+      stand ();
   }
 
   /**
    * Perform a split.  The dealer's hand is either copied or simply
    * referenced from both.  In the first case, the player can play both via
    * the UI, and in the second, the dealer's draws will be the same for the
-   * split hands, as they should be in reality.
+   * split hands, as they should be in reality.  The listener is attached
+   * to the new game as well.
    * @param copyDealer Copy the dealer's hand rather than referencing it.
    * @return The newly generated second game.
    * @throws RuntimeException If the game is already finished.
@@ -156,6 +254,8 @@ public class Game implements Serializable
   {
     if (!running)
       throw new RuntimeException ("Game is already finished!");
+    if (GameListener.HOOKS)
+      listener.onDecision (this, Strategy.Decision.SPLIT);
     
     Hand newPlayer = player.split ();
     Hand newDealer;
@@ -166,14 +266,50 @@ public class Game implements Serializable
 
     Game res = new Game (newPlayer, newDealer, deck, hitSoft17);
     res.split = true;
+    res.listener = listener;
     split = true;
 
-    doHit ();
-    res.doHit ();
+    hit ();
+    res.hit ();
 
     return res;
   }
 
+  /**
+   * Draw a card for the player, which may finish the game.
+   */
+  private void hit ()
+  {
+    final Card c = deck.getNextCard ();
+    player.add (c);
+    if (GameListener.HOOKS)
+      listener.onCardDrawn (this, c, false);
+
+    calculate ();
+    if (GameListener.HOOKS && !running)
+      listener.onFinished (this, result, payout);
+  }
+
+  /**
+   * Play the dealer, which finishes the game.
+   */
+  private void stand ()
+  {
+    while (dealer.getTotal () < 17
+           || (hitSoft17 && dealer.getTotal () == 17 && dealer.isSoft ()))
+      {
+        final Card c = deck.getNextCard ();
+        dealer.add (c);
+        if (GameListener.HOOKS)
+          listener.onCardDrawn (this, c, true);
+      }
+
+    running = false;
+    calculate ();
+    if (GameListener.HOOKS)
+      listener.onFinished (this, result, payout);
+  }
+
   /**
    * Get whether the game is running or not.
    * @return True iff running.
@@ -261,16 +397,6 @@ public class Game implements Serializable
     return !split && player.getCards ().size () == 2;
   }
 
-  /**
-   * Set the card supply.  This is used to set it after deserializing, since
-   * the card deck is declared transient.
-   * @param d The new deck to use.
-   */
-  public void setCardSupply (CardSupply d)
-  {
-    deck = d;
-  }
-
   /**
    * Update internal stats.
    */
@@ -297,18 +423,22 @@ public class Game implements Serializable
         result = Ending.PLAYER_BLACKJACK;
         payout = 1.5f;
       }
-    else if (dealer.getTotal () > 21)
-      {
-        running = false;
-        result = Ending.DEALER_BUSTED;
-        payout = 1.0f;
-      }
+    /* A dealer blackjack can only be there before the player stood if
+       the hole card was dealt, and the dealer peeks for it.  */
     else if (dealerBJ)
       {
         running = false;
         result = Ending.DEALER_BLACKJACK;
         payout = -1.0f;
       }
+    /* Otherwise the dealer's hand decides the game only after the player
+       stood.  It may be complete before that if it is shared with an
+       earlier split hand, which must still be played out in full.  */
+    else if (!running && dealer.getTotal () > 21)
+      {
+        result = Ending.DEALER_BUSTED;
+        payout = 1.0f;
+      }
     else if (player.getTotal () == dealer.getTotal ())
       {
         /* running not known!  */
@@ -0,0 +1,95 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+/**
+ * Observer of what happens in a Game, for counting trackers, hand
+ * histories or statistics.  A listener is attached to a game with
+ * Game.setListener() and passed on to the games split from it.  Games
+ * start with NONE, which does nothing; as long as no other listener is
+ * ever attached, the calls to it are monomorphic and compiled away by
+ * the JIT, so that they cost nothing.
+ */
+public interface GameListener
+{
+
+  /**
+   * Whether listeners are called at all.  This is turned off only to time
+   * the game without any calls for comparison, by setting the system
+   * property blackjack.hooks to false.  The JIT then drops the calls.
+   */
+  boolean HOOKS
+    = Boolean.parseBoolean (System.getProperty ("blackjack.hooks", "true"));
+
+  /** Listener doing nothing.  */
+  GameListener NONE = new GameListener ()
+    {
+      public void onDealt (Game g)
+      {
+        // Nothing to do.
+      }
+
+      public void onCardDrawn (Game g, Card c, boolean dealer)
+      {
+        // Nothing to do.
+      }
+
+      public void onDecision (Game g, Strategy.Decision d)
+      {
+        // Nothing to do.
+      }
+
+      public void onFinished (Game g, Game.Ending e, float payout)
+      {
+        // Nothing to do.
+      }
+    };
+
+  /**
+   * A round was dealt.  This is reported by whoever deals, like the
+   * Simulator, since the initial cards are in the hands before the game
+   * is constructed.
+   * @param g The dealt game.
+   */
+  void onDealt (Game g);
+
+  /**
+   * A card was drawn into the game.
+   * @param g The game.
+   * @param c The card.
+   * @param dealer Whether it went to the dealer's hand.
+   */
+  void onCardDrawn (Game g, Card c, boolean dealer);
+
+  /**
+   * The player made a decision, reported before it is carried out.
+   * @param g The game.
+   * @param d The decision.
+   */
+  void onDecision (Game g, Strategy.Decision d);
+
+  /**
+   * The game finished.
+   * @param g The game.
+   * @param e Its ending.
+   * @param payout Its payout.
+   */
+  void onFinished (Game g, Game.Ending e, float payout);
+
+}
@@ -18,23 +18,22 @@
 
 package com.thilo.android.blackjack;
 
-import java.io.Serializable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Non-UI stuff about a full hand (a set of cards).  It is serializable,
- * which is however only used to store the state in Android.  A non-Android
- * way is used for that so that this class can be used for non-Android
- * standalone Java game simulation.
+ * Non-UI stuff about a full hand (a set of cards).  It can be written
+ * in a compact binary form, which is used to store the state in Android.
+ * Plain data streams are used for that so that this class can be used for
+ * non-Android standalone Java game simulation.
  */
-public class Hand implements Serializable
+public class Hand
 {
 
-  /** Serial version id.  */
-  private static final long serialVersionUID = 0l;
-
   /** Cards in this hand.  */
   private List<Card> cards;
 
@@ -65,9 +64,8 @@ public class Hand implements Serializable
    */
   public Hand (Hand h)
   {
-    cards = new ArrayList<Card> ();
-    for (Card c : h.cards)
-      cards.add (new Card (c.suit, c.type));
+    /* Cards are immutable, so they can be shared.  */
+    cards = new ArrayList<Card> (h.cards);
     calculate ();
   }
 
@@ -111,6 +109,38 @@ public class Hand implements Serializable
     return res;
   }
 
+  /**
+   * Write the hand in binary form.  Only the cards are written, since
+   * everything else is derived from them.
+   * @param out Stream to write to.
+   * @throws IOException If writing fails.
+   */
+  public void write (DataOutput out)
+    throws IOException
+  {
+    out.writeByte (cards.size ());
+    for (final Card c : cards)
+      c.write (out);
+  }
+
+  /**
+   * Read a hand written by write().
+   * @param in Stream to read from.
+   * @return The hand read.
+   * @throws IOException If reading fails or the data is invalid.
+   */
+  public static Hand read (DataInput in)
+    throws IOException
+  {
+    final Hand res = new Hand ();
+    final int num = in.readUnsignedByte ();
+    for (int i = 0; i < num; ++i)
+      res.cards.add (Card.read (in));
+    res.calculate ();
+
+    return res;
+  }
+
   /**
    * Access the cards.
    * @return List of all cards.
@@ -22,7 +22,7 @@ import android.content.Context;
 
 import android.graphics.Canvas;
 import android.graphics.Paint;
-import android.graphics.drawable.Drawable;
+import android.graphics.Rect;
 
 import android.util.Log;
 
@@ -33,55 +33,227 @@ import java.util.List;
 
 
 /**
- * Display a set of cards on a surface, and handle scaling.
+ * Display a set of cards on a surface, and handle scaling.  Drawing is
+ * done on a render thread of the display, so that the UI thread never
+ * waits for the surface.  The UI thread only hands over a copy of the
+ * cards, and the surface is redrawn only when they changed, and then just
+ * in the region covered by the old and new cards.
  */
-public class HandDisplay implements SurfaceHolder.Callback
+public class HandDisplay implements SurfaceHolder.Callback, Runnable
 {
 
   /** Log tag for this class.  */
   private static final String TAG = "BJTrainer/HandDisplay";
 
-  /** CardImages object to use.  */
+  /** CardImages object to use, or null until they are set.  */
   private CardImages imgs;
 
   /** Context for querying for strings.  */
   private Context context;
 
+  /** Text shown on busted hands.  */
+  private final String bustedText;
+
   /** Hand currently displayed.  */
   private Hand currentHand;
 
+  /* The following are guarded by the object's lock and handed over from
+     the UI thread to the render thread.  */
+
   /** Surface holder while the surface is active.  */
   private SurfaceHolder holder;
-
   /** Width of the surface.  */
   private int width;
   /** Height of the surface.  */
   private int height;
 
+  /** Copy of the current hand's cards.  */
+  private Card[] pendingCards;
+  /** Number of cards in pendingCards.  */
+  private int pendingCount;
+  /** Whether the current hand is busted.  */
+  private boolean pendingBusted;
+
+  /** Whether the pending state or the surface changed.  */
+  private boolean dirty;
+  /** Whether the whole surface has to be redrawn.  */
+  private boolean dirtyAll;
+  /** Whether the render thread is drawing on the surface right now.  */
+  private boolean drawing;
+  /** Set to stop the render thread.  */
+  private boolean stopped;
+
+  /** Hand last drawn, to detect when it changed.  */
+  private Hand drawnHand;
+  /** Number of cards last drawn.  */
+  private int drawnCards;
+  /** System.nanoTime() when the current cards were first drawn, or 0.  */
+  private long drawnTime;
+
+  /* The following are only used by the render thread.  */
+
+  /** Cards being drawn.  */
+  private Card[] cards;
+  /** Number of cards being drawn.  */
+  private int count;
+  /** Whether the busted label is drawn.  */
+  private boolean busted;
+
+  /** Surface size the layout was computed for.  */
+  private int layoutWidth, layoutHeight;
+  /** Number of cards the layout was computed for, or -1.  */
+  private int layoutCards;
+  /** Scaled card width.  */
+  private int cardW;
+  /** Scaled card height.  */
+  private int cardH;
+  /** Scaled shift between cards.  */
+  private int cardShift;
+  /** Position of the first card.  */
+  private int x, y;
+  /** Text size for the busted label, or 0 if not yet computed.  */
+  private float bustedSize;
+
+  /** Region covered by the last drawing.  */
+  private final Rect drawnRect;
+  /** Region to redraw.  */
+  private final Rect dirtyRect;
+
+  /** Paint for the cards, filtering when scaling them.  */
+  private final Paint cardPaint;
+  /** Target rectangle for drawing a card.  */
+  private final Rect cardRect;
+  /** Paint for the busted label.  */
+  private final Paint textPaint;
+
+  /** The render thread.  */
+  private final Thread thread;
+
   /**
-   * Construct it, using a given SurfaceView.
+   * Construct it, using a given SurfaceView.  This starts the render
+   * thread, which must be stopped with stop().
    * @param c Context to use.
-   * @param img CardImages to use.
+   * @param img CardImages to use, may be null if they are set later.
    * @param view Use this SurfaceView for drawing.
    */
   public HandDisplay (Context c, CardImages img, SurfaceView view)
   {
     context = c;
     imgs = img;
-    view.getHolder ().addCallback (this);
+    bustedText = context.getString (R.string.busted);
 
     currentHand = null;
     holder = null;
+    pendingCards = new Card[0];
+    pendingCount = 0;
+    dirty = false;
+    drawing = false;
+    stopped = false;
+    drawnHand = null;
+    drawnTime = 0;
+
+    cards = new Card[0];
+    layoutCards = -1;
+    drawnRect = new Rect ();
+    dirtyRect = new Rect ();
+
+    cardPaint = new Paint (Paint.FILTER_BITMAP_FLAG);
+    cardRect = new Rect ();
+    textPaint = new Paint (Paint.ANTI_ALIAS_FLAG);
+    textPaint.setTextAlign (Paint.Align.CENTER);
+    textPaint.setColor (0xFFFF0000);
+
+    thread = new Thread (this, "HandDisplay");
+    thread.setDaemon (true);
+    thread.start ();
+
+    view.getHolder ().addCallback (this);
   }
 
   /**
-   * Change the displayed hand.
+   * Stop the render thread and wait for it to finish.
+   */
+  public void stop ()
+  {
+    synchronized (this)
+      {
+        stopped = true;
+        notifyAll ();
+      }
+
+    boolean interrupted = false;
+    while (true)
+      try
+        {
+          thread.join ();
+          break;
+        }
+      catch (InterruptedException exc)
+        {
+          interrupted = true;
+        }
+    if (interrupted)
+      Thread.currentThread ().interrupt ();
+  }
+
+  /**
+   * Set the card images, for instance when they were loaded in the
+   * background.  Nothing is drawn before they are set.
+   * @param img CardImages to use.
+   */
+  public synchronized void setImages (CardImages img)
+  {
+    imgs = img;
+    dirty = true;
+    dirtyAll = true;
+    notifyAll ();
+  }
+
+  /**
+   * Change the displayed hand.  Its cards are copied, so this has to be
+   * called again whenever the hand changes.
    * @param h The hand to display.
    */
   public void setHand (Hand h)
   {
-    currentHand = h;
-    update ();
+    final List<Card> hc = h.getCards ();
+    final boolean b = h.isBusted ();
+    synchronized (this)
+      {
+        currentHand = h;
+        boolean changed = (hc.size () != pendingCount || b != pendingBusted);
+        if (hc.size () > pendingCards.length)
+          pendingCards = new Card[Math.max (hc.size (),
+                                            2 * pendingCards.length)];
+        for (int i = 0; i < hc.size (); ++i)
+          if (pendingCards[i] != hc.get (i))
+            {
+              pendingCards[i] = hc.get (i);
+              changed = true;
+            }
+        pendingCount = hc.size ();
+        pendingBusted = b;
+
+        if (changed)
+          {
+            dirty = true;
+            notifyAll ();
+          }
+      }
+  }
+
+  /**
+   * Get the time when the current cards were first shown.  Redrawing
+   * unchanged cards does not change it.
+   * @return System.nanoTime() at the end of drawing, or 0 if the current
+   *         cards were not yet drawn.
+   */
+  public synchronized long getDrawnTime ()
+  {
+    if (currentHand == null || currentHand != drawnHand
+        || currentHand.getCards ().size () != drawnCards)
+      return 0;
+    return drawnTime;
   }
 
   /**
@@ -90,64 +262,139 @@ public class HandDisplay implements SurfaceHolder.Callback
    */
   public void surfaceCreated (SurfaceHolder h)
   {
-    holder = h;
+    /* Nothing to do, drawing starts with the size in surfaceChanged.  */
   }
 
   /**
-   * Surface destroyed.
+   * Surface destroyed.  This waits for the render thread to finish
+   * drawing, since the surface must not be used afterwards.
    * @param h Holder to use.
    */
-  public void surfaceDestroyed (SurfaceHolder h)
+  public synchronized void surfaceDestroyed (SurfaceHolder h)
   {
     holder = null;
+
+    boolean interrupted = false;
+    while (drawing)
+      try
+        {
+          wait ();
+        }
+      catch (InterruptedException exc)
+        {
+          interrupted = true;
+        }
+    if (interrupted)
+      Thread.currentThread ().interrupt ();
   }
 
   /**
-   * Surface changed size, update.
+   * Surface changed size, redraw it completely.
    * @param hold Holder to use.
    * @param fmt New format.
    * @param w New width.
    * @param h New height.
    */
-  public void surfaceChanged (SurfaceHolder hold, int fmt, int w, int h)
+  public synchronized void surfaceChanged (SurfaceHolder hold, int fmt,
+                                           int w, int h)
   {
     holder = hold;
     width = w;
     height = h;
-    update ();
+    dirty = true;
+    dirtyAll = true;
+    notifyAll ();
   }
 
   /**
-   * Update by drawing the current hand.
+   * Run the render thread, which draws whenever something changed.
    */
-  private void update ()
+  public void run ()
   {
-    /* Only do if we actually have an active surface!  */
-    if (holder == null || currentHand == null)
-      return;
+    while (true)
+      {
+        final SurfaceHolder hold;
+        final Hand hand;
+        final boolean all;
+        synchronized (this)
+          {
+            try
+              {
+                while (!stopped && (!dirty || holder == null || imgs == null))
+                  wait ();
+              }
+            catch (InterruptedException exc)
+              {
+                return;
+              }
+            if (stopped)
+              return;
+
+            if (cards.length < pendingCards.length)
+              cards = new Card[pendingCards.length];
+            System.arraycopy (pendingCards, 0, cards, 0, pendingCount);
+            count = pendingCount;
+            busted = pendingBusted;
+            hand = currentHand;
+            all = dirtyAll;
+
+            hold = holder;
+            layout (width, height);
+            dirty = false;
+            dirtyAll = false;
+            drawing = true;
+          }
+
+        boolean drawn = false;
+        try
+          {
+            if (count > 0)
+              drawn = draw (hold, all);
+          }
+        finally
+          {
+            synchronized (this)
+              {
+                drawing = false;
+                notifyAll ();
+
+                if (drawn && (hand != drawnHand || count != drawnCards))
+                  {
+                    drawnHand = hand;
+                    drawnCards = count;
+                    drawnTime = System.nanoTime ();
+                  }
+              }
+          }
+      }
+  }
 
-    final List<Card> cards = currentHand.getCards ();
-    Log.v (TAG, String.format ("Going to draw %d cards.", cards.size ()));
-    Log.v (TAG, String.format ("Surface: %d x %d", width, height));
+  /**
+   * Compute the layout of the cards, unless it is cached already for the
+   * surface size and number of cards.
+   * @param w Surface width.
+   * @param h Surface height.
+   */
+  private void layout (int w, int h)
+  {
+    if (w == layoutWidth && h == layoutHeight && count == layoutCards)
+      return;
 
-    final Canvas screen = holder.lockCanvas ();
-    screen.drawARGB (0xFF, 0x00, 0x00, 0x00);
+    layoutWidth = w;
+    layoutHeight = h;
+    layoutCards = count;
+    bustedSize = 0.0f;
 
     /* Calculate unscaled width and height of all cards together.  */
-    int cardW = imgs.getWidth ();
-    int cardH = imgs.getHeight ();
-    int cardShift = imgs.getMinShift ();
+    cardW = imgs.getWidth ();
+    cardH = imgs.getHeight ();
+    cardShift = imgs.getMinShift ();
     int totalH = cardH;
-    int totalW = cardW + cardShift * (cards.size () - 1);
-
-    Log.v (TAG, "Before scaling:");
-    Log.v (TAG, String.format ("  card: %d x %d, shift %d",
-                               cardW, cardH, cardShift));
-    Log.v (TAG, String.format ("  total: %d x %d", totalW, totalH));
+    int totalW = cardW + cardShift * (count - 1);
 
     /* Scale those to fit bounds.  */
-    final float factorW = width / (float) totalW;
-    final float factorH = height / (float) totalH;
+    final float factorW = w / (float) totalW;
+    final float factorH = h / (float) totalH;
     final float factor = Math.min (factorW, factorH);
     cardW = Math.round (cardW * factor);
     cardH = Math.round (cardH * factor);
@@ -155,47 +402,79 @@ public class HandDisplay implements SurfaceHolder.Callback
     totalH = Math.round (totalH * factor);
     totalW = Math.round (totalW * factor);
 
-    Log.v (TAG, String.format ("After scaling by %.4f:", factor));
-    Log.v (TAG, String.format ("  card: %d x %d, shift %d",
-                               cardW, cardH, cardShift));
-    Log.v (TAG, String.format ("  total: %d x %d", totalW, totalH));
-
     /* Find starting position so that all is centered.  */
-    final int x = (width - totalW) / 2;
-    final int y = (height - totalH) / 2;
-    Log.v (TAG, String.format ("Placing initial card at (%d, %d).", x, y));
+    x = (w - totalW) / 2;
+    y = (h - totalH) / 2;
 
-    /* Draw the cards one by one.  */
-    int num = 0;
-    for (final Card c : cards)
+    if (Log.isLoggable (TAG, Log.VERBOSE))
+      Log.v (TAG, String.format ("Layout of %d cards on %d x %d:"
+                                 + " card %d x %d, shift %d at (%d, %d).",
+                                 count, w, h, cardW, cardH, cardShift, x, y));
+  }
+
+  /**
+   * Draw the current cards.  Unless the whole surface is redrawn, only
+   * the region covered by the cards drawn last time and now is updated.
+   * All cards in it are drawn again, since later cards overlap earlier ones
+   * and centering the hand moves all cards when one is added.
+   * @param hold Holder of the surface.
+   * @param all Whether to redraw the whole surface.
+   * @return True if the surface could be drawn.
+   */
+  private boolean draw (SurfaceHolder hold, boolean all)
+  {
+    final int totalW = cardW + cardShift * (count - 1);
+    if (all || drawnRect.isEmpty ())
+      dirtyRect.set (0, 0, layoutWidth, layoutHeight);
+    else
       {
-        final Drawable d = imgs.getCard (c);
-        final int left = x + cardShift * num;
-        final int top = y;
-        final int right = left + cardW;
-        final int bottom = top + cardH;
-        d.setBounds (left, top, right, bottom);
-        d.draw (screen);
-        ++num;
+        dirtyRect.set (x, y, x + totalW, y + cardH);
+        dirtyRect.union (drawnRect);
       }
 
-    /* If the hand is busted, draw that over it.  */
-    if (currentHand.isBusted ())
+    /* The label is centered and may be wider than the cards.  */
+    if (busted)
       {
-        final String text = context.getString (R.string.busted);
-        Paint p = new Paint ();
-        p.setTextAlign (Paint.Align.CENTER);
-        p.setColor (0xFFFF0000);
+        if (bustedSize == 0.0f)
+          {
+            textPaint.setTextSize (cardH * 3 / 4);
+            do
+              textPaint.setTextSize (textPaint.getTextSize () * 3 / 4);
+            while (textPaint.measureText (bustedText) > layoutWidth * 3 / 4);
+            bustedSize = textPaint.getTextSize ();
+          }
+        textPaint.setTextSize (bustedSize);
+        dirtyRect.union (0, y, layoutWidth, y + cardH);
+      }
+
+    final Canvas screen = hold.lockCanvas (dirtyRect);
+    if (screen == null)
+      return false;
 
-        p.setTextSize (cardH * 3 / 4);
-        do
-          p.setTextSize (p.getTextSize () * 3 / 4);
-        while (p.measureText (text) > width * 3 / 4);
+    /* The canvas is clipped to the region actually locked, which may be
+       larger than requested.  */
+    screen.drawARGB (0xFF, 0x00, 0x00, 0x00);
 
-        screen.drawText (text, width / 2, (height + p.getTextSize ()) / 2, p);
+    /* Draw the cards one by one.  */
+    for (int i = 0; i < count; ++i)
+      {
+        final int left = x + cardShift * i;
+        cardRect.set (left, y, left + cardW, y + cardH);
+        imgs.draw (screen, cards[i], cardRect, cardPaint);
       }
 
-    holder.unlockCanvasAndPost (screen);
+    /* If the hand is busted, draw that over it.  */
+    if (busted)
+      screen.drawText (bustedText, layoutWidth / 2,
+                       (layoutHeight + bustedSize) / 2, textPaint);
+
+    hold.unlockCanvasAndPost (screen);
+
+    drawnRect.set (x, y, x + totalW, y + cardH);
+    if (busted)
+      drawnRect.union (0, y, layoutWidth, y + cardH);
+
+    return true;
   }
 
 }
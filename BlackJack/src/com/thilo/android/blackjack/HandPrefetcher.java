@@ -0,0 +1,307 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import android.content.res.Resources;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Prepares hands on a background thread, so that starting the next hand
+ * on the UI thread is just taking one from a queue.  The optimal strategies
+ * and the EV tables are loaded on this thread as well.  Random hands are
+ * dealt ahead into a small bounded queue together with their optimal
+ * initial decision; hands from the systematic trainer depend on the
+ * previous answer and are only decided here when they are needed.
+ */
+public class HandPrefetcher implements Runnable
+{
+
+  /** Log tag.  */
+  private static final String TAG = "BJTrainer/HandPrefetcher";
+
+  /** Number of hands prepared ahead.  */
+  private static final int CAPACITY = 4;
+
+  /**
+   * A prepared hand.
+   */
+  public static class Entry
+  {
+
+    /** The game.  */
+    public final Game game;
+
+    /** Optimal decision in its initial state.  */
+    public final Strategy.Decision decision;
+
+    /**
+     * Construct it.
+     * @param g The game.
+     * @param d Its optimal initial decision.
+     */
+    public Entry (Game g, Strategy.Decision d)
+    {
+      game = g;
+      decision = d;
+    }
+
+  }
+
+  /** Resources to load the strategies from.  */
+  private final Resources res;
+
+  /** Card supply for the games.  */
+  private final CardSupply deck;
+
+  /** Queue of prepared random hands.  */
+  private final ArrayBlockingQueue<Entry> queue;
+
+  /** H17 setting for the hands being prepared.  */
+  private volatile boolean h17;
+
+  /** Signals when the strategies are loaded.  */
+  private final CountDownLatch loaded;
+  /** Signals when the EV tables are loaded.  */
+  private final CountDownLatch evLoaded;
+
+  /** Optimal strategy for S17.  */
+  private Strategy stand17;
+  /** Optimal strategy for H17.  */
+  private Strategy hit17;
+
+  /** EV table for S17, or null if it could not be loaded.  */
+  private EvTable evStand17;
+  /** EV table for H17, or null if it could not be loaded.  */
+  private EvTable evHit17;
+
+  /** The background thread.  */
+  private final Thread thread;
+
+  /**
+   * Construct it and start the background thread.
+   * @param r Resources to load the strategies from.
+   * @param d Card supply for the games.
+   * @param h H17 setting for random hands.
+   */
+  public HandPrefetcher (Resources r, CardSupply d, boolean h)
+  {
+    res = r;
+    deck = d;
+    h17 = h;
+    queue = new ArrayBlockingQueue<Entry> (CAPACITY);
+    loaded = new CountDownLatch (1);
+    evLoaded = new CountDownLatch (1);
+
+    thread = new Thread (this, "HandPrefetcher");
+    thread.setDaemon (true);
+    thread.setPriority (Thread.MIN_PRIORITY);
+    thread.start ();
+  }
+
+  /**
+   * Stop the background thread.
+   */
+  public void stop ()
+  {
+    thread.interrupt ();
+  }
+
+  /**
+   * Get the optimal strategy, waiting for it to be loaded if necessary.
+   * @param h Whether to get the H17 strategy.
+   * @return The strategy.
+   */
+  public Strategy getStrategy (boolean h)
+  {
+    await (loaded);
+    if (stand17 == null)
+      throw new RuntimeException ("Loading the strategies failed!");
+    return h ? hit17 : stand17;
+  }
+
+  /**
+   * Get the EV table, waiting for it to be loaded if necessary.
+   * @param h Whether to get the H17 table.
+   * @return The table or null if it could not be loaded.
+   */
+  public EvTable getEvTable (boolean h)
+  {
+    await (evLoaded);
+    return h ? evHit17 : evStand17;
+  }
+
+  /**
+   * Take the next random hand.  If none with the right setting is
+   * prepared, one is dealt right away.
+   * @param h H17 setting of the hand.
+   * @return The prepared hand.
+   */
+  public Entry take (boolean h)
+  {
+    if (h != h17)
+      {
+        h17 = h;
+        queue.clear ();
+      }
+
+    Entry e = queue.poll ();
+    while (e != null && e.game.hitSoft17 != h)
+      e = queue.poll ();
+
+    if (e == null)
+      {
+        Log.d (TAG, "No hand prepared, dealing one now.");
+        e = prepare (deal (deck, h));
+      }
+
+    return e;
+  }
+
+  /**
+   * Wait for a latch, without giving up when interrupted.
+   * @param l The latch.
+   */
+  private static void await (CountDownLatch l)
+  {
+    boolean interrupted = false;
+    while (true)
+      try
+        {
+          l.await ();
+          break;
+        }
+      catch (InterruptedException exc)
+        {
+          interrupted = true;
+        }
+    if (interrupted)
+      Thread.currentThread ().interrupt ();
+  }
+
+  /**
+   * Load an EV table from a raw resource.  Failure is only logged, since
+   * the EV tables are not essential.
+   * @param id The resource ID.
+   * @return The table or null.
+   */
+  private EvTable loadEvTable (int id)
+  {
+    try
+      {
+        final InputStream raw = res.openRawResource (id);
+        final DataInputStream in
+          = new DataInputStream (new BufferedInputStream (raw));
+        try
+          {
+            return EvTable.read (in);
+          }
+        finally
+          {
+            in.close ();
+          }
+      }
+    catch (IOException exc)
+      {
+        exc.printStackTrace ();
+        Log.e (TAG, "Loading EV table failed!");
+        return null;
+      }
+  }
+
+  /**
+   * Decide the optimal initial decision for a given game.
+   * @param g The game.
+   * @return The game with its decision.
+   */
+  public Entry prepare (Game g)
+  {
+    return new Entry (g, getStrategy (g.hitSoft17).decide (g));
+  }
+
+  /**
+   * Load the strategies and keep the queue filled.
+   */
+  public void run ()
+  {
+    try
+      {
+        final Strategy s = StrategyResources.getOptimal (res, false);
+        final Strategy h = StrategyResources.getOptimal (res, true);
+
+        stand17 = s;
+        hit17 = h;
+        Log.d (TAG, "Loaded strategies.");
+      }
+    finally
+      {
+        /* Release waiting threads also on failure, getStrategy() reports
+           it then.  */
+        loaded.countDown ();
+      }
+
+    /* The EV tables are needed only with the first answer.  */
+    try
+      {
+        evStand17 = loadEvTable (R.raw.ev_stand17);
+        evHit17 = loadEvTable (R.raw.ev_h17);
+      }
+    finally
+      {
+        evLoaded.countDown ();
+      }
+
+    try
+      {
+        while (true)
+          queue.put (prepare (deal (deck, h17)));
+      }
+    catch (InterruptedException exc)
+      {
+        Log.d (TAG, "Stopped preparing hands.");
+      }
+  }
+
+  /**
+   * Deal a random hand.
+   * @param d Card supply to deal from.
+   * @param h H17 setting of the game.
+   * @return The game.
+   */
+  private static Game deal (CardSupply d, boolean h)
+  {
+    final Hand player = new Hand ();
+    player.add (d.getNextCard ());
+    player.add (d.getNextCard ());
+
+    final Hand dealer = new Hand ();
+    dealer.add (d.getNextCard ());
+
+    return new Game (player, dealer, d, h);
+  }
+
+}
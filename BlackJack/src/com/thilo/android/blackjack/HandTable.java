@@ -0,0 +1,212 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.util.Random;
+
+/**
+ * Precomputed table of the starting hands for each strategy cell.  For
+ * every row (hard or soft total, or pair), all two-card player hands with
+ * concrete suits and ranks are listed, and for every dealer value all up
+ * cards.  A game for a cell is then built from two bounded random indices,
+ * and the same table drives bulk generation of drill scenarios.
+ */
+public class HandTable
+{
+
+  /** Number of rows, i. e. player hands independent of the dealer.  */
+  private static final int ROWS = Strategy.NUM_CELLS / Strategy.DEALER_VALUES;
+
+  /**
+   * Player hands per row.  Each entry holds the codes of both cards,
+   * as first * Card.CODES + second.
+   */
+  private static final int[][] hands = new int[ROWS][];
+
+  /** Card codes for each dealer value, indexed by value - 2.  */
+  private static final int[][] upCards = new int[Strategy.DEALER_VALUES][];
+
+  static
+  {
+    for (int v = 2; v <= 11; ++v)
+      upCards[v - 2] = getCodes (v);
+
+    for (int p = Strategy.HARD_FROM; p <= Strategy.HARD_TO; ++p)
+      {
+        int[] row;
+        switch (p)
+          {
+            case 21:
+              row = combine (10, 11);
+              break;
+
+            case 20:
+              /* It's not possible to actually have hard 20, this
+                 is always going to be a pair.  */
+              row = combine (10, 10);
+              break;
+
+            default:
+              row = new int[0];
+              for (int v1 = 2; v1 <= 10; ++v1)
+                {
+                  final int v2 = p - v1;
+                  if (v2 >= 2 && v2 <= 10 && v1 != v2)
+                    row = concat (row, combine (v1, v2));
+                }
+              break;
+          }
+        hands[getRow (Strategy.Matrix.HARD, p)] = row;
+      }
+
+    for (int p = Strategy.SOFT_FROM; p <= Strategy.SOFT_TO; ++p)
+      hands[getRow (Strategy.Matrix.SOFT, p)] = combine (p - 11, 11);
+
+    for (int p = Strategy.PAIR_FROM; p <= Strategy.PAIR_TO; ++p)
+      hands[getRow (Strategy.Matrix.PAIR, p)] = combine (p, p);
+  }
+
+  /**
+   * No instances, this is just a table.
+   */
+  private HandTable ()
+  {
+    // Nothing to do.
+  }
+
+  /**
+   * Construct a game for a strategy cell.
+   * @param cell The cell.
+   * @param r Random number generator to pick the cards.
+   * @param deck Card supply for the game.
+   * @param h17 H17 flag to use for the game.
+   * @return A game whose configuration is in this cell.
+   */
+  public static Game construct (int cell, Random r, CardSupply deck,
+                                boolean h17)
+  {
+    final int[] row = hands[cell / Strategy.DEALER_VALUES];
+    final int hand = row[r.nextInt (row.length)];
+    final int[] up = upCards[cell % Strategy.DEALER_VALUES];
+
+    final Hand playerHand = new Hand ();
+    playerHand.add (Card.fromCode (hand / Card.CODES));
+    playerHand.add (Card.fromCode (hand % Card.CODES));
+
+    final Hand dealerHand = new Hand ();
+    dealerHand.add (Card.fromCode (up[r.nextInt (up.length)]));
+
+    return new Game (playerHand, dealerHand, deck, h17);
+  }
+
+  /**
+   * Generate drill scenarios in bulk.
+   * @param cells The cells to generate games for.
+   * @param r Random number generator to pick the cards.
+   * @param deck Card supply for the games.
+   * @param h17 H17 flag to use for the games.
+   * @return One game per given cell, in the same order.
+   */
+  public static Game[] generate (int[] cells, Random r, CardSupply deck,
+                                 boolean h17)
+  {
+    final Game[] res = new Game[cells.length];
+    for (int i = 0; i < cells.length; ++i)
+      res[i] = construct (cells[i], r, deck, h17);
+
+    return res;
+  }
+
+  /**
+   * Get the number of distinct player hands for a cell.
+   * @param cell The cell.
+   * @return Number of table entries for its row.
+   */
+  public static int getHandCount (int cell)
+  {
+    return hands[cell / Strategy.DEALER_VALUES].length;
+  }
+
+  /**
+   * Find the table row for a player hand.
+   * @param m Matrix of the hand.
+   * @param player Player index into the matrix.
+   * @return The row.
+   */
+  private static int getRow (Strategy.Matrix m, int player)
+  {
+    return Strategy.getCell (m, player, 2) / Strategy.DEALER_VALUES;
+  }
+
+  /**
+   * Find all card codes with a given value.
+   * @param v The value, aces being 11.
+   * @return Codes of all such cards.
+   */
+  private static int[] getCodes (int v)
+  {
+    int num = 0;
+    for (int c = 0; c < Card.CODES; ++c)
+      if (Card.fromCode (c).getValue () == v)
+        ++num;
+
+    final int[] res = new int[num];
+    num = 0;
+    for (int c = 0; c < Card.CODES; ++c)
+      if (Card.fromCode (c).getValue () == v)
+        res[num++] = c;
+
+    return res;
+  }
+
+  /**
+   * List all two-card hands with given card values.
+   * @param v1 Value of the first card.
+   * @param v2 Value of the second card.
+   * @return All hands, encoded as table entries.
+   */
+  private static int[] combine (int v1, int v2)
+  {
+    final int[] a = getCodes (v1);
+    final int[] b = getCodes (v2);
+
+    final int[] res = new int[a.length * b.length];
+    for (int i = 0; i < a.length; ++i)
+      for (int j = 0; j < b.length; ++j)
+        res[i * b.length + j] = a[i] * Card.CODES + b[j];
+
+    return res;
+  }
+
+  /**
+   * Concatenate two arrays.
+   * @param a First array.
+   * @param b Second array.
+   * @return Elements of a followed by those of b.
+   */
+  private static int[] concat (int[] a, int[] b)
+  {
+    final int[] res = new int[a.length + b.length];
+    System.arraycopy (a, 0, res, 0, a.length);
+    System.arraycopy (b, 0, res, a.length, b.length);
+
+    return res;
+  }
+
+}
@@ -0,0 +1,366 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tracer recording sections as Java Flight Recorder events, named like
+ * "com.thilo.android.blackjack.Round" and with the shard and rounds as
+ * fields.  Stack traces are not recorded, since they would show only the
+ * reflection.  The event types are registered only once the recorder is
+ * initialized, which is slow, and the events of a section are created
+ * while a recording has them enabled; this is updated whenever a
+ * recording starts or stops.  JFR is used through reflection, since it
+ * is not available on Android (and before Java 9), where the sources
+ * have to compile as well.  As an event costs several reflective calls,
+ * rounds and the sections in them are only recorded for every
+ * SAMPLE_RATE-th round of each thread, so that a recording slows down the
+ * simulation only a little.  Shuffles and merges are rare and always
+ * recorded.
+ */
+public class JfrTracer implements Tracer
+{
+
+  /** Prefix of the event names.  */
+  private static final String PREFIX = "com.thilo.android.blackjack.";
+
+  /** Category of the events.  */
+  private static final String CATEGORY = "BlackJack";
+
+  /** One in this many rounds is recorded.  */
+  public static final int SAMPLE_RATE = 64;
+
+  /** Bit mask of the sections that are rounds or in rounds.  */
+  private static final int IN_ROUND = (1 << Section.ROUND.ordinal ())
+                                      | (1 << Section.DEAL.ordinal ())
+                                      | (1 << Section.LOOKUP.ordinal ())
+                                      | (1 << Section.DEALER.ordinal ())
+                                      | (1 << Section.RECORD.ordinal ());
+
+  /**
+   * Per-thread state of the round sampling.
+   */
+  private static class Sampler
+  {
+
+    /** Number of rounds begun.  */
+    long rounds;
+
+    /** Whether the current round is recorded.  */
+    boolean recording;
+
+  }
+
+  /** Round sampling of each thread.  */
+  private final ThreadLocal<Sampler> sampler;
+
+  /** EventFactory per section, null until registered.  */
+  private Object[] factories;
+
+  /** EventType per section.  */
+  private Object[] types;
+
+  /**
+   * Bit mask of the sections whose events are enabled.  It is written
+   * after the factories, so that they are visible to threads seeing
+   * their bits set.
+   */
+  private volatile int enabled;
+
+  /**
+   * Whether round events are enabled.  The bit of rounds in the mask is
+   * also set if only sections in them are, since the sampling is done when
+   * rounds begin.  This is written before the mask.
+   */
+  private boolean roundsEnabled;
+
+  /** Annotation type Name.  */
+  private final Class<?> name;
+  /** Annotation type Label.  */
+  private final Class<?> label;
+  /** Annotation type Category.  */
+  private final Class<?> category;
+  /** Annotation type StackTrace.  */
+  private final Class<?> stackTrace;
+
+  /** AnnotationElement constructor.  */
+  private final Constructor<?> newAnnotation;
+  /** ValueDescriptor constructor.  */
+  private final Constructor<?> newValue;
+  /** EventFactory.create().  */
+  private final Method createFactory;
+  /** EventFactory.getEventType().  */
+  private final Method getEventType;
+
+  /** EventFactory.newEvent().  */
+  private final Method newEvent;
+  /** EventType.isEnabled().  */
+  private final Method isEnabled;
+  /** Event.begin().  */
+  private final Method beginEvent;
+  /** Event.end().  */
+  private final Method endEvent;
+  /** Event.set().  */
+  private final Method setField;
+  /** Event.commit().  */
+  private final Method commit;
+
+  /**
+   * Construct it, which looks up the JFR API.
+   * @throws Exception If JFR is not available.
+   */
+  private JfrTracer ()
+    throws Exception
+  {
+    final Class<?> factory = Class.forName ("jdk.jfr.EventFactory");
+    final Class<?> type = Class.forName ("jdk.jfr.EventType");
+    final Class<?> event = Class.forName ("jdk.jfr.Event");
+    final Class<?> value = Class.forName ("jdk.jfr.ValueDescriptor");
+    final Class<?> annotation = Class.forName ("jdk.jfr.AnnotationElement");
+    name = Class.forName ("jdk.jfr.Name");
+    label = Class.forName ("jdk.jfr.Label");
+    category = Class.forName ("jdk.jfr.Category");
+    stackTrace = Class.forName ("jdk.jfr.StackTrace");
+
+    newAnnotation = annotation.getConstructor (Class.class, Object.class);
+    newValue = value.getConstructor (Class.class, String.class, List.class);
+    createFactory = factory.getMethod ("create", List.class, List.class);
+    getEventType = factory.getMethod ("getEventType");
+
+    newEvent = factory.getMethod ("newEvent");
+    isEnabled = type.getMethod ("isEnabled");
+    beginEvent = event.getMethod ("begin");
+    endEvent = event.getMethod ("end");
+    setField = event.getMethod ("set", int.class, Object.class);
+    commit = event.getMethod ("commit");
+
+    factories = null;
+    types = null;
+    enabled = 0;
+
+    sampler = new ThreadLocal<Sampler> ()
+      {
+        @Override
+        protected Sampler initialValue ()
+        {
+          return new Sampler ();
+        }
+      };
+  }
+
+  /**
+   * Create a tracer, if JFR is available.  It then listens to the
+   * recorder being initialized and to recordings started or stopped.
+   * @return The tracer, or NONE if JFR is not available.
+   */
+  public static Tracer create ()
+  {
+    try
+      {
+        final JfrTracer res = new JfrTracer ();
+
+        final Class<?> recorder = Class.forName ("jdk.jfr.FlightRecorder");
+        final Class<?> listener
+          = Class.forName ("jdk.jfr.FlightRecorderListener");
+        final Object proxy = Proxy.newProxyInstance (
+            JfrTracer.class.getClassLoader (), new Class<?>[] {listener},
+            new InvocationHandler ()
+              {
+                public Object invoke (Object p, Method m, Object[] args)
+                {
+                  if (m.getName ().equals ("equals"))
+                    return p == args[0];
+                  if (m.getName ().equals ("hashCode"))
+                    return System.identityHashCode (p);
+                  if (m.getName ().equals ("toString"))
+                    return "JfrTracer listener";
+
+                  res.update ();
+                  return null;
+                }
+              });
+
+        /* This calls the listener right away if the recorder is
+           initialized already.  */
+        recorder.getMethod ("addListener", listener).invoke (null, proxy);
+
+        return res;
+      }
+    catch (Exception exc)
+      {
+        return Tracer.NONE;
+      }
+    catch (LinkageError exc)
+      {
+        return Tracer.NONE;
+      }
+  }
+
+  /**
+   * Register the event types if not yet done, and find the sections whose
+   * events are enabled now.
+   */
+  private synchronized void update ()
+  {
+    try
+      {
+        if (factories == null)
+          register ();
+
+        int mask = 0;
+        for (int i = 0; i < types.length; ++i)
+          if ((Boolean) isEnabled.invoke (types[i]))
+            mask |= 1 << i;
+
+        final int round = 1 << Section.ROUND.ordinal ();
+        roundsEnabled = ((mask & round) != 0);
+        if ((mask & IN_ROUND) != 0)
+          mask |= round;
+        enabled = mask;
+      }
+    catch (Exception exc)
+      {
+        throw new RuntimeException ("Registering JFR events failed: "
+                                    + exc.getMessage ());
+      }
+  }
+
+  /**
+   * Register the event types.
+   * @throws Exception If the reflection fails.
+   */
+  private void register ()
+    throws Exception
+  {
+    final List<Object> fields = new ArrayList<Object> ();
+    fields.add (newValue.newInstance (int.class, "shard", Arrays.asList (
+        newAnnotation.newInstance (label, "Shard"))));
+    fields.add (newValue.newInstance (long.class, "rounds", Arrays.asList (
+        newAnnotation.newInstance (label, "Rounds"))));
+
+    final Section[] sections = Section.values ();
+    final Object[] f = new Object[sections.length];
+    final Object[] t = new Object[sections.length];
+    for (final Section s : sections)
+      {
+        final List<Object> annotations = new ArrayList<Object> ();
+        annotations.add (newAnnotation.newInstance (name, PREFIX + s.id));
+        annotations.add (newAnnotation.newInstance (label, s.label));
+        annotations.add (newAnnotation.newInstance (category,
+                                                    new String[] {CATEGORY}));
+        annotations.add (newAnnotation.newInstance (stackTrace, false));
+
+        f[s.ordinal ()] = createFactory.invoke (null, annotations, fields);
+        t[s.ordinal ()] = getEventType.invoke (f[s.ordinal ()]);
+      }
+
+    factories = f;
+    types = t;
+  }
+
+  /**
+   * Start a section.  This and end() are kept small, so that the JIT
+   * inlines them into the round loop.
+   * @param s The section.
+   * @return The begun event, or null if it is not enabled.
+   */
+  public Object begin (Section s)
+  {
+    if ((enabled & (1 << s.ordinal ())) == 0)
+      return null;
+    return startEvent (s);
+  }
+
+  /**
+   * End a section and commit its event.
+   * @param token The event, or null if none was begun.
+   * @param shard Index of the shard, or -1.
+   * @param rounds Number of rounds done.
+   */
+  public void end (Object token, int shard, long rounds)
+  {
+    if (token != null)
+      commitEvent (token, shard, rounds);
+  }
+
+  /**
+   * Create and begin an event, if the section is not in a round that is
+   * skipped by the sampling.
+   * @param s The section.
+   * @return The event, or null if not recorded.
+   */
+  private Object startEvent (Section s)
+  {
+    if ((IN_ROUND & (1 << s.ordinal ())) != 0)
+      {
+        final Sampler t = sampler.get ();
+        if (s == Section.ROUND)
+          {
+            t.recording = (t.rounds++ % SAMPLE_RATE == 0);
+            if (!roundsEnabled)
+              return null;
+          }
+        if (!t.recording)
+          return null;
+      }
+
+    try
+      {
+        final Object res = newEvent.invoke (factories[s.ordinal ()]);
+        beginEvent.invoke (res);
+        return res;
+      }
+    catch (Exception exc)
+      {
+        throw new RuntimeException ("Creating JFR event failed: "
+                                    + exc.getMessage ());
+      }
+  }
+
+  /**
+   * End and commit an event.
+   * @param token The event.
+   * @param shard Index of the shard, or -1.
+   * @param rounds Number of rounds done.
+   */
+  private void commitEvent (Object token, int shard, long rounds)
+  {
+    try
+      {
+        endEvent.invoke (token);
+        setField.invoke (token, 0, shard);
+        setField.invoke (token, 1, rounds);
+        commit.invoke (token);
+      }
+    catch (Exception exc)
+      {
+        throw new RuntimeException ("Committing JFR event failed: "
+                                    + exc.getMessage ());
+      }
+  }
+
+}
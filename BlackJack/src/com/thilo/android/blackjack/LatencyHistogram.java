@@ -0,0 +1,205 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of decision latencies per strategy cell.  Latencies are put
+ * into logarithmic buckets by milliseconds, two per power of two, kept
+ * in one fixed int array.  Bucket 0 takes everything below 2 ms, which
+ * leaves bucket 1 unused; it is kept so that bucket 2e starts at 2^e.
+ * Recording a latency is a few integer operations and does not
+ * allocate, so that it can be done on the click path.
+ */
+public class LatencyHistogram
+{
+
+  /** Number of buckets per cell.  The last one takes all longer times.  */
+  public static final int BUCKETS = 32;
+
+  /** Counts per cell and bucket.  */
+  private final int[] counts;
+
+  /**
+   * Construct it empty.
+   */
+  public LatencyHistogram ()
+  {
+    counts = new int[Strategy.NUM_CELLS * BUCKETS];
+  }
+
+  /**
+   * Record a decision latency.
+   * @param cell Strategy cell of the decision.
+   * @param nanos Latency in nanoseconds.
+   */
+  public void record (int cell, long nanos)
+  {
+    ++counts[cell * BUCKETS + getBucket (nanos / 1000000)];
+  }
+
+  /**
+   * Clear all recorded latencies.
+   */
+  public void clear ()
+  {
+    Arrays.fill (counts, 0);
+  }
+
+  /**
+   * Get the number of latencies in a bucket.
+   * @param cell The cell, or -1 for all cells.
+   * @param bucket The bucket.
+   * @return Number of recorded latencies.
+   */
+  public int getCount (int cell, int bucket)
+  {
+    if (cell != -1)
+      return counts[cell * BUCKETS + bucket];
+
+    int res = 0;
+    for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+      res += counts[c * BUCKETS + bucket];
+    return res;
+  }
+
+  /**
+   * Get the number of latencies recorded for a cell.
+   * @param cell The cell, or -1 for all cells.
+   * @return Number of recorded latencies.
+   */
+  public int getTotal (int cell)
+  {
+    int res = 0;
+    for (int b = 0; b < BUCKETS; ++b)
+      res += getCount (cell, b);
+    return res;
+  }
+
+  /**
+   * Estimate a quantile of the latencies, as the upper bound of the bucket
+   * it falls into.
+   * @param cell The cell, or -1 for all cells.
+   * @param q The quantile in [0, 1].
+   * @return Latency in milliseconds, or -1 if nothing was recorded.
+   */
+  public long getQuantile (int cell, float q)
+  {
+    final int total = getTotal (cell);
+    if (total == 0)
+      return -1;
+
+    final int rank = Math.max (1, (int) Math.ceil (q * total));
+    int seen = 0;
+    for (int b = 0; b < BUCKETS - 1; ++b)
+      {
+        seen += getCount (cell, b);
+        if (seen < rank)
+          continue;
+
+        /* Bucket 1 is unused, so bucket 0 ends where bucket 2 starts.  */
+        if (b == 0)
+          return getLowerBound (2);
+        return getLowerBound (b + 1);
+      }
+
+    return getLowerBound (BUCKETS - 1);
+  }
+
+  /**
+   * Write the histogram.  Only non-empty entries are written.
+   * @param out Stream to write to.
+   * @throws IOException If writing fails.
+   */
+  public void write (DataOutput out)
+    throws IOException
+  {
+    int used = 0;
+    for (int i = 0; i < counts.length; ++i)
+      if (counts[i] != 0)
+        ++used;
+
+    out.writeShort (used);
+    for (int i = 0; i < counts.length; ++i)
+      if (counts[i] != 0)
+        {
+          out.writeShort (i);
+          out.writeInt (counts[i]);
+        }
+  }
+
+  /**
+   * Replace the data by what was written with write().
+   * @param in Stream to read from.
+   * @throws IOException If reading fails or the data is invalid.
+   */
+  public void read (DataInput in)
+    throws IOException
+  {
+    clear ();
+
+    final int used = in.readUnsignedShort ();
+    for (int j = 0; j < used; ++j)
+      {
+        final int i = in.readUnsignedShort ();
+        final int n = in.readInt ();
+        if (i >= counts.length || n < 0)
+          throw new IOException ("Invalid entry in saved latencies!");
+        counts[i] = n;
+      }
+  }
+
+  /**
+   * Find the bucket for a latency.  Bucket 2e holds [2^e, 1.5 * 2^e) and
+   * bucket 2e + 1 holds [1.5 * 2^e, 2^(e+1)) milliseconds; bucket zero
+   * takes everything below 2 ms, and bucket 1 is never used.
+   * @param millis Latency in milliseconds.
+   * @return The bucket.
+   */
+  public static int getBucket (long millis)
+  {
+    if (millis < 2)
+      return 0;
+
+    final int e = 63 - Long.numberOfLeadingZeros (millis);
+    final int b = 2 * e + (int) ((millis >> (e - 1)) & 1);
+
+    return Math.min (b, BUCKETS - 1);
+  }
+
+  /**
+   * Get the smallest latency in a bucket.
+   * @param bucket The bucket, which should not be the unused bucket 1.
+   * @return Lower bound in milliseconds.
+   */
+  public static long getLowerBound (int bucket)
+  {
+    if (bucket < 2)
+      return 0;
+
+    final int e = bucket / 2;
+    return (1l << e) + (bucket % 2) * (1l << (e - 1));
+  }
+
+}
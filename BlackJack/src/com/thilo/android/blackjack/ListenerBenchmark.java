@@ -0,0 +1,256 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark of the round loop with and without a GameListener.  Three
+ * modes are compared:  "bare" without any listener calls at all (with
+ * GameListener.HOOKS turned off), "none" with the calls to the default
+ * GameListener.NONE, and "counting" with a listener counting the events.
+ * Like in JMH, each mode is run in a JVM of its own, since a listener
+ * class once used changes how the JIT compiles the calls, and the modes
+ * take turns over several forks so that drifting load on the machine
+ * affects all of them alike.  Which code the JIT produces differs between
+ * forks as well, so the mean over the forks is reported with a 95%
+ * interval.  This is run from the command line with a strategy file.
+ */
+public class ListenerBenchmark
+{
+
+  /**
+   * Number of timed repetitions per fork.  The fastest one is reported,
+   * as the others are mostly slowed down by warming up and by other
+   * processes.
+   */
+  private static final int REPETITIONS = 10;
+
+  /** Number of forks per mode.  */
+  private static final int FORKS = 10;
+
+  /** The modes, in the order they are run.  */
+  private static final String[] MODES = {"bare", "none", "counting"};
+
+  /**
+   * Listener counting all events.
+   */
+  private static class Counter implements GameListener
+  {
+
+    /** Number of events seen.  */
+    long events;
+
+    public void onDealt (Game g)
+    {
+      ++events;
+    }
+
+    public void onCardDrawn (Game g, Card c, boolean dealer)
+    {
+      ++events;
+    }
+
+    public void onDecision (Game g, Strategy.Decision d)
+    {
+      ++events;
+    }
+
+    public void onFinished (Game g, Game.Ending e, float payout)
+    {
+      ++events;
+    }
+
+  }
+
+  /**
+   * Construct it, which is not allowed.
+   */
+  private ListenerBenchmark ()
+  {
+    // Nothing to do.
+  }
+
+  /**
+   * Time playing rounds repeatedly in this JVM.
+   * @param sim The simulator to play with.
+   * @param shoe The shoe to deal from.
+   * @param rounds Number of rounds per repetition.
+   * @return The time per round of the fastest repetition in nanoseconds.
+   */
+  private static double time (Simulator sim, Shoe shoe, long rounds)
+  {
+    long best = Long.MAX_VALUE;
+    double sum = 0.0;
+    for (int i = 0; i < REPETITIONS; ++i)
+      {
+        final long start = System.nanoTime ();
+        sum += playRounds (sim, shoe, rounds);
+        best = Math.min (best, System.nanoTime () - start);
+      }
+
+    /* Use the sum, so that the loop can not be optimised away.  */
+    if (Double.isNaN (sum))
+      throw new RuntimeException ("Invalid round results!");
+
+    return (double) best / rounds;
+  }
+
+  /**
+   * Play rounds.
+   * @param sim The simulator to play with.
+   * @param shoe The shoe to deal from.
+   * @param rounds Number of rounds.
+   * @return Sum of the round results.
+   */
+  private static double playRounds (Simulator sim, Shoe shoe, long rounds)
+  {
+    double sum = 0.0;
+    for (long n = 0; n < rounds; ++n)
+      {
+        if (shoe.needsShuffle ())
+          shoe.shuffle ();
+        sum += sim.playRound (sim.deal (shoe), shoe);
+      }
+
+    return sum;
+  }
+
+  /**
+   * Run one mode in a new JVM and read its result.
+   * @param mode The mode.
+   * @param strategy The strategy file.
+   * @param rounds Number of rounds per repetition.
+   * @return The time per round of the fastest repetition in nanoseconds.
+   * @throws IOException If running the JVM fails.
+   */
+  private static double fork (String mode, String strategy, long rounds)
+    throws IOException
+  {
+    final List<String> cmd = new ArrayList<String> ();
+    cmd.add (new File (new File (System.getProperty ("java.home"), "bin"),
+                       "java").getPath ());
+    cmd.add ("-cp");
+    cmd.add (System.getProperty ("java.class.path"));
+    cmd.add ("-Dblackjack.hooks=" + !mode.equals ("bare"));
+    cmd.add (ListenerBenchmark.class.getName ());
+    cmd.add ("-fork");
+    cmd.add (mode);
+    cmd.add (strategy);
+    cmd.add (Long.toString (rounds));
+
+    final Process p = new ProcessBuilder (cmd).redirectErrorStream (true)
+                        .start ();
+    final BufferedReader in
+      = new BufferedReader (new InputStreamReader (p.getInputStream ()));
+    try
+      {
+        final String line = in.readLine ();
+        if (line == null)
+          throw new IOException ("Benchmark fork printed nothing!");
+        return Double.parseDouble (line);
+      }
+    catch (NumberFormatException exc)
+      {
+        throw new IOException ("Benchmark fork failed: "
+                               + exc.getMessage ());
+      }
+    finally
+      {
+        in.close ();
+        p.destroy ();
+      }
+  }
+
+  /**
+   * Time one mode in this JVM, as a fork, and print the result.
+   * @param mode The mode.
+   * @param strategy The strategy file.
+   * @param rounds Number of rounds per repetition.
+   * @throws IOException If reading the strategy fails.
+   */
+  private static void runFork (String mode, String strategy, long rounds)
+    throws IOException
+  {
+    final Strategy s = Simulator.loadStrategy (new File (strategy), null);
+    final Simulator sim = new Simulator (s, false, 6, 0.75f);
+    final Shoe shoe = new Shoe (6, 0.75f, new ShardRandom (0));
+    if (mode.equals ("counting"))
+      sim.setListener (new Counter ());
+    else if (!mode.equals ("bare") && !mode.equals ("none"))
+      throw new RuntimeException ("Unknown benchmark mode: " + mode);
+
+    System.out.println (time (sim, shoe, rounds));
+  }
+
+  /**
+   * Run the benchmark.
+   * @param args Strategy file and optionally the number of rounds.
+   * @throws IOException If reading the strategy or forking fails.
+   */
+  public static void main (String[] args)
+    throws IOException
+  {
+    if (args.length == 4 && args[0].equals ("-fork"))
+      {
+        runFork (args[1], args[2], Long.parseLong (args[3]));
+        return;
+      }
+
+    if (args.length < 1 || args.length > 2)
+      {
+        System.err.println ("Usage: ListenerBenchmark STRATEGY.xml"
+                            + " [ROUNDS]");
+        System.exit (1);
+      }
+    final long rounds = (args.length > 1 ? Long.parseLong (args[1])
+                                         : 1000000);
+
+    final double[] sum = new double[MODES.length];
+    final double[] sumSq = new double[MODES.length];
+    for (int i = 0; i < FORKS; ++i)
+      for (int m = 0; m < MODES.length; ++m)
+        {
+          final double t = fork (MODES[m], args[0], rounds);
+          sum[m] += t;
+          sumSq[m] += t * t;
+        }
+
+    System.out.printf ("Mean of %d forks, each the fastest of %d"
+                       + " repetitions, with 95%% intervals:%n",
+                       FORKS, REPETITIONS);
+    final double bare = sum[0] / FORKS;
+    for (int m = 0; m < MODES.length; ++m)
+      {
+        final double mean = sum[m] / FORKS;
+        final double var = (sumSq[m] - FORKS * mean * mean) / (FORKS - 1);
+        final double err = 1.96 * Math.sqrt (Math.max (var, 0.0) / FORKS);
+        System.out.printf ("%-10s %8.1f +- %5.1f ns/round  %+6.1f%%%n",
+                           MODES[m], mean, err,
+                           100.0 * (mean / bare - 1.0));
+      }
+  }
+
+}
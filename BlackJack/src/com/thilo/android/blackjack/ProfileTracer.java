@@ -0,0 +1,394 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.lang.reflect.Method;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tracer measuring the time and the memory allocated in each section, for
+ * the breakdown printed by the simulator with -profile.  Only every
+ * SAMPLE_RATE-th round is measured, since a measurement costs about as
+ * much as the shorter sections.  In each of them, either the round as a
+ * whole or one of the sections in it is measured, in turn, as measuring
+ * nested sections would disturb the enclosing ones.  Nothing is measured
+ * in the first WARMUP_ROUNDS rounds of each thread, which are slowed down
+ * by the JIT compiling them, except for merges.  All sections are
+ * counted, so that the measured ones can be extrapolated.  The cost of a
+ * measurement itself is calibrated and subtracted.  Measurements of
+ * sections other than merges that take longer than MAX_NANOS are
+ * dropped, since they were interrupted by the scheduler or a garbage
+ * collection, which would dominate the averages.  The allocation is
+ * taken from the per-thread counter of HotSpot's ThreadMXBean, which is
+ * used through reflection since it is not available on Android.
+ */
+public class ProfileTracer implements Tracer
+{
+
+  /** Measure one in so many rounds.  */
+  public static final int SAMPLE_RATE = 16;
+
+  /** Rounds per thread before measuring.  */
+  public static final int WARMUP_ROUNDS = 100000;
+
+  /** Maximum time of a measurement that is not dropped.  */
+  public static final long MAX_NANOS = 50000;
+
+  /** Sections measured in turn in the measured rounds.  */
+  private static final Section[] FOCUS = {Section.ROUND, Section.DEAL,
+                                          Section.LOOKUP, Section.DEALER,
+                                          Section.RECORD};
+
+  /** Number of measurements per calibration batch.  */
+  private static final int CALIBRATION_BATCH = 1000;
+  /** Number of calibration batches, the fastest one is used.  */
+  private static final int CALIBRATION_BATCHES = 100;
+
+  /** Number of sections.  */
+  private static final int SECTIONS = Section.values ().length;
+
+  /**
+   * Measurements of one thread.  This is also the token of the measured
+   * sections.
+   */
+  private static class Counters
+  {
+
+    /** Number of sections begun, measured or not.  */
+    final long[] begun = new long[SECTIONS];
+    /** Number of measured sections.  */
+    final long[] count = new long[SECTIONS];
+    /** Number of dropped measurements.  */
+    final long[] dropped = new long[SECTIONS];
+    /** Nanoseconds spent in the measured sections.  */
+    final long[] nanos = new long[SECTIONS];
+    /** Bytes allocated in the measured sections.  */
+    final long[] bytes = new long[SECTIONS];
+
+    /** The section measured in the current round, or null.  */
+    Section focus;
+
+    /** Whether a section is being measured.  */
+    boolean measuring;
+    /** The section being measured.  */
+    int section;
+    /** Start time of the section being measured.  */
+    long startNanos;
+    /** Allocated bytes at the start of the section being measured.  */
+    long startBytes;
+
+    /** Arguments for getThreadAllocatedBytes(), with the thread's ID.  */
+    final Object[] threadId;
+
+    /**
+     * Construct it for the current thread.
+     */
+    public Counters ()
+    {
+      threadId = new Object[] {Thread.currentThread ().getId ()};
+      focus = null;
+      measuring = false;
+    }
+
+  }
+
+  /** The counters of each thread.  */
+  private final ThreadLocal<Counters> counters;
+
+  /** All counters created, for the results.  */
+  private final List<Counters> all;
+
+  /** The ThreadMXBean, or null if the allocation is not available.  */
+  private final Object bean;
+  /** ThreadMXBean.getThreadAllocatedBytes(long).  */
+  private final Method allocatedBytes;
+
+  /** Nanoseconds measured for an empty section.  */
+  private long emptyNanos;
+  /** Bytes measured for an empty section.  */
+  private long emptyBytes;
+
+  /**
+   * Construct it, which calibrates the measurement on this thread.
+   */
+  public ProfileTracer ()
+  {
+    all = new ArrayList<Counters> ();
+    counters = new ThreadLocal<Counters> ()
+      {
+        @Override
+        protected Counters initialValue ()
+        {
+          final Counters res = new Counters ();
+          synchronized (all)
+            {
+              all.add (res);
+            }
+          return res;
+        }
+      };
+
+    Object b = null;
+    Method m = null;
+    try
+      {
+        b = Class.forName ("java.lang.management.ManagementFactory")
+              .getMethod ("getThreadMXBean").invoke (null);
+        final Class<?> type
+          = Class.forName ("com.sun.management.ThreadMXBean");
+        m = type.getMethod ("getThreadAllocatedBytes", long.class);
+        if ((Long) m.invoke (b, Thread.currentThread ().getId ()) < 0)
+          b = null;
+      }
+    catch (Exception exc)
+      {
+        b = null;
+      }
+    catch (LinkageError exc)
+      {
+        b = null;
+      }
+    bean = b;
+    allocatedBytes = m;
+
+    calibrate ();
+  }
+
+  /**
+   * Find the cost of measuring, by measuring empty sections.  This is
+   * repeated until the JIT has compiled it, and the fastest batch is
+   * used.  The calibration's own counters are removed afterwards.
+   */
+  private void calibrate ()
+  {
+    emptyNanos = 0;
+    emptyBytes = 0;
+
+    final Counters c = counters.get ();
+    final int s = Section.DEAL.ordinal ();
+    c.focus = Section.DEAL;
+    long bestNanos = Long.MAX_VALUE;
+    long bestBytes = Long.MAX_VALUE;
+    for (int i = 0; i < CALIBRATION_BATCHES; ++i)
+      {
+        c.nanos[s] = 0;
+        c.bytes[s] = 0;
+        for (int j = 0; j < CALIBRATION_BATCH; ++j)
+          end (begin (Section.DEAL), -1, 0);
+
+        bestNanos = Math.min (bestNanos, c.nanos[s]);
+        bestBytes = Math.min (bestBytes, c.bytes[s]);
+      }
+
+    emptyNanos = bestNanos / CALIBRATION_BATCH;
+    emptyBytes = bestBytes / CALIBRATION_BATCH;
+
+    synchronized (all)
+      {
+        all.remove (c);
+      }
+    counters.remove ();
+  }
+
+  /**
+   * Query the bytes allocated by the current thread.
+   * @param c The thread's counters.
+   * @return Bytes allocated so far, or 0 if not available.
+   */
+  private long getAllocated (Counters c)
+  {
+    if (bean == null)
+      return 0;
+
+    try
+      {
+        return (Long) allocatedBytes.invoke (bean, c.threadId);
+      }
+    catch (Exception exc)
+      {
+        throw new RuntimeException ("Querying allocated bytes failed: "
+                                    + exc.getMessage ());
+      }
+  }
+
+  /**
+   * Start a section, if it is measured.
+   * @param s The section.
+   * @return The thread's counters or null.
+   */
+  public Object begin (Section s)
+  {
+    final Counters c = counters.get ();
+    final long n = ++c.begun[s.ordinal ()];
+    if (c.measuring)
+      return null;
+
+    switch (s)
+      {
+        case ROUND:
+          c.focus = null;
+          if (n <= WARMUP_ROUNDS || n % SAMPLE_RATE != 0)
+            return null;
+          c.focus = FOCUS[(int) (n / SAMPLE_RATE % FOCUS.length)];
+          if (c.focus != s)
+            return null;
+          break;
+
+        case SHUFFLE:
+          if (c.begun[Section.ROUND.ordinal ()] <= WARMUP_ROUNDS)
+            return null;
+          break;
+
+        case MERGE:
+          break;
+
+        default:
+          if (c.focus != s)
+            return null;
+          break;
+      }
+
+    c.measuring = true;
+    c.section = s.ordinal ();
+    c.startBytes = getAllocated (c);
+    c.startNanos = System.nanoTime ();
+
+    return c;
+  }
+
+  /**
+   * End a measured section.
+   * @param token The thread's counters or null.
+   * @param shard Index of the shard, ignored.
+   * @param rounds Number of rounds done, ignored.
+   */
+  public void end (Object token, int shard, long rounds)
+  {
+    if (token == null)
+      return;
+
+    final long now = System.nanoTime ();
+    final Counters c = (Counters) token;
+    final long allocated = getAllocated (c);
+
+    c.measuring = false;
+    final long nanos = now - c.startNanos - emptyNanos;
+    if (nanos > MAX_NANOS && c.section != Section.MERGE.ordinal ())
+      {
+        ++c.dropped[c.section];
+        return;
+      }
+
+    ++c.count[c.section];
+    c.nanos[c.section] += nanos;
+    c.bytes[c.section] += allocated - c.startBytes - emptyBytes;
+  }
+
+  /**
+   * Query whether the allocation is measured.
+   * @return True iff the allocation is available.
+   */
+  public boolean hasAllocation ()
+  {
+    return bean != null;
+  }
+
+  /**
+   * Get the number of sections begun, including those not measured.
+   * @param s The section.
+   * @return Number of sections.
+   */
+  public long getBegun (Section s)
+  {
+    long res = 0;
+    synchronized (all)
+      {
+        for (final Counters c : all)
+          res += c.begun[s.ordinal ()];
+      }
+    return res;
+  }
+
+  /**
+   * Get the number of measured sections.
+   * @param s The section.
+   * @return Number of measurements.
+   */
+  public long getCount (Section s)
+  {
+    long res = 0;
+    synchronized (all)
+      {
+        for (final Counters c : all)
+          res += c.count[s.ordinal ()];
+      }
+    return res;
+  }
+
+  /**
+   * Get the number of dropped measurements.
+   * @param s The section.
+   * @return Number of measurements dropped.
+   */
+  public long getDropped (Section s)
+  {
+    long res = 0;
+    synchronized (all)
+      {
+        for (final Counters c : all)
+          res += c.dropped[s.ordinal ()];
+      }
+    return res;
+  }
+
+  /**
+   * Get the time spent in the measured sections.
+   * @param s The section.
+   * @return Time in nanoseconds.
+   */
+  public long getNanos (Section s)
+  {
+    long res = 0;
+    synchronized (all)
+      {
+        for (final Counters c : all)
+          res += c.nanos[s.ordinal ()];
+      }
+    return res;
+  }
+
+  /**
+   * Get the memory allocated in the measured sections.
+   * @param s The section.
+   * @return Allocated bytes.
+   */
+  public long getBytes (Section s)
+  {
+    long res = 0;
+    synchronized (all)
+      {
+        for (final Counters c : all)
+          res += c.bytes[s.ordinal ()];
+      }
+    return res;
+  }
+
+}
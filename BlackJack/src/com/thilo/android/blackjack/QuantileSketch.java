@@ -0,0 +1,334 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.util.Arrays;
+
+/**
+ * Streaming estimate of quantiles in bounded memory, following the KLL
+ * sketch.  Values are kept in levels, where each value at level h stands
+ * for 2^h values added.  When a level is full, it is sorted and every
+ * other value is promoted to the next level, while the rest is dropped.
+ * The capacities shrink geometrically towards the lower levels, so that
+ * the memory stays at about three times the size parameter plus a few
+ * values per level, for any number of values added.  For this, a level
+ * never grows beyond its capacity:  It is compacted as soon as it is full,
+ * and shrunk when adding a level on top lowers its capacity.
+ *
+ * The KLL sketch chooses whether to keep the odd or even values at random.
+ * Here, this alternates per level instead, so that the result depends only
+ * on the values and the order in which sketches are merged.  Sketches of
+ * simulation shards can thus be merged in shard order with reproducible
+ * results.
+ */
+public class QuantileSketch
+{
+
+  /** Ratio between the capacities of neighbouring levels.  */
+  private static final double RATIO = 2.0 / 3.0;
+
+  /** Minimum capacity of a level.  */
+  private static final int MIN_CAPACITY = 2;
+
+  /** Capacity of the top level.  */
+  private final int size;
+
+  /**
+   * Values per level, only the first counts[h] are used.  Each array has
+   * the capacity of its level when it was last shrunk.
+   */
+  private double[][] levels;
+
+  /** Number of values held per level.  */
+  private int[] counts;
+
+  /** Whether the next compaction of each level keeps the odd values.  */
+  private boolean[] odd;
+
+  /** Number of levels in use.  */
+  private int height;
+
+  /** Total number of values added.  */
+  private long n;
+
+  /** Smallest value added.  */
+  private double min;
+
+  /** Largest value added.  */
+  private double max;
+
+  /**
+   * Construct it empty.  The rank error is about 1.7 / k.
+   * @param k Size parameter, the capacity of the top level.
+   * @throws RuntimeException If k is too small.
+   */
+  public QuantileSketch (int k)
+  {
+    if (k < MIN_CAPACITY * 4)
+      throw new RuntimeException ("Quantile sketch size too small: " + k);
+
+    size = k;
+    levels = new double[1][k];
+    counts = new int[1];
+    odd = new boolean[1];
+    height = 1;
+    n = 0;
+    min = Double.POSITIVE_INFINITY;
+    max = Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * Add a value.
+   * @param x The value.
+   */
+  public void add (double x)
+  {
+    if (x < min)
+      min = x;
+    if (x > max)
+      max = x;
+    ++n;
+
+    append (0, x);
+    if (counts[0] >= getCapacity (0))
+      compress ();
+  }
+
+  /**
+   * Merge another sketch into this one.  The other one is not changed.
+   * @param o The other sketch.
+   */
+  public void merge (QuantileSketch o)
+  {
+    if (o.n == 0)
+      return;
+
+    min = Math.min (min, o.min);
+    max = Math.max (max, o.max);
+    n += o.n;
+
+    for (int h = 0; h < o.height; ++h)
+      for (int i = 0; i < o.counts[h]; ++i)
+        append (h, o.levels[h][i]);
+    compress ();
+  }
+
+  /**
+   * Get the number of values added.
+   * @return Number of values.
+   */
+  public long getCount ()
+  {
+    return n;
+  }
+
+  /**
+   * Estimate a quantile.
+   * @param q The quantile, in [0, 1].
+   * @return The estimated value, or NaN if nothing was added.
+   * @throws RuntimeException If q is out of range.
+   */
+  public double getQuantile (double q)
+  {
+    if (!(q >= 0.0 && q <= 1.0))
+      throw new RuntimeException ("Invalid quantile: " + q);
+    if (n == 0)
+      return Double.NaN;
+    if (q == 0.0)
+      return min;
+    if (q == 1.0)
+      return max;
+
+    int total = 0;
+    for (int h = 0; h < height; ++h)
+      total += counts[h];
+
+    /* Collect all values with the weight of their level, sorted by value
+       to accumulate the weights up to the quantile.  */
+    final double[] values = new double[total];
+    final long[] weights = new long[total];
+    int pos = 0;
+    for (int h = 0; h < height; ++h)
+      {
+        final double[] lv = levels[h];
+        Arrays.sort (lv, 0, counts[h]);
+        System.arraycopy (lv, 0, values, pos, counts[h]);
+        Arrays.fill (weights, pos, pos + counts[h], 1l << h);
+        pos += counts[h];
+      }
+    sortByValue (values, weights);
+
+    final double target = q * n;
+    long cum = 0;
+    for (int i = 0; i < total; ++i)
+      {
+        cum += weights[i];
+        if (cum >= target)
+          return values[i];
+      }
+
+    return max;
+  }
+
+  /**
+   * Get the capacity of a level with the current height.
+   * @param h The level.
+   * @return Its capacity.
+   */
+  private int getCapacity (int h)
+  {
+    final double c = size * Math.pow (RATIO, height - 1 - h);
+    return Math.max (MIN_CAPACITY, (int) Math.ceil (c));
+  }
+
+  /**
+   * Append a value to a level, compacting it first if it is full.
+   * @param h The level.
+   * @param x The value.
+   */
+  private void append (int h, double x)
+  {
+    while (h >= height)
+      addLevel ();
+    if (counts[h] == levels[h].length)
+      compact (h);
+    levels[h][counts[h]++] = x;
+  }
+
+  /**
+   * Add an empty level on top.  The levels below keep their arrays until
+   * they are shrunk by trim().
+   */
+  private void addLevel ()
+  {
+    if (height == levels.length)
+      {
+        levels = Arrays.copyOf (levels, 2 * height);
+        counts = Arrays.copyOf (counts, 2 * height);
+        odd = Arrays.copyOf (odd, 2 * height);
+      }
+
+    levels[height] = new double[size];
+    counts[height] = 0;
+    odd[height] = false;
+    ++height;
+  }
+
+  /**
+   * Compact levels until each one is within its capacity.  The lowest full
+   * level is compacted first, and since adding a level shrinks the
+   * capacities of all others, we start again from the bottom after each
+   * compaction.
+   */
+  private void compress ()
+  {
+    int h = 0;
+    while (h < height)
+      {
+        if (counts[h] < getCapacity (h))
+          {
+            ++h;
+            continue;
+          }
+
+        compact (h);
+        h = 0;
+      }
+
+    trim ();
+  }
+
+  /**
+   * Shrink the arrays of the levels to their capacities, which go down as
+   * levels are added on top.  All levels must be within them.
+   */
+  private void trim ()
+  {
+    for (int h = 0; h < height; ++h)
+      {
+        final int cap = getCapacity (h);
+        if (levels[h].length > cap)
+          levels[h] = Arrays.copyOf (levels[h], cap);
+      }
+  }
+
+  /**
+   * Compact a level into the next one.  If it holds an odd number of
+   * values, the largest one stays.  The next level is compacted in turn
+   * when it fills up.
+   * @param h The level.
+   */
+  private void compact (int h)
+  {
+    if (h + 1 == height)
+      addLevel ();
+
+    final double[] lv = levels[h];
+    final int cnt = counts[h];
+    Arrays.sort (lv, 0, cnt);
+
+    final int pairs = cnt / 2;
+    final int offset = odd[h] ? 1 : 0;
+    odd[h] = !odd[h];
+    for (int i = 0; i < pairs; ++i)
+      append (h + 1, lv[2 * i + offset]);
+
+    if (cnt % 2 != 0)
+      {
+        lv[0] = lv[cnt - 1];
+        counts[h] = 1;
+      }
+    else
+      counts[h] = 0;
+  }
+
+  /**
+   * Sort values together with their weights.  Each level's values are
+   * already sorted, so this merges them by insertion with a binary search,
+   * which is fast enough for the few values a sketch holds.
+   * @param values The values.
+   * @param weights Their weights, permuted along.
+   */
+  private static void sortByValue (double[] values, long[] weights)
+  {
+    for (int i = 1; i < values.length; ++i)
+      {
+        final double v = values[i];
+        final long w = weights[i];
+        if (values[i - 1] <= v)
+          continue;
+
+        int lo = 0, hi = i - 1;
+        while (lo < hi)
+          {
+            final int mid = (lo + hi) >>> 1;
+            if (values[mid] <= v)
+              lo = mid + 1;
+            else
+              hi = mid;
+          }
+
+        System.arraycopy (values, lo, values, lo + 1, i - lo);
+        System.arraycopy (weights, lo, weights, lo + 1, i - lo);
+        values[lo] = v;
+        weights[lo] = w;
+      }
+  }
+
+}
@@ -0,0 +1,247 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Persistent store of simulation results, as a fixed-layout file that is
+ * memory-mapped.  There is one slot per strategy cell and true count
+ * bucket (in the same order as CellStats), holding the number of rounds
+ * as well as sum and sum of squares of their results.  Simulation workers
+ * merge their results into it, and reports read the numbers directly
+ * from the mapping instead of re-running the simulation.
+ * The header records which shards of the last run were merged, so that a
+ * run resumed after a crash does not merge them again.  Merges go through
+ * a journal holding the new state, which is copied over the old one only
+ * once it is complete, so that the store is never left half updated.
+ */
+public class ResultStore
+{
+
+  /** Magic number at the file start, "BJRS".  */
+  private static final int MAGIC = 0x424a5253;
+  /** Version of the file layout.  */
+  private static final int VERSION = 2;
+
+  /** Offset of the flag for a complete journal in the header.  */
+  private static final int PENDING_OFFSET = 16;
+  /** Offset of the total round counter in the header.  */
+  private static final int ROUNDS_OFFSET = 24;
+  /** Offset of the fingerprint of the last run merged in the header.  */
+  private static final int RUN_OFFSET = 32;
+  /** Offset of the number of shards merged of that run in the header.  */
+  private static final int MERGED_OFFSET = 40;
+  /** Size of the header.  */
+  private static final int HEADER_SIZE = 48;
+
+  /** Size of each slot:  count, sum and sum of squares.  */
+  private static final int SLOT_SIZE = 24;
+
+  /**
+   * Size of the state that is changed by merges, from the round counter
+   * up to the end of the slots.
+   */
+  private static final int STATE_SIZE
+    = HEADER_SIZE - ROUNDS_OFFSET + CellStats.SLOTS * SLOT_SIZE;
+
+  /** Offset of the journal, which follows the slots.  */
+  private static final int JOURNAL_OFFSET
+    = HEADER_SIZE + CellStats.SLOTS * SLOT_SIZE;
+
+  /** Total size of the file.  */
+  private static final int FILE_SIZE = JOURNAL_OFFSET + STATE_SIZE;
+
+  /** The underlying file, kept open while mapped.  */
+  private final RandomAccessFile file;
+
+  /** The mapped data.  */
+  private final MappedByteBuffer data;
+
+  /**
+   * Open a store, creating an empty one if the file does not yet exist.
+   * A merge interrupted after its journal was complete is finished.
+   * @param f The file to use.
+   * @throws IOException If the file can not be mapped or has a wrong
+   *                     layout.
+   */
+  public ResultStore (File f)
+    throws IOException
+  {
+    final boolean fresh = !f.exists () || f.length () == 0;
+
+    file = new RandomAccessFile (f, "rw");
+    try
+      {
+        if (!fresh && file.length () != FILE_SIZE)
+          throw new IOException ("Result store has wrong size!");
+        file.setLength (FILE_SIZE);
+
+        data = file.getChannel ().map (FileChannel.MapMode.READ_WRITE,
+                                       0, FILE_SIZE);
+        if (fresh)
+          {
+            data.putInt (0, MAGIC);
+            data.putInt (4, VERSION);
+            data.putInt (8, Strategy.NUM_CELLS);
+            data.putInt (12, CellStats.COUNT_BUCKETS);
+            data.force ();
+          }
+        else if (data.getInt (0) != MAGIC || data.getInt (4) != VERSION
+                 || data.getInt (8) != Strategy.NUM_CELLS
+                 || data.getInt (12) != CellStats.COUNT_BUCKETS)
+          throw new IOException ("Result store has wrong layout!");
+        else if (data.getInt (PENDING_OFFSET) != 0)
+          commit ();
+      }
+    catch (IOException exc)
+      {
+        file.close ();
+        throw exc;
+      }
+  }
+
+  /**
+   * Close the underlying file.  The mapping itself stays valid until it
+   * is garbage collected, but should not be used afterwards.
+   * @throws IOException If closing fails.
+   */
+  public void close ()
+    throws IOException
+  {
+    data.force ();
+    file.close ();
+  }
+
+  /**
+   * Add the results of a simulation shard to the store and flush them to
+   * disk.  The shards of a run must be merged in order.  If the shard was
+   * merged already, which happens when a run is resumed after it crashed
+   * while merging, nothing is done.
+   * @param run Fingerprint of the run.
+   * @param shard Index of the shard in the run.
+   * @param s The results to add.
+   * @return False if the shard was merged already.
+   */
+  public synchronized boolean merge (long run, int shard, CellStats s)
+  {
+    final boolean sameRun = (data.getLong (RUN_OFFSET) == run);
+    if (sameRun && shard < data.getInt (MERGED_OFFSET))
+      return false;
+
+    /* Write the new state to the journal, which is only marked complete
+       once it is on disk.  */
+    final int delta = JOURNAL_OFFSET - ROUNDS_OFFSET;
+    long rounds = 0;
+    for (int i = 0; i < CellStats.SLOTS; ++i)
+      {
+        final int off = HEADER_SIZE + i * SLOT_SIZE;
+        data.putLong (off + delta, data.getLong (off) + s.count[i]);
+        data.putDouble (off + delta + 8,
+                        data.getDouble (off + 8) + s.sum[i]);
+        data.putDouble (off + delta + 16,
+                        data.getDouble (off + 16) + s.sumSq[i]);
+        rounds += s.count[i];
+      }
+    data.putLong (ROUNDS_OFFSET + delta,
+                  data.getLong (ROUNDS_OFFSET) + rounds);
+    data.putLong (RUN_OFFSET + delta, run);
+    data.putInt (MERGED_OFFSET + delta, shard + 1);
+    data.force ();
+
+    data.putInt (PENDING_OFFSET, 1);
+    data.force ();
+    commit ();
+
+    return true;
+  }
+
+  /**
+   * Copy the complete journal over the state and clear its flag.  This
+   * can be repeated if interrupted.
+   */
+  private void commit ()
+  {
+    for (int i = 0; i < STATE_SIZE; i += 8)
+      data.putLong (ROUNDS_OFFSET + i, data.getLong (JOURNAL_OFFSET + i));
+    data.force ();
+
+    data.putInt (PENDING_OFFSET, 0);
+    data.force ();
+  }
+
+  /**
+   * Get the total number of rounds in the store.
+   * @return Number of rounds.
+   */
+  public synchronized long getRounds ()
+  {
+    return data.getLong (ROUNDS_OFFSET);
+  }
+
+  /**
+   * Get the number of rounds in a slot.
+   * @param cell Strategy cell.
+   * @param bucket True count bucket.
+   * @return Number of rounds.
+   */
+  public synchronized long getCount (int cell, int bucket)
+  {
+    return data.getLong (getOffset (cell, bucket));
+  }
+
+  /**
+   * Get the sum of results in a slot.
+   * @param cell Strategy cell.
+   * @param bucket True count bucket.
+   * @return Sum of round results.
+   */
+  public synchronized double getSum (int cell, int bucket)
+  {
+    return data.getDouble (getOffset (cell, bucket) + 8);
+  }
+
+  /**
+   * Get the sum of squared results in a slot.
+   * @param cell Strategy cell.
+   * @param bucket True count bucket.
+   * @return Sum of squared round results.
+   */
+  public synchronized double getSumSquares (int cell, int bucket)
+  {
+    return data.getDouble (getOffset (cell, bucket) + 16);
+  }
+
+  /**
+   * Compute the byte offset of a slot.
+   * @param cell Strategy cell.
+   * @param bucket True count bucket.
+   * @return Offset of the slot in the file.
+   */
+  private static int getOffset (int cell, int bucket)
+  {
+    return HEADER_SIZE + CellStats.getSlot (cell, bucket) * SLOT_SIZE;
+  }
+
+}
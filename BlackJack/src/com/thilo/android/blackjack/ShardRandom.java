@@ -0,0 +1,98 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.util.Random;
+
+/**
+ * Random number generator whose state can be saved and restored.  This
+ * uses exactly the same generator as java.util.Random (so that results
+ * for a given seed are unchanged), but keeps its state accessible for
+ * checkpointing simulation shards.  It is not thread-safe and meant to be
+ * used by a single shard only.
+ */
+public class ShardRandom extends Random
+{
+
+  /** Serial version id.  */
+  private static final long serialVersionUID = 0l;
+
+  /** Multiplier of the linear congruential generator.  */
+  private static final long MULTIPLIER = 0x5DEECE66Dl;
+  /** Addend of the linear congruential generator.  */
+  private static final long ADDEND = 0xBl;
+  /** Mask for the 48 bits of state.  */
+  private static final long MASK = (1l << 48) - 1;
+
+  /* The state must not have an initialiser, since it is already set
+     by the super constructor calling setSeed().  */
+  /** Current state.  */
+  private long state;
+
+  /**
+   * Construct it with a seed.
+   * @param seed The seed, as for java.util.Random.
+   */
+  public ShardRandom (long seed)
+  {
+    super (seed);
+  }
+
+  /**
+   * Set the seed, as for java.util.Random.
+   * @param seed The new seed.
+   */
+  @Override
+  public void setSeed (long seed)
+  {
+    super.setSeed (seed);
+    state = (seed ^ MULTIPLIER) & MASK;
+  }
+
+  /**
+   * Get the current state.
+   * @return The generator's state.
+   */
+  public long getState ()
+  {
+    return state;
+  }
+
+  /**
+   * Restore a state as returned by getState().
+   * @param s The state to restore.
+   */
+  public void setState (long s)
+  {
+    state = s & MASK;
+  }
+
+  /**
+   * Generate the next random bits.
+   * @param bits Number of bits to produce.
+   * @return Random bits.
+   */
+  @Override
+  protected int next (int bits)
+  {
+    state = (state * MULTIPLIER + ADDEND) & MASK;
+    return (int) (state >>> (48 - bits));
+  }
+
+}
@@ -0,0 +1,281 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A shoe of one or more full decks, which is shuffled and then dealt in
+ * order up to a cut card.  It keeps a Hi-Lo running count of the cards
+ * dealt since the last shuffle, so that simulations can look at the
+ * true count before each round.  Like Card and Hand, this has nothing to
+ * do with the UI and is used by the standalone simulator.
+ */
+public class Shoe implements CardSupply
+{
+
+  /** Number of cards in a single deck.  */
+  public static final int DECK_SIZE = 52;
+
+  /** Number of decks in this shoe.  */
+  public final int decks;
+
+  /** The cards, in dealing order after shuffling.  */
+  private final Card[] cards;
+
+  /** Index of the next card to be dealt.  */
+  private int cursor;
+
+  /** Position of the cut card, reshuffle when it is reached.  */
+  private final int cut;
+
+  /** RNG used for shuffling.  */
+  private final Random rng;
+
+  /** Hi-Lo running count of the cards dealt.  */
+  private int runningCount;
+
+  /**
+   * Construct it.  The shoe is shuffled right away.
+   * @param d Number of decks.
+   * @param penetration Fraction of the shoe dealt before reshuffling.
+   * @param r RNG to use for shuffling.
+   * @throws RuntimeException If the arguments are out of range.
+   */
+  public Shoe (int d, float penetration, Random r)
+  {
+    if (d < 1)
+      throw new RuntimeException ("Shoe needs at least one deck!");
+    if (penetration <= 0.0f || penetration > 1.0f)
+      throw new RuntimeException ("Penetration must be in (0, 1]!");
+
+    decks = d;
+    rng = r;
+    cards = new Card[decks * DECK_SIZE];
+    cut = Math.round (cards.length * penetration);
+
+    for (int i = 0; i < cards.length; ++i)
+      cards[i] = Card.fromCode (i % Card.CODES);
+
+    shuffle ();
+  }
+
+  /**
+   * Shuffle all cards back into the shoe.
+   */
+  public void shuffle ()
+  {
+    for (int i = cards.length - 1; i > 0; --i)
+      {
+        final int j = rng.nextInt (i + 1);
+        final Card tmp = cards[i];
+        cards[i] = cards[j];
+        cards[j] = tmp;
+      }
+
+    cursor = 0;
+    runningCount = 0;
+  }
+
+  /**
+   * Shuffle the cards not yet dealt, keeping those dealt and the running
+   * count.  Since the order of the remaining cards is uniformly random
+   * given the ones dealt, this does not change the odds of the game, but
+   * gives an independent continuation from the current position.
+   */
+  public void shuffleRest ()
+  {
+    for (int i = cards.length - 1; i > cursor; --i)
+      {
+        final int j = cursor + rng.nextInt (i - cursor + 1);
+        final Card tmp = cards[i];
+        cards[i] = cards[j];
+        cards[j] = tmp;
+      }
+  }
+
+  /**
+   * Take over the state of another shoe of the same size, that is the
+   * order of its cards, the position and the running count.
+   * @param o The other shoe.
+   * @throws RuntimeException If the shoes differ in size.
+   */
+  public void copyFrom (Shoe o)
+  {
+    if (o.cards.length != cards.length)
+      throw new RuntimeException ("Copied shoe has a different size!");
+
+    System.arraycopy (o.cards, 0, cards, 0, cards.length);
+    cursor = o.cursor;
+    runningCount = o.runningCount;
+  }
+
+  /**
+   * Query whether the cut card has been reached.  This should be checked
+   * between rounds only.
+   * @return True iff the shoe should be reshuffled.
+   */
+  public boolean needsShuffle ()
+  {
+    return cursor >= cut;
+  }
+
+  /**
+   * Draw a card.  If the shoe runs out in the middle of a round (which
+   * can only happen with very deep penetration), it is simply reshuffled.
+   * @return The next card.
+   */
+  public Card getNextCard ()
+  {
+    if (cursor == cards.length)
+      shuffle ();
+
+    final Card c = cards[cursor++];
+    runningCount += getHiLo (c);
+
+    return c;
+  }
+
+  /**
+   * Get the position of the next card, to return to it with seek().
+   * @return The position.
+   */
+  public int getPosition ()
+  {
+    return cursor;
+  }
+
+  /**
+   * Move to a position in the current shuffle, with the running count as
+   * if the cards up to it were dealt.  This is used to play different
+   * strategies on the same cards.
+   * @param pos The position, as returned by getPosition().
+   * @throws RuntimeException If the position is out of range.
+   */
+  public void seek (int pos)
+  {
+    if (pos < 0 || pos > cards.length)
+      throw new RuntimeException ("Invalid shoe position: " + pos);
+
+    while (cursor > pos)
+      runningCount -= getHiLo (cards[--cursor]);
+    while (cursor < pos)
+      runningCount += getHiLo (cards[cursor++]);
+  }
+
+  /**
+   * Write the shoe's state, that is the order of the cards, the position
+   * of the next card and the running count.
+   * @param out Stream to write to.
+   * @throws IOException If writing fails.
+   */
+  public void write (DataOutput out)
+    throws IOException
+  {
+    out.writeInt (cards.length);
+    for (final Card c : cards)
+      out.writeByte (c.getCode ());
+    out.writeInt (cursor);
+    out.writeInt (runningCount);
+  }
+
+  /**
+   * Restore the state written by write().
+   * @param in Stream to read from.
+   * @throws IOException If reading fails or the data does not fit.
+   */
+  public void read (DataInput in)
+    throws IOException
+  {
+    if (in.readInt () != cards.length)
+      throw new IOException ("Saved shoe has a different size!");
+    for (int i = 0; i < cards.length; ++i)
+      cards[i] = Card.fromCode (in.readUnsignedByte ());
+    cursor = in.readInt ();
+    runningCount = in.readInt ();
+
+    if (cursor < 0 || cursor > cards.length)
+      throw new IOException ("Saved shoe position is invalid!");
+  }
+
+  /**
+   * Get the number of cards not yet dealt.
+   * @return Remaining cards in the shoe.
+   */
+  public int getRemaining ()
+  {
+    return cards.length - cursor;
+  }
+
+  /**
+   * Get the Hi-Lo running count.
+   * @return The running count.
+   */
+  public int getRunningCount ()
+  {
+    return runningCount;
+  }
+
+  /**
+   * Get the Hi-Lo true count, which is the running count per remaining
+   * deck.
+   * @return The true count.
+   */
+  public float getTrueCount ()
+  {
+    return runningCount * (float) DECK_SIZE / getRemaining ();
+  }
+
+  /**
+   * Get the Hi-Lo true count as the player sees it during a round, that
+   * is without the dealer's cards other than the up card.
+   * @param dealer The dealer's hand.
+   * @return The true count.
+   */
+  public float getTrueCount (Hand dealer)
+  {
+    final List<Card> dealt = dealer.getCards ();
+    int count = runningCount;
+    for (int i = 1; i < dealt.size (); ++i)
+      count -= getHiLo (dealt.get (i));
+
+    return count * (float) DECK_SIZE / (getRemaining () + dealt.size () - 1);
+  }
+
+  /**
+   * Return the Hi-Lo tag of a card.
+   * @param c The card.
+   * @return +1 for 2-6, -1 for tens and aces, 0 otherwise.
+   */
+  public static int getHiLo (Card c)
+  {
+    final byte v = c.getValue ();
+    if (v <= 6)
+      return 1;
+    if (v >= 10)
+      return -1;
+    return 0;
+  }
+
+}
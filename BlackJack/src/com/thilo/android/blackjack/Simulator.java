@@ -0,0 +1,1741 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+/**
+ * Real deck simulation playing a strategy.  Rounds are dealt from a shoe,
+ * played according to the strategy and their results recorded per
+ * initial strategy cell and true count.  The dealer's hole card is dealt
+ * with the up card and checked for a blackjack before the player decides,
+ * as in US games, which the strategies are made for.  The work is split
+ * into shards, each with its own shoe and RNG seeded from the base seed,
+ * which are run in parallel and merged in order so that results are
+ * reproducible.
+ * Shards can periodically write checkpoints, from which an interrupted
+ * run is resumed with identical results.
+ * The player can be made imperfect, deviating from the strategy at random,
+ * with the decisions recorded per cell.  The simulator also estimates the
+ * EV of each decision per cell, for pricing such mistakes.
+ * Two strategies can be compared on common random numbers, playing both
+ * on the same cards for a paired estimate of their EV difference.
+ * Runs can stop early, once the EV (or the difference) is known to a
+ * given precision.
+ * This does not use anything of Android and can be run standalone
+ * via main().
+ */
+public class Simulator
+{
+
+  /** Maximum number of hands the player may split into.  */
+  public static final int MAX_HANDS = 4;
+
+  /** The strategy played.  */
+  private final Strategy strategy;
+
+  /** Whether the dealer hits soft 17.  */
+  private final boolean h17;
+
+  /** Number of decks in the shoe.  */
+  private final int decks;
+
+  /** Penetration before reshuffling.  */
+  private final float penetration;
+
+  /** All decisions, to iterate over them without allocating.  */
+  private static final Strategy.Decision[] DECISIONS
+    = Strategy.Decision.values ();
+
+  /** Quantile of the normal distribution for 95% confidence.  */
+  private static final double Z_95 = 1.96;
+
+  /** Probability of a random mistake per decision.  */
+  private float mistakes;
+
+  /** EV table to price mistakes with, may be null.  */
+  private EvTable ev;
+
+  /** Index plays by true count, or null to play the strategy only.  */
+  private DeviationBank deviations;
+
+  /** Target half-width of the 95% confidence interval, or 0.  */
+  private double precision;
+
+  /** Rounds per shard between checks of the precision.  */
+  private long batch;
+
+  /** Listener attached to all games dealt.  */
+  private GameListener listener;
+
+  /** Tracer of the sections played.  */
+  private Tracer tracer;
+
+  /**
+   * Construct it.
+   * @param s Strategy to play.
+   * @param hitSoft17 Whether the dealer hits soft 17.
+   * @param d Number of decks.
+   * @param pen Penetration of the shoe.
+   */
+  public Simulator (Strategy s, boolean hitSoft17, int d, float pen)
+  {
+    strategy = s;
+    h17 = hitSoft17;
+    decks = d;
+    penetration = pen;
+    mistakes = 0.0f;
+    ev = null;
+    deviations = null;
+    precision = 0.0;
+    batch = 0;
+    listener = GameListener.NONE;
+    tracer = Tracer.NONE;
+  }
+
+  /**
+   * Attach a listener to all games dealt.  It is called from all shards,
+   * and must thus be thread-safe if they run in parallel.
+   * @param l The listener, GameListener.NONE for none.
+   */
+  public void setListener (GameListener l)
+  {
+    listener = l;
+  }
+
+  /**
+   * Set the tracer of shuffles, rounds, strategy lookups, dealer play-outs
+   * and result merges.
+   * @param t The tracer, Tracer.NONE for none.
+   */
+  public void setTracer (Tracer t)
+  {
+    tracer = t;
+  }
+
+  /**
+   * Play index plays by the true count of the shoe.
+   * @param d The deviations from the strategy, or null for none.
+   */
+  public void setDeviations (DeviationBank d)
+  {
+    deviations = d;
+  }
+
+  /**
+   * Model an imperfect player.
+   * @param p Probability of a random wrong decision.
+   * @param e EV table to price the mistakes with, may be null.
+   */
+  public void setPlayer (float p, EvTable e)
+  {
+    mistakes = p;
+    ev = e;
+  }
+
+  /**
+   * Stop runs once the result is precise enough.  The shards play in
+   * batches, all to the same number of rounds, and the merged results are
+   * checked after each batch.  The number of rounds given to run() or
+   * compare() is then the maximum.  Since the shards' results after each
+   * batch depend only on the seed, so does the stopping point.
+   * @param p Target half-width of the 95% confidence interval of the EV
+   *          (or EV difference when comparing), or 0 to always play all
+   *          rounds.
+   * @param b Number of rounds per shard in a batch.
+   * @throws RuntimeException If the batch size is not positive.
+   */
+  public void setStopping (double p, long b)
+  {
+    if (b <= 0)
+      throw new RuntimeException ("Batch size must be positive!");
+
+    precision = p;
+    batch = b;
+  }
+
+  /**
+   * Run a simulation.
+   * @param shards Number of shards to split the work into.
+   * @param rounds Number of rounds to play per shard.
+   * @param seed Base seed for the shards' RNGs.
+   * @param threads Number of worker threads.
+   * @param store If not null, merge the shards' results into it.  Shards
+   *              of the same run merged already are skipped.
+   * @param ckpt If not null, checkpoint the shards and resume from
+   *             existing checkpoints.  They are removed when done.
+   * @param decisions If not null, record the decisions into it.
+   * @return The merged results of all shards.
+   * @throws RuntimeException If a shard fails.
+   * @throws RuntimeException If checkpointing a run that may stop early.
+   */
+  public CellStats run (int shards, long rounds, long seed, int threads,
+                        ResultStore store, Checkpointer ckpt,
+                        DecisionStats decisions)
+  {
+    if (ckpt != null && precision > 0.0)
+      throw new RuntimeException ("Runs stopping early can not be"
+                                  + " checkpointed!");
+
+    final ExecutorService pool = Executors.newFixedThreadPool (threads);
+    try
+      {
+        final List<Shard> tasks = new ArrayList<Shard> ();
+        for (int i = 0; i < shards; ++i)
+          tasks.add (new Shard (i, rounds, seed, ckpt, decisions != null));
+
+        CellStats res;
+        long target = 0;
+        do
+          {
+            target = getBatchEnd (target, rounds);
+            final List<Future<CellStats>> results
+              = new ArrayList<Future<CellStats>> ();
+            for (final Shard s : tasks)
+              {
+                s.rounds = target;
+                results.add (pool.submit (s));
+              }
+
+            /* Merge in shard order, so that the floating-point sums do not
+               depend on which shard finishes first.  */
+            res = new CellStats ();
+            for (int i = 0; i < shards; ++i)
+              {
+                final CellStats r = results.get (i).get ();
+                final Object t = tracer.begin (Tracer.Section.MERGE);
+                res.merge (r);
+                tracer.end (t, i, target);
+              }
+          }
+        while (target < rounds && !isPrecise (res));
+
+        /* Shards merged already were finished by the run that is resumed
+           here, which crashed before removing the checkpoints.  */
+        if (store != null)
+          {
+            final long run = getFingerprint (rounds, seed);
+            for (final Shard s : tasks)
+              if (!store.merge (run, s.id, s.stats))
+                System.err.println ("Shard " + s.id + " is in the result"
+                                    + " store already.");
+          }
+        if (decisions != null)
+          for (final Shard s : tasks)
+            decisions.merge (s.decisions);
+
+        if (ckpt != null)
+          {
+            ckpt.finish ();
+            ckpt.delete (shards);
+          }
+
+        return res;
+      }
+    catch (InterruptedException exc)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new RuntimeException ("Simulation interrupted!");
+      }
+    catch (ExecutionException exc)
+      {
+        exc.getCause ().printStackTrace ();
+        throw new RuntimeException ("Simulation shard failed: "
+                                    + exc.getCause ().getMessage ());
+      }
+    finally
+      {
+        pool.shutdownNow ();
+      }
+  }
+
+  /**
+   * Estimate the EV of each decision in each strategy cell.  In every
+   * round, the first decision is chosen at random among the allowed ones,
+   * and the round is then played out by the strategy.  This is not
+   * checkpointed.
+   * @param shards Number of shards to split the work into.
+   * @param rounds Number of rounds to play per shard.
+   * @param seed Base seed for the shards' RNGs.
+   * @param threads Number of worker threads.
+   * @return The estimated EV table.
+   * @throws RuntimeException If a shard fails.
+   */
+  public EvTable estimateEv (int shards, long rounds, long seed, int threads)
+  {
+    final ExecutorService pool = Executors.newFixedThreadPool (threads);
+    try
+      {
+        final List<Future<EvShard>> results
+          = new ArrayList<Future<EvShard>> ();
+        for (int i = 0; i < shards; ++i)
+          results.add (pool.submit (new EvShard (i, rounds, seed)));
+
+        final long[] count = new long[Strategy.NUM_CELLS * DECISIONS.length];
+        final double[] sum = new double[count.length];
+        for (int j = 0; j < shards; ++j)
+          {
+            final EvShard s = results.get (j).get ();
+            final Object t = tracer.begin (Tracer.Section.MERGE);
+            for (int i = 0; i < count.length; ++i)
+              {
+                count[i] += s.count[i];
+                sum[i] += s.sum[i];
+              }
+            tracer.end (t, j, rounds);
+          }
+
+        final EvTable res = new EvTable ();
+        for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+          for (final Strategy.Decision d : DECISIONS)
+            {
+              final int i = c * DECISIONS.length + d.ordinal ();
+              if (count[i] > 0)
+                res.set (c, d, (float) (sum[i] / count[i]));
+            }
+
+        return res;
+      }
+    catch (InterruptedException exc)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new RuntimeException ("Simulation interrupted!");
+      }
+    catch (ExecutionException exc)
+      {
+        exc.getCause ().printStackTrace ();
+        throw new RuntimeException ("Simulation shard failed: "
+                                    + exc.getCause ().getMessage ());
+      }
+    finally
+      {
+        pool.shutdownNow ();
+      }
+  }
+
+  /**
+   * Compare this simulator's strategy to another one.  Each round is
+   * played by both from the same position of the same shoe, and the shoe
+   * then continues after the cards this one used.  The results of the
+   * rounds are thus strongly correlated, and their difference has a much
+   * smaller variance than that of independent runs.  Random mistakes of
+   * the players are also drawn from identical RNGs.
+   * @param other The simulator to compare to, with the same shoe.
+   * @param shards Number of shards to split the work into.
+   * @param rounds Number of rounds to play per shard.
+   * @param seed Base seed for the shards' RNGs.
+   * @param threads Number of worker threads.
+   * @return The merged results of all shards.
+   * @throws RuntimeException If the shoes differ or a shard fails.
+   */
+  public Comparison compare (Simulator other, int shards, long rounds,
+                             long seed, int threads)
+  {
+    if (other.decks != decks || other.penetration != penetration)
+      throw new RuntimeException ("Compared simulators use other shoes!");
+
+    final ExecutorService pool = Executors.newFixedThreadPool (threads);
+    try
+      {
+        final List<CompareShard> tasks = new ArrayList<CompareShard> ();
+        for (int i = 0; i < shards; ++i)
+          tasks.add (new CompareShard (other, i, rounds, seed));
+
+        Comparison res;
+        long target = 0;
+        do
+          {
+            target = getBatchEnd (target, rounds);
+            final List<Future<CompareShard>> results
+              = new ArrayList<Future<CompareShard>> ();
+            for (final CompareShard s : tasks)
+              {
+                s.rounds = target;
+                results.add (pool.submit (s));
+              }
+
+            res = new Comparison ();
+            for (int i = 0; i < shards; ++i)
+              {
+                final Comparison r = results.get (i).get ().result;
+                final Object t = tracer.begin (Tracer.Section.MERGE);
+                res.merge (r);
+                tracer.end (t, i, target);
+              }
+          }
+        while (target < rounds && !isPrecise (res.difference));
+
+        return res;
+      }
+    catch (InterruptedException exc)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new RuntimeException ("Simulation interrupted!");
+      }
+    catch (ExecutionException exc)
+      {
+        exc.getCause ().printStackTrace ();
+        throw new RuntimeException ("Simulation shard failed: "
+                                    + exc.getCause ().getMessage ());
+      }
+    finally
+      {
+        pool.shutdownNow ();
+      }
+  }
+
+  /**
+   * Find the number of rounds per shard to play up to in the next batch.
+   * @param done Rounds per shard played so far.
+   * @param rounds Maximum number of rounds per shard.
+   * @return Rounds per shard after the next batch.
+   */
+  private long getBatchEnd (long done, long rounds)
+  {
+    if (precision <= 0.0)
+      return rounds;
+    return Math.min (rounds, done + batch);
+  }
+
+  /**
+   * Check whether merged results are precise enough to stop.
+   * @param s The results.
+   * @return True iff the confidence interval is narrow enough.
+   */
+  private boolean isPrecise (CellStats s)
+  {
+    if (precision <= 0.0)
+      return false;
+
+    final long n = s.getRounds ();
+    final double mean = s.getSum () / n;
+    final double var = s.getSumSquares () / n - mean * mean;
+
+    return Z_95 * Math.sqrt (var / n) <= precision;
+  }
+
+  /**
+   * Play out a full round, including all split hands, by the strategy.
+   * @param first The initial game.
+   * @param supply Card supply of the game.
+   * @return The round's total result in units of the initial bet.
+   */
+  public double playRound (Game first, CardSupply supply)
+  {
+    return playRound (first, supply, null, null, null, -1);
+  }
+
+  /**
+   * Play out a full round, including all split hands.
+   * @param first The initial game.
+   * @param supply Card supply of the game.
+   * @param forced If not null, make this first decision.
+   * @param rng RNG for mistakes of the player, may be null if there
+   *            are none.
+   * @param decisions If not null, record the decisions into it.
+   * @param shard Index of the shard playing, or -1, for tracing.
+   * @return The round's total result in units of the initial bet.
+   */
+  private double playRound (Game first, CardSupply supply,
+                            Strategy.Decision forced, Random rng,
+                            DecisionStats decisions, int shard)
+  {
+    /* The game is over already after a blackjack of either side.  */
+    if (!first.isRunning ())
+      {
+        if (GameListener.HOOKS)
+          listener.onFinished (first, first.getResult (), first.getPayout ());
+        return first.getPayout ();
+      }
+
+    final List<Game> hands = new ArrayList<Game> ();
+    hands.add (first);
+    for (int i = 0; i < hands.size (); ++i)
+      {
+        final Game g = hands.get (i);
+        while (g.isRunning ())
+          {
+            Strategy.Decision d;
+            if (forced != null)
+              {
+                d = forced;
+                forced = null;
+              }
+            else
+              {
+                final Object t = tracer.begin (Tracer.Section.LOOKUP);
+                d = choose (g, supply, hands.size () < MAX_HANDS, rng,
+                            decisions);
+                tracer.end (t, shard, 0);
+              }
+
+            /* Standing and doubling play out the dealer, unless a shared
+               hand was played out already for an earlier split hand.  */
+            if (d == Strategy.Decision.STAND
+                || d == Strategy.Decision.DOUBLE)
+              {
+                final Object t = tracer.begin (Tracer.Section.DEALER);
+                apply (hands, g, d);
+                tracer.end (t, shard, 0);
+              }
+            else
+              apply (hands, g, d);
+          }
+      }
+
+    double res = 0.0;
+    for (final Game g : hands)
+      res += g.getPayout ();
+
+    return res;
+  }
+
+  /**
+   * Make a decision in one of the games of a round.
+   * @param hands All games of the round, to which a split adds one.
+   * @param g The game to decide in.
+   * @param d The decision.
+   */
+  static void apply (List<Game> hands, Game g, Strategy.Decision d)
+  {
+    switch (d)
+      {
+        case HIT:
+          g.doHit ();
+          break;
+
+        case STAND:
+          g.doStand ();
+          break;
+
+        case DOUBLE:
+          g.doDouble ();
+          break;
+
+        case SPLIT:
+          /* The dealer's hand is shared, so that it is played out only
+             once for all split hands.  */
+          hands.add (g.doSplit (false));
+          break;
+
+        default:
+          assert (false);
+      }
+  }
+
+  /**
+   * Get the decision of the strategy, or the index play for the true
+   * count of the shoe.
+   * @param g The game.
+   * @param supply Card supply of the game, for the true count.
+   * @param allowSplit Whether splitting is allowed.
+   * @return The optimal decision.
+   */
+  Strategy.Decision decide (Game g, CardSupply supply, boolean allowSplit)
+  {
+    if (deviations != null && supply instanceof Shoe)
+      {
+        final Shoe s = (Shoe) supply;
+        return deviations.decide (g, allowSplit,
+                                  s.getTrueCount (g.getDealerHand ()));
+      }
+    return strategy.decide (g, allowSplit);
+  }
+
+  /**
+   * Choose the player's decision, which is the strategy's one (or the
+   * index play for the true count) unless a random mistake is made.
+   * @param g The game.
+   * @param supply Card supply of the game, for the true count.
+   * @param allowSplit Whether splitting is allowed.
+   * @param rng RNG for mistakes, may be null if there are none.
+   * @param decisions If not null, record the decision into it.
+   * @return The decision made.
+   */
+  private Strategy.Decision choose (Game g, CardSupply supply,
+                                    boolean allowSplit, Random rng,
+                                    DecisionStats decisions)
+  {
+    final Strategy.Decision optimal = decide (g, supply, allowSplit);
+    Strategy.Decision res = optimal;
+    if (mistakes > 0.0f && rng.nextFloat () < mistakes)
+      res = pickRandom (g, allowSplit, optimal, rng);
+
+    /* The EV table is only valid for first decisions.  */
+    if (decisions != null)
+      decisions.record (Strategy.getCell (g), res, optimal,
+                        g.isInitial () ? ev : null);
+
+    return res;
+  }
+
+  /**
+   * Pick a random allowed decision.
+   * @param g The game.
+   * @param allowSplit Whether splitting is allowed.
+   * @param except Do not pick this decision, may be null.
+   * @param rng RNG to use.
+   * @return The decision picked.
+   */
+  private static Strategy.Decision pickRandom (Game g, boolean allowSplit,
+                                               Strategy.Decision except,
+                                               Random rng)
+  {
+    int num = 0;
+    for (final Strategy.Decision d : DECISIONS)
+      if (d != except && isAllowed (g, allowSplit, d))
+        ++num;
+
+    int k = rng.nextInt (num);
+    for (final Strategy.Decision d : DECISIONS)
+      if (d != except && isAllowed (g, allowSplit, d) && k-- == 0)
+        return d;
+
+    /* Silence compiler.  */
+    assert (false);
+    return except;
+  }
+
+  /**
+   * Check whether a decision is allowed.
+   * @param g The game.
+   * @param allowSplit Whether splitting is allowed at all.
+   * @param d The decision.
+   * @return True iff it may be made.
+   */
+  private static boolean isAllowed (Game g, boolean allowSplit,
+                                    Strategy.Decision d)
+  {
+    switch (d)
+      {
+        case DOUBLE:
+          return g.canDouble ();
+
+        case SPLIT:
+          return allowSplit && g.canSplit ();
+
+        default:
+          return true;
+      }
+  }
+
+  /**
+   * Deal the initial cards of a round.  The listener is attached to the
+   * game and told about it.  If the dealer has a blackjack, the game is
+   * over already.
+   * @param s The shoe to deal from.
+   * @return The game with two player cards and the dealer's up and hole
+   *         cards.
+   */
+  public Game deal (Shoe s)
+  {
+    final Hand player = new Hand ();
+    final Hand dealer = new Hand ();
+    player.add (s.getNextCard ());
+    dealer.add (s.getNextCard ());
+    player.add (s.getNextCard ());
+    dealer.add (s.getNextCard ());
+
+    final Game res = new Game (player, dealer, s, h17);
+    res.setListener (listener);
+    if (GameListener.HOOKS)
+      listener.onDealt (res);
+
+    return res;
+  }
+
+  /**
+   * Compute a fingerprint of the simulation parameters, which is stored
+   * in checkpoints to make sure they are resumed only by the same run, and
+   * in the result store to merge the shards of a run only once.
+   * @param rounds Number of rounds per shard.
+   * @param seed Base seed.
+   * @return The fingerprint.
+   */
+  public long getFingerprint (long rounds, long seed)
+  {
+    long res = seed;
+    res = res * 31 + rounds;
+    res = res * 31 + decks;
+    res = res * 31 + Float.floatToIntBits (penetration);
+    res = res * 31 + (h17 ? 1 : 0);
+    res = res * 31 + Float.floatToIntBits (mistakes);
+    if (precision > 0.0)
+      {
+        res = res * 31 + Double.doubleToLongBits (precision);
+        res = res * 31 + batch;
+      }
+    for (final Strategy.Matrix m : Strategy.Matrix.values ())
+      for (final Strategy.MatrixEntry[] row : strategy.getMatrix (m))
+        for (final Strategy.MatrixEntry e : row)
+          res = res * 31 + e.ordinal ();
+    if (deviations != null)
+      for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+        {
+          final float t = deviations.getThreshold (c);
+          final Strategy.MatrixEntry below
+            = deviations.getEntry (c, Float.NEGATIVE_INFINITY);
+          final Strategy.MatrixEntry above
+            = deviations.getEntry (c, Float.POSITIVE_INFINITY);
+          res = res * 31 + Float.floatToIntBits (t);
+          res = res * 31 + below.ordinal ();
+          res = res * 31 + above.ordinal ();
+        }
+
+    return res;
+  }
+
+  /**
+   * One shard of the simulation, which is run as a task on the pool.
+   */
+  private class Shard implements Callable<CellStats>
+  {
+
+    /** Check the time for a checkpoint every so many rounds.  */
+    private static final int CHECK_ROUNDS = 1024;
+
+    /** Index of this shard.  */
+    private final int id;
+
+    /** Number of rounds to play in total, raised for each batch.  */
+    long rounds;
+
+    /** RNG of this shard.  */
+    private final ShardRandom rng;
+
+    /** The shoe dealt from.  */
+    private final Shoe shoe;
+
+    /** The shard's results.  */
+    final CellStats stats;
+
+    /** Checkpointer to use, may be null.  */
+    private final Checkpointer ckpt;
+
+    /** The player's decisions, if they are recorded.  */
+    final DecisionStats decisions;
+
+    /** Number of rounds already played.  */
+    private long done;
+
+    /**
+     * Construct it.
+     * @param i Index of this shard.
+     * @param r Number of rounds to play.
+     * @param seed Base seed of the simulation.
+     * @param c Checkpointer to use, may be null.
+     * @param record Whether to record the decisions.
+     */
+    public Shard (int i, long r, long seed, Checkpointer c, boolean record)
+    {
+      id = i;
+      rounds = r;
+      ckpt = c;
+      rng = new ShardRandom (seed + id * 0x9E3779B97F4A7C15l);
+      shoe = new Shoe (decks, penetration, rng);
+      stats = new CellStats ();
+      decisions = record ? new DecisionStats () : null;
+      done = 0;
+    }
+
+    /**
+     * Play all rounds.
+     * @return The shard's results.
+     * @throws IOException If an existing checkpoint can not be read.
+     */
+    public CellStats call ()
+      throws IOException
+    {
+      if (ckpt != null)
+        {
+          final byte[] state = ckpt.load (id);
+          if (state != null)
+            restore (state);
+        }
+
+      Future<?> pending = null;
+      long nextCheckpoint = System.nanoTime ();
+      if (ckpt != null)
+        nextCheckpoint += ckpt.interval;
+
+      while (done < rounds)
+        {
+          if (shoe.needsShuffle ())
+            {
+              final Object t = tracer.begin (Tracer.Section.SHUFFLE);
+              shoe.shuffle ();
+              tracer.end (t, id, 0);
+            }
+
+          final Object t = tracer.begin (Tracer.Section.ROUND);
+          final float trueCount = shoe.getTrueCount ();
+          Object p = tracer.begin (Tracer.Section.DEAL);
+          final Game g = deal (shoe);
+          tracer.end (p, id, 0);
+          final int cell = Strategy.getCell (g);
+          final double res = playRound (g, shoe, null, rng, decisions, id);
+          p = tracer.begin (Tracer.Section.RECORD);
+          stats.add (cell, trueCount, res);
+          tracer.end (p, id, 0);
+          ++done;
+          tracer.end (t, id, 1);
+
+          /* Only snapshot if the previous one is written already, so
+             that a slow disk never makes snapshots pile up.  */
+          if (ckpt != null && done % CHECK_ROUNDS == 0
+              && System.nanoTime () >= nextCheckpoint
+              && (pending == null || pending.isDone ()))
+            {
+              pending = ckpt.submit (id, snapshot ());
+              nextCheckpoint = System.nanoTime () + ckpt.interval;
+            }
+        }
+
+      if (ckpt != null)
+        ckpt.submit (id, snapshot ());
+
+      return stats;
+    }
+
+    /**
+     * Serialise the shard's state between rounds.
+     * @return The state as bytes.
+     */
+    private byte[] snapshot ()
+    {
+      try
+        {
+          final ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+          final DataOutputStream out = new DataOutputStream (bytes);
+          out.writeLong (done);
+          out.writeLong (rng.getState ());
+          shoe.write (out);
+          stats.write (out);
+          out.writeBoolean (decisions != null);
+          if (decisions != null)
+            decisions.write (out);
+          out.close ();
+
+          return bytes.toByteArray ();
+        }
+      catch (IOException exc)
+        {
+          /* This can not happen for an in-memory stream.  */
+          throw new RuntimeException ("Serialising shard failed!");
+        }
+    }
+
+    /**
+     * Restore the shard's state from a checkpoint.
+     * @param state The state as written by snapshot().
+     * @throws IOException If the state is invalid.
+     */
+    private void restore (byte[] state)
+      throws IOException
+    {
+      final DataInputStream in
+        = new DataInputStream (new ByteArrayInputStream (state));
+      done = in.readLong ();
+      rng.setState (in.readLong ());
+      shoe.read (in);
+      stats.read (in);
+      if (in.readBoolean () != (decisions != null))
+        throw new IOException ("Checkpoint does not match decision"
+                               + " recording!");
+      if (decisions != null)
+        decisions.read (in);
+
+      if (done < 0 || done > rounds)
+        throw new IOException ("Invalid round count in checkpoint!");
+    }
+
+  }
+
+  /**
+   * One shard of the EV estimation, which is run as a task on the pool.
+   */
+  private class EvShard implements Callable<EvShard>
+  {
+
+    /** Index of this shard.  */
+    private final int id;
+
+    /** Number of rounds to play.  */
+    private final long rounds;
+
+    /** RNG of this shard.  */
+    private final ShardRandom rng;
+
+    /** The shoe dealt from.  */
+    private final Shoe shoe;
+
+    /** Number of rounds per cell and first decision.  */
+    final long[] count;
+
+    /** Sum of round results per cell and first decision.  */
+    final double[] sum;
+
+    /**
+     * Construct it.
+     * @param i Index of this shard.
+     * @param r Number of rounds to play.
+     * @param seed Base seed of the simulation.
+     */
+    public EvShard (int i, long r, long seed)
+    {
+      id = i;
+      rounds = r;
+      rng = new ShardRandom (seed + i * 0x9E3779B97F4A7C15l);
+      shoe = new Shoe (decks, penetration, rng);
+      count = new long[Strategy.NUM_CELLS * DECISIONS.length];
+      sum = new double[count.length];
+    }
+
+    /**
+     * Play all rounds.
+     * @return This shard with its results.
+     */
+    public EvShard call ()
+    {
+      for (long n = 0; n < rounds; ++n)
+        {
+          if (shoe.needsShuffle ())
+            {
+              final Object t = tracer.begin (Tracer.Section.SHUFFLE);
+              shoe.shuffle ();
+              tracer.end (t, id, 0);
+            }
+
+          final Object t = tracer.begin (Tracer.Section.ROUND);
+          final Object p = tracer.begin (Tracer.Section.DEAL);
+          final Game g = deal (shoe);
+          tracer.end (p, id, 0);
+          if (!g.isRunning ())
+            {
+              /* A blackjack, there is nothing to decide.  */
+              playRound (g, shoe, null, null, null, id);
+              tracer.end (t, id, 1);
+              continue;
+            }
+
+          final int cell = Strategy.getCell (g);
+          final Strategy.Decision d = pickRandom (g, true, null, rng);
+          final int i = cell * DECISIONS.length + d.ordinal ();
+          final double res = playRound (g, shoe, d, rng, null, id);
+          final Object q = tracer.begin (Tracer.Section.RECORD);
+          ++count[i];
+          sum[i] += res;
+          tracer.end (q, id, 0);
+          tracer.end (t, id, 1);
+        }
+
+      return this;
+    }
+
+  }
+
+  /**
+   * Results of comparing two strategies on the same cards.  The difference
+   * is that of the second strategy's result minus the first one's.
+   */
+  public static class Comparison
+  {
+
+    /** Results of the first strategy.  */
+    public final CellStats first = new CellStats ();
+
+    /** Results of the second strategy.  */
+    public final CellStats second = new CellStats ();
+
+    /** Paired differences of the results.  */
+    public final CellStats difference = new CellStats ();
+
+    /**
+     * Merge another instance into this one.
+     * @param o The other results.
+     */
+    public void merge (Comparison o)
+    {
+      first.merge (o.first);
+      second.merge (o.second);
+      difference.merge (o.difference);
+    }
+
+  }
+
+  /**
+   * One shard of a comparison, which is run as a task on the pool.
+   */
+  private class CompareShard implements Callable<CompareShard>
+  {
+
+    /** The simulator compared to.  */
+    private final Simulator other;
+
+    /** Index of this shard.  */
+    private final int id;
+
+    /** Number of rounds to play in total, raised for each batch.  */
+    long rounds;
+
+    /** Number of rounds already played.  */
+    private long done;
+
+    /** RNG for the mistakes of this simulator's player.  */
+    private final ShardRandom rng;
+
+    /** RNG for the mistakes of the other player, seeded the same.  */
+    private final ShardRandom otherRng;
+
+    /** The shoe dealt from.  */
+    private final Shoe shoe;
+
+    /** The shard's results.  */
+    final Comparison result;
+
+    /**
+     * Construct it.
+     * @param o The simulator compared to.
+     * @param i Index of this shard.
+     * @param r Number of rounds to play.
+     * @param seed Base seed of the simulation.
+     */
+    public CompareShard (Simulator o, int i, long r, long seed)
+    {
+      other = o;
+      id = i;
+      rounds = r;
+      final long shardSeed = seed + i * 0x9E3779B97F4A7C15l;
+      rng = new ShardRandom (~shardSeed);
+      otherRng = new ShardRandom (~shardSeed);
+      shoe = new Shoe (decks, penetration, new ShardRandom (shardSeed));
+      result = new Comparison ();
+      done = 0;
+    }
+
+    /**
+     * Play all rounds.
+     * @return This shard with its results.
+     */
+    public CompareShard call ()
+    {
+      for (; done < rounds; ++done)
+        {
+          if (shoe.needsShuffle ())
+            {
+              final Object t = tracer.begin (Tracer.Section.SHUFFLE);
+              shoe.shuffle ();
+              tracer.end (t, id, 0);
+            }
+
+          /* The round is played by both strategies, but traced once.  */
+          final Object t = tracer.begin (Tracer.Section.ROUND);
+          final float trueCount = shoe.getTrueCount ();
+          final int start = shoe.getPosition ();
+          Object p = tracer.begin (Tracer.Section.DEAL);
+          final Game g = deal (shoe);
+          tracer.end (p, id, 0);
+          final int cell = Strategy.getCell (g);
+          final double a = playRound (g, shoe, null, rng, null, id);
+
+          final int end = shoe.getPosition ();
+          shoe.seek (start);
+          p = tracer.begin (Tracer.Section.DEAL);
+          final Game h = other.deal (shoe);
+          tracer.end (p, id, 0);
+          final double b = other.playRound (h, shoe, null, otherRng, null,
+                                            id);
+          shoe.seek (end);
+
+          p = tracer.begin (Tracer.Section.RECORD);
+          result.first.add (cell, trueCount, a);
+          result.second.add (cell, trueCount, b);
+          result.difference.add (cell, trueCount, b - a);
+          tracer.end (p, id, 0);
+          tracer.end (t, id, 1);
+        }
+
+      return this;
+    }
+
+  }
+
+  /**
+   * Load a strategy from XML files outside of Android.
+   * @param base The full strategy.
+   * @param overlay If not null, entries that overwrite the base strategy.
+   * @return The loaded strategy.
+   * @throws IOException If reading the files fails.
+   * @throws RuntimeException If the XML is invalid.
+   */
+  public static Strategy loadStrategy (File base, File overlay)
+    throws IOException
+  {
+    final StrategyVariants v = loadVariants (base);
+    if (overlay == null)
+      return v.get ();
+
+    v.addLayer (loadLayer ("overlay", overlay));
+    return v.get ("overlay");
+  }
+
+  /**
+   * Load a base strategy from an XML file outside of Android, to build
+   * variants of it.
+   * @param base The full strategy.
+   * @return The variants, with no layers yet.
+   * @throws IOException If reading the file fails.
+   * @throws RuntimeException If the XML is invalid.
+   */
+  public static StrategyVariants loadVariants (File base)
+    throws IOException
+  {
+    final Strategy res = new Strategy ();
+    parseStrategy (res, null, base);
+    return new StrategyVariants (res);
+  }
+
+  /**
+   * Load a strategy layer from an XML file outside of Android.
+   * @param name Name of the layer.
+   * @param f The file to parse.
+   * @return The layer.
+   * @throws IOException If reading the file fails.
+   * @throws RuntimeException If the XML is invalid.
+   */
+  public static StrategyLayer loadLayer (String name, File f)
+    throws IOException
+  {
+    return parseStrategy (null, name, f);
+  }
+
+  /**
+   * Parse an XML file either as full strategy or as layer.
+   * @param s The strategy to fill, or null to parse a layer.
+   * @param name Name of the layer if one is parsed.
+   * @param f The file to parse.
+   * @return The layer parsed or null.
+   * @throws IOException If reading the file fails.
+   * @throws RuntimeException If the XML is invalid.
+   */
+  private static StrategyLayer parseStrategy (Strategy s, String name,
+                                              File f)
+    throws IOException
+  {
+    final InputStream in = new FileInputStream (f);
+    try
+      {
+        final XmlPullParser p = newParser (in);
+        if (s == null)
+          return StrategyLayer.parse (name, p);
+        s.fill (p, false);
+        return null;
+      }
+    finally
+      {
+        in.close ();
+      }
+  }
+
+  /**
+   * Load index plays from an XML file outside of Android.
+   * @param base The basic strategy the deviations are from.
+   * @param f The file to parse.
+   * @return The deviations.
+   * @throws IOException If reading the file fails.
+   * @throws RuntimeException If the XML is invalid.
+   */
+  public static DeviationBank loadDeviations (Strategy base, File f)
+    throws IOException
+  {
+    final InputStream in = new FileInputStream (f);
+    try
+      {
+        final DeviationBank res = new DeviationBank (base);
+        res.fill (newParser (in));
+        return res;
+      }
+    finally
+      {
+        in.close ();
+      }
+  }
+
+  /**
+   * Load a variant of the strategy given on the command line.
+   * @param files The strategy files, with the H17 overlay if given.
+   * @param overlay The variant's overlay.
+   * @return The variant.
+   * @throws IOException If reading the files fails.
+   * @throws RuntimeException If the XML is invalid.
+   */
+  private static Strategy loadVariant (List<File> files, File overlay)
+    throws IOException
+  {
+    final StrategyVariants v = loadVariants (files.get (0));
+    v.addLayer (loadLayer ("variant", overlay));
+    if (files.size () < 2)
+      return v.get ("variant");
+
+    v.addLayer (loadLayer ("h17", files.get (1)));
+    return v.get ("h17", "variant");
+  }
+
+  /**
+   * Create a namespace-aware XML parser.
+   * @param in Stream to parse.
+   * @return The parser.
+   * @throws RuntimeException If creating the parser fails.
+   */
+  private static XmlPullParser newParser (InputStream in)
+  {
+    try
+      {
+        final XmlPullParserFactory factory
+          = XmlPullParserFactory.newInstance ();
+        factory.setNamespaceAware (true);
+        final XmlPullParser p = factory.newPullParser ();
+        p.setInput (in, null);
+        return p;
+      }
+    catch (XmlPullParserException exc)
+      {
+        throw new RuntimeException ("Creating XML parser failed: "
+                                    + exc.getMessage ());
+      }
+  }
+
+  /**
+   * Print usage information and exit.
+   */
+  private static void usage ()
+  {
+    System.err.println ("Usage: Simulator [OPTIONS] STRATEGY.xml [H17.xml]");
+    System.err.println ("  -rounds N       rounds per shard (1000000)");
+    System.err.println ("  -shards N       number of shards (threads)");
+    System.err.println ("  -threads N      worker threads (all cores)");
+    System.err.println ("  -decks N        decks in the shoe (6)");
+    System.err.println ("  -penetration F  dealt before shuffle (0.75)");
+    System.err.println ("  -seed N         base RNG seed (0)");
+    System.err.println ("  -store FILE     merge results into result store");
+    System.err.println ("  -report         only report on the result store");
+    System.err.println ("  -checkpoint DIR checkpoint to and resume from DIR");
+    System.err.println ("  -interval S     seconds between checkpoints (5)");
+    System.err.println ("  -mistakes P     chance of a random wrong decision");
+    System.err.println ("  -ev FILE        EV table to price mistakes with");
+    System.err.println ("  -evtable FILE   only estimate EV table into FILE");
+    System.err.println ("  -deviations F   play index plays from F by count");
+    System.err.println ("  -compare F      paired EV difference to overlay F");
+    System.err.println ("  -variant F      also play strategy with overlay F");
+    System.err.println ("  -variant-deviations F");
+    System.err.println ("                  also play index plays from F");
+    System.err.println ("  -precision P    stop at 95% interval +- P percent");
+    System.err.println ("  -batch N        rounds per shard between checks");
+    System.err.println ("  -profile        print time and allocation per"
+                        + " phase");
+    System.err.println ("With H17.xml given, the dealer hits soft 17.");
+    System.err.println ("Variants can not be combined with -compare,"
+                        + " -evtable, -mistakes, -ev,");
+    System.err.println ("-precision, -store, -checkpoint or -profile.");
+    System.err.println ("Flight recordings get events of the simulation.");
+    System.exit (1);
+  }
+
+  /**
+   * Print the overall result.
+   * @param rounds Number of rounds.
+   * @param sum Sum of round results.
+   * @param sumSq Sum of squared round results.
+   */
+  private static void printResult (long rounds, double sum, double sumSq)
+  {
+    final double mean = sum / rounds;
+    final double var = sumSq / rounds - mean * mean;
+    final double se = Math.sqrt (var / rounds);
+
+    System.out.printf ("Rounds:         %d%n", rounds);
+    System.out.printf ("Player EV:      %+.4f%% +- %.4f%%%n",
+                       100.0 * mean, 100.0 * se);
+    System.out.printf ("Std deviation:  %.4f%n", Math.sqrt (var));
+  }
+
+  /**
+   * Print the result of a comparison.  Next to the paired confidence
+   * interval, the variance that independent runs would have is shown,
+   * whose ratio to the paired one is the factor of rounds saved.
+   * @param c The comparison.
+   */
+  private static void printComparison (Comparison c)
+  {
+    final long rounds = c.difference.getRounds ();
+    final double[] var = new double[3];
+    final double[] mean = new double[3];
+    final CellStats[] stats = {c.first, c.second, c.difference};
+    for (int i = 0; i < stats.length; ++i)
+      {
+        mean[i] = stats[i].getSum () / rounds;
+        var[i] = stats[i].getSumSquares () / rounds - mean[i] * mean[i];
+      }
+    final double se = Math.sqrt (var[2] / rounds);
+
+    System.out.printf ("Rounds:         %d%n", rounds);
+    System.out.printf ("First EV:       %+.4f%%%n", 100.0 * mean[0]);
+    System.out.printf ("Second EV:      %+.4f%%%n", 100.0 * mean[1]);
+    System.out.printf ("Difference:     %+.4f%% +- %.4f%% (95%%)%n",
+                       100.0 * mean[2], 100.0 * Z_95 * se);
+    if (var[2] > 0.0)
+      System.out.printf ("Variance ratio: %.1f against independent runs%n",
+                         (var[0] + var[1]) / var[2]);
+    else
+      System.out.println ("Both strategies played identically.");
+  }
+
+  /**
+   * Print the results of all variants, with their differences to the
+   * first one.
+   * @param names Names of the variants.
+   * @param r The results.
+   */
+  private static void printVariants (String[] names,
+                                     VariantSimulator.Results r)
+  {
+    final long rounds = r.results[0].getRounds ();
+    System.out.printf ("Rounds:         %d%n", rounds);
+    System.out.println ("Variant                         EV     Difference");
+    for (int i = 0; i < names.length; ++i)
+      {
+        final double mean = r.results[i].getSum () / rounds;
+        final CellStats d = r.differences[i];
+        final double diff = d.getSum () / rounds;
+        final double var = d.getSumSquares () / rounds - diff * diff;
+        System.out.printf ("%-24s %+8.4f%% %+8.4f%% +- %.4f%%%n", names[i],
+                           100.0 * mean, 100.0 * diff,
+                           100.0 * Z_95 * Math.sqrt (var / rounds));
+      }
+  }
+
+  /**
+   * Print a summary of the player's decisions.
+   * @param d The recorded decisions.
+   * @param rounds Number of rounds played.
+   */
+  private static void printDecisions (DecisionStats d, long rounds)
+  {
+    System.out.printf ("Decisions:      %d%n", d.getTotal (-1));
+    System.out.printf ("Wrong:          %.3f%%%n",
+                       100.0 * d.getErrorRate (-1));
+    System.out.printf ("EV lost:        %.4f%% per round%n",
+                       100.0 * d.getEvLost (-1) / rounds);
+  }
+
+  /**
+   * Print the time and memory allocated per phase.  The measured phases
+   * are extrapolated to all of them, and the rest of the rounds' time
+   * (like hits and splits) is shown as "other".  Since the phases in
+   * rounds are measured in different rounds, this is an estimate which
+   * may even be negative for short runs.
+   * @param p The profile.
+   */
+  private static void printProfile (ProfileTracer p)
+  {
+    final long sampled = p.getCount (Tracer.Section.ROUND);
+    System.out.printf ("Profile:        1 in %d rounds measured after %d"
+                       + " per shard%n", ProfileTracer.SAMPLE_RATE,
+                       ProfileTracer.WARMUP_ROUNDS);
+    if (sampled == 0)
+      {
+        System.out.println ("Too few rounds to profile.");
+        return;
+      }
+
+    final Tracer.Section[] nested = {Tracer.Section.DEAL,
+                                     Tracer.Section.LOOKUP,
+                                     Tracer.Section.DEALER,
+                                     Tracer.Section.RECORD};
+    double otherNanos = getTotalNanos (p, Tracer.Section.ROUND);
+    double otherBytes = getTotalBytes (p, Tracer.Section.ROUND);
+    for (final Tracer.Section s : nested)
+      {
+        otherNanos -= getTotalNanos (p, s);
+        otherBytes -= getTotalBytes (p, s);
+      }
+
+    final double total = getTotalNanos (p, Tracer.Section.SHUFFLE)
+                         + getTotalNanos (p, Tracer.Section.ROUND)
+                         + getTotalNanos (p, Tracer.Section.MERGE);
+    final long rounds = p.getBegun (Tracer.Section.ROUND);
+
+    System.out.println ("Phase                  Count   Total ms   Share"
+                        + "    ns each     B each");
+    printPhase (p, Tracer.Section.SHUFFLE, "", total);
+    printPhase (p, Tracer.Section.ROUND, "", total);
+    for (final Tracer.Section s : nested)
+      printPhase (p, s, "  ", total);
+    printPhase ("  Other", rounds, otherNanos, otherNanos / rounds,
+                otherBytes / rounds, total, p.hasAllocation ());
+    printPhase (p, Tracer.Section.MERGE, "", total);
+
+    long dropped = 0;
+    for (final Tracer.Section s : Tracer.Section.values ())
+      dropped += p.getDropped (s);
+    System.out.printf ("Dropped %d interrupted measurements.%n", dropped);
+  }
+
+  /**
+   * Extrapolate the time of a section from the measured ones to all.
+   * @param p The profile.
+   * @param s The section.
+   * @return Estimated total time in nanoseconds.
+   */
+  private static double getTotalNanos (ProfileTracer p, Tracer.Section s)
+  {
+    final long n = p.getCount (s);
+    if (n == 0)
+      return 0.0;
+    return (double) p.getNanos (s) * p.getBegun (s) / n;
+  }
+
+  /**
+   * Extrapolate the allocation of a section from the measured ones to all.
+   * @param p The profile.
+   * @param s The section.
+   * @return Estimated total allocation in bytes.
+   */
+  private static double getTotalBytes (ProfileTracer p, Tracer.Section s)
+  {
+    final long n = p.getCount (s);
+    if (n == 0)
+      return 0.0;
+    return (double) p.getBytes (s) * p.getBegun (s) / n;
+  }
+
+  /**
+   * Print a line of the profile for a section.
+   * @param p The profile.
+   * @param s The section.
+   * @param indent Indentation of the name.
+   * @param total Total time of all phases in nanoseconds.
+   */
+  private static void printPhase (ProfileTracer p, Tracer.Section s,
+                                  String indent, double total)
+  {
+    final long n = p.getCount (s);
+    printPhase (indent + s.label, p.getBegun (s), getTotalNanos (p, s),
+                n > 0 ? (double) p.getNanos (s) / n : 0.0,
+                n > 0 ? (double) p.getBytes (s) / n : 0.0, total,
+                p.hasAllocation ());
+  }
+
+  /**
+   * Print a line of the profile.
+   * @param name Name of the phase.
+   * @param count Number of times the phase ran.
+   * @param nanos Estimated total time in nanoseconds.
+   * @param each Time per run in nanoseconds.
+   * @param bytes Memory allocated per run.
+   * @param total Total time of all phases in nanoseconds.
+   * @param alloc Whether the allocated memory is known.
+   */
+  private static void printPhase (String name, long count, double nanos,
+                                  double each, double bytes, double total,
+                                  boolean alloc)
+  {
+    System.out.printf ("%-18s %10d %10.1f %6.1f%% %10.1f", name, count,
+                       nanos / 1e6, 100.0 * nanos / total, each);
+    if (alloc)
+      System.out.printf (" %10.1f%n", bytes);
+    else
+      System.out.printf ("          -%n");
+  }
+
+  /**
+   * Print the results stored per true count.
+   * @param store The result store.
+   */
+  private static void printReport (ResultStore store)
+  {
+    long rounds = 0;
+    double sum = 0.0, sumSq = 0.0;
+
+    System.out.println ("True count     Rounds       EV");
+    for (int b = 0; b < CellStats.COUNT_BUCKETS; ++b)
+      {
+        long n = 0;
+        double s = 0.0;
+        for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+          {
+            n += store.getCount (c, b);
+            s += store.getSum (c, b);
+            sumSq += store.getSumSquares (c, b);
+          }
+        if (n == 0)
+          continue;
+
+        System.out.printf ("%+10d %10d %+8.3f%%%n", b - CellStats.MAX_COUNT,
+                           n, 100.0 * s / n);
+        rounds += n;
+        sum += s;
+      }
+
+    if (rounds > 0)
+      printResult (rounds, sum, sumSq);
+  }
+
+  /**
+   * Run the simulator from the command line.
+   * @param args Command-line arguments.
+   * @throws IOException If reading strategy or store fails.
+   */
+  public static void main (String[] args)
+    throws IOException
+  {
+    long rounds = 1000000;
+    int threads = Runtime.getRuntime ().availableProcessors ();
+    int shards = -1;
+    int decks = 6;
+    float penetration = 0.75f;
+    long seed = 0;
+    File storeFile = null;
+    File checkpointDir = null;
+    long interval = 5;
+    float mistakes = 0.0f;
+    File evFile = null;
+    File evTableFile = null;
+    File deviationFile = null;
+    File compareFile = null;
+    final List<File> variantFiles = new ArrayList<File> ();
+    final List<Boolean> variantDeviations = new ArrayList<Boolean> ();
+    double precision = 0.0;
+    long batch = 100000;
+    boolean report = false;
+    boolean profile = false;
+    final List<File> files = new ArrayList<File> ();
+
+    for (int i = 0; i < args.length; ++i)
+      {
+        final String a = args[i];
+        final boolean hasValue = (i + 1 < args.length);
+        if (a.equals ("-report"))
+          report = true;
+        else if (a.equals ("-profile"))
+          profile = true;
+        else if (!a.startsWith ("-"))
+          files.add (new File (a));
+        else if (!hasValue)
+          usage ();
+        else if (a.equals ("-rounds"))
+          rounds = Long.parseLong (args[++i]);
+        else if (a.equals ("-shards"))
+          shards = Integer.parseInt (args[++i]);
+        else if (a.equals ("-threads"))
+          threads = Integer.parseInt (args[++i]);
+        else if (a.equals ("-decks"))
+          decks = Integer.parseInt (args[++i]);
+        else if (a.equals ("-penetration"))
+          penetration = Float.parseFloat (args[++i]);
+        else if (a.equals ("-seed"))
+          seed = Long.parseLong (args[++i]);
+        else if (a.equals ("-store"))
+          storeFile = new File (args[++i]);
+        else if (a.equals ("-checkpoint"))
+          checkpointDir = new File (args[++i]);
+        else if (a.equals ("-interval"))
+          interval = Long.parseLong (args[++i]);
+        else if (a.equals ("-mistakes"))
+          mistakes = Float.parseFloat (args[++i]);
+        else if (a.equals ("-ev"))
+          evFile = new File (args[++i]);
+        else if (a.equals ("-evtable"))
+          evTableFile = new File (args[++i]);
+        else if (a.equals ("-deviations"))
+          deviationFile = new File (args[++i]);
+        else if (a.equals ("-compare"))
+          compareFile = new File (args[++i]);
+        else if (a.equals ("-variant") || a.equals ("-variant-deviations"))
+          {
+            variantFiles.add (new File (args[++i]));
+            variantDeviations.add (a.equals ("-variant-deviations"));
+          }
+        else if (a.equals ("-precision"))
+          precision = Double.parseDouble (args[++i]) / 100.0;
+        else if (a.equals ("-batch"))
+          batch = Long.parseLong (args[++i]);
+        else
+          usage ();
+      }
+    if (shards < 0)
+      shards = threads;
+
+    /* Variants are played by VariantSimulator, which supports none of
+       these.  */
+    if (!variantFiles.isEmpty ()
+        && (compareFile != null || evTableFile != null || mistakes > 0.0f
+            || evFile != null || precision > 0.0 || storeFile != null
+            || checkpointDir != null || profile))
+      usage ();
+
+    if (report)
+      {
+        if (storeFile == null)
+          usage ();
+        final ResultStore store = new ResultStore (storeFile);
+        printReport (store);
+        store.close ();
+        return;
+      }
+
+    if (files.isEmpty () || files.size () > 2)
+      usage ();
+    final boolean h17 = (files.size () == 2);
+    final Strategy strategy
+      = loadStrategy (files.get (0), h17 ? files.get (1) : null);
+
+    /* The events are only created while a flight recording is running,
+       started for instance with -XX:StartFlightRecording or jcmd.  */
+    final ProfileTracer profiler = (profile ? new ProfileTracer () : null);
+    final Tracer tracer = (profile ? profiler : JfrTracer.create ());
+
+    final Simulator sim = new Simulator (strategy, h17, decks, penetration);
+    sim.setTracer (tracer);
+    if (deviationFile != null)
+      sim.setDeviations (loadDeviations (strategy, deviationFile));
+    if (evTableFile != null)
+      {
+        final EvTable table = sim.estimateEv (shards, rounds, seed, threads);
+        if (profiler != null)
+          printProfile (profiler);
+        final DataOutputStream out
+          = new DataOutputStream (new FileOutputStream (evTableFile));
+        try
+          {
+            table.write (out);
+          }
+        finally
+          {
+            out.close ();
+          }
+        return;
+      }
+
+    EvTable ev = null;
+    if (evFile != null)
+      {
+        final DataInputStream in
+          = new DataInputStream (new FileInputStream (evFile));
+        try
+          {
+            ev = EvTable.read (in);
+          }
+        finally
+          {
+            in.close ();
+          }
+      }
+    sim.setPlayer (mistakes, ev);
+    sim.setStopping (precision, batch);
+
+    if (compareFile != null)
+      {
+        /* The other strategy plays without index plays.  */
+        final Strategy s = loadVariant (files, compareFile);
+        final Simulator other = new Simulator (s, h17, decks, penetration);
+        other.setTracer (tracer);
+        other.setPlayer (mistakes, ev);
+        other.setStopping (precision, batch);
+        printComparison (sim.compare (other, shards, rounds, seed, threads));
+        if (profiler != null)
+          printProfile (profiler);
+        return;
+      }
+
+    if (!variantFiles.isEmpty ())
+      {
+        final Simulator[] variants = new Simulator[variantFiles.size () + 1];
+        final String[] names = new String[variants.length];
+        variants[0] = sim;
+        names[0] = files.get (0).getName ();
+        if (deviationFile != null)
+          names[0] += " + " + deviationFile.getName ();
+        for (int i = 1; i < variants.length; ++i)
+          {
+            final File f = variantFiles.get (i - 1);
+            names[i] = f.getName ();
+            if (variantDeviations.get (i - 1))
+              {
+                variants[i] = new Simulator (strategy, h17, decks,
+                                             penetration);
+                variants[i].setDeviations (loadDeviations (strategy, f));
+              }
+            else
+              variants[i] = new Simulator (loadVariant (files, f), h17,
+                                           decks, penetration);
+          }
+
+        final VariantSimulator vs
+          = new VariantSimulator (variants, decks, penetration);
+        printVariants (names, vs.run (shards, rounds, seed, threads));
+        return;
+      }
+
+    ResultStore store = null;
+    if (storeFile != null)
+      store = new ResultStore (storeFile);
+    Checkpointer ckpt = null;
+    if (checkpointDir != null)
+      ckpt = new Checkpointer (checkpointDir, 1000 * interval,
+                               sim.getFingerprint (rounds, seed));
+
+    DecisionStats decisions = null;
+    if (mistakes > 0.0f || ev != null)
+      decisions = new DecisionStats ();
+
+    final CellStats res = sim.run (shards, rounds, seed, threads, store, ckpt,
+                                   decisions);
+    printResult (res.getRounds (), res.getSum (), res.getSumSquares ());
+    if (decisions != null)
+      printDecisions (decisions, res.getRounds ());
+    if (profiler != null)
+      printProfile (profiler);
+
+    if (store != null)
+      store.close ();
+  }
+
+}
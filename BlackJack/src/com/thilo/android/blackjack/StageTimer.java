@@ -0,0 +1,68 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import android.util.Log;
+
+/**
+ * Logs the time taken by the stages of a process like the startup, each
+ * as time since the start and since the previous stage.  Stages may be
+ * marked from any thread.
+ */
+public class StageTimer
+{
+
+  /** Log tag for the timings.  */
+  private final String tag;
+
+  /** Name of the process timed.  */
+  private final String name;
+
+  /** System.nanoTime() at the start.  */
+  private final long start;
+  /** System.nanoTime() at the previous stage.  */
+  private long last;
+
+  /**
+   * Construct it, which starts the timing.
+   * @param t Log tag to use.
+   * @param n Name of the process timed.
+   */
+  public StageTimer (String t, String n)
+  {
+    tag = t;
+    name = n;
+    start = System.nanoTime ();
+    last = start;
+  }
+
+  /**
+   * Mark the end of a stage.
+   * @param stage Name of the stage.
+   */
+  public synchronized void mark (String stage)
+  {
+    final long now = System.nanoTime ();
+    Log.i (tag, String.format ("%s: %s after %d ms (+%d ms).", name, stage,
+                               (now - start) / 1000000,
+                               (now - last) / 1000000));
+    last = now;
+  }
+
+}
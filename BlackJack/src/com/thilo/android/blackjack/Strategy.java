@@ -25,7 +25,10 @@ import org.xmlpull.v1.XmlPullParserException;
 
 /**
  * A playing strategy, given as matrix with optimal decisions based
- * on player total and dealer card.
+ * on player total and dealer card.  Variants of a strategy are built by
+ * copying it and applying sparse layers of changed cells.
+ * @see StrategyLayer
+ * @see StrategyVariants
  */
 public class Strategy
 {
@@ -71,6 +74,35 @@ public class Strategy
     DOUBLE
   }
 
+  /** First player total in the hard matrix.  */
+  public static final int HARD_FROM = 5;
+  /** Last player total in the hard matrix.  */
+  public static final int HARD_TO = 21;
+  /** First player total in the soft matrix.  */
+  public static final int SOFT_FROM = 13;
+  /** Last player total in the soft matrix.  */
+  public static final int SOFT_TO = 21;
+  /** First pair card value in the pair matrix.  */
+  public static final int PAIR_FROM = 2;
+  /** Last pair card value in the pair matrix.  */
+  public static final int PAIR_TO = 11;
+
+  /** Number of dealer card values (2 to ace) in each row.  */
+  public static final int DEALER_VALUES = 10;
+
+  /** First row number of the soft matrix in the cell numbering.  */
+  private static final int SOFT_ROW = HARD_TO - HARD_FROM + 1;
+  /** First row number of the pair matrix in the cell numbering.  */
+  private static final int PAIR_ROW = SOFT_ROW + SOFT_TO - SOFT_FROM + 1;
+
+  /**
+   * Number of strategy cells.  Cells are numbered consecutively through
+   * the hard, soft and pair matrices, row by row with the dealer card
+   * running fastest.  This gives a compact index for per-cell data.
+   */
+  public static final int NUM_CELLS
+    = (PAIR_ROW + PAIR_TO - PAIR_FROM + 1) * DEALER_VALUES;
+
   /* For simplicity, we store entries without translating the index, thus
      keeping some entries empty.  First index always represents the player's
      cards, and the second index the dealer's card.
@@ -98,6 +130,47 @@ public class Strategy
     nanMatrix (pair);
   }
 
+  /**
+   * Construct a copy of another strategy.
+   * @param base The strategy to copy.
+   */
+  public Strategy (Strategy base)
+  {
+    hard = copyMatrix (base.hard);
+    soft = copyMatrix (base.soft);
+    pair = copyMatrix (base.pair);
+  }
+
+  /**
+   * Apply a layer, overwriting the cells it contains.
+   * @param l The layer.
+   * @throws RuntimeException If a cell of the layer is still empty.
+   */
+  public void apply (StrategyLayer l)
+  {
+    for (int i = 0; i < l.size (); ++i)
+      {
+        final int cell = l.getCell (i);
+        final MatrixEntry[] row
+          = getMatrix (getCellMatrix (cell))[getCellPlayer (cell)];
+        final int dealer = getCellDealer (cell);
+        if (row[dealer] == MatrixEntry.NAN)
+          throw new RuntimeException ("Overwriting still empty cell!");
+        row[dealer] = l.getEntry (i);
+      }
+  }
+
+  /**
+   * Get the entry of a cell.
+   * @param cell The cell number.
+   * @return The entry, NAN if it is empty.
+   */
+  public MatrixEntry getEntry (int cell)
+  {
+    final MatrixEntry[][] m = getMatrix (getCellMatrix (cell));
+    return m[getCellPlayer (cell)][getCellDealer (cell)];
+  }
+
   /**
    * Given a player and dealer hand, decide what to do.
    * @param g The current game.
@@ -105,13 +178,26 @@ public class Strategy
    * @throws RuntimeException If the strategy has no entry.
    */
   public Decision decide (Game g)
+  {
+    return decide (g, true);
+  }
+
+  /**
+   * Given a player and dealer hand, decide what to do.  If splitting is
+   * not allowed (for instance because the maximum number of hands is
+   * reached in a simulation), pairs are played by their total instead.
+   * @param g The current game.
+   * @param allowSplit Whether pairs may be split.
+   * @return Playing decision according to the strategy.
+   * @throws RuntimeException If the strategy has no entry.
+   */
+  public Decision decide (Game g, boolean allowSplit)
   {
     final Hand player = g.getPlayerHand ();
-    final Hand dealer = g.getDealerHand ();
-    final byte dealerTotal = dealer.getTotal ();
+    final byte dealerTotal = getUpCard (g);
 
     MatrixEntry entry;
-    if (player.isPair ())
+    if (allowSplit && player.isPair ())
       {
         final byte pairValue = player.getPairValue ();
         entry = pair[pairValue][dealerTotal];
@@ -123,8 +209,26 @@ public class Strategy
           entry = soft[playerTotal][dealerTotal];
         else
           entry = hard[playerTotal][dealerTotal];
+
+        /* The only totals outside of the matrices are those of the pairs
+           2-2 and A-A, which are always hit when not split.  */
+        if (entry == MatrixEntry.NAN && player.isPair ())
+          return Decision.HIT;
       }
 
+    return resolve (entry, player);
+  }
+
+  /**
+   * Resolve a matrix entry to the decision for a hand, which means
+   * resolving double vs hit/stand.
+   * @param entry The entry.
+   * @param player The player's hand.
+   * @return The decision.
+   * @throws RuntimeException If the entry is NAN.
+   */
+  static Decision resolve (MatrixEntry entry, Hand player)
+  {
     switch (entry)
       {
         case NAN:
@@ -157,6 +261,145 @@ public class Strategy
     return Decision.STAND;
   }
 
+  /**
+   * Find the strategy cell that applies to a game.  This is the cell
+   * that decide() looks up.
+   * @param g The game.
+   * @return The cell number.
+   */
+  public static int getCell (Game g)
+  {
+    final Hand player = g.getPlayerHand ();
+    final byte dealerTotal = getUpCard (g);
+
+    if (player.isPair ())
+      return getCell (Matrix.PAIR, player.getPairValue (), dealerTotal);
+    if (player.isSoft ())
+      return getCell (Matrix.SOFT, player.getTotal (), dealerTotal);
+    return getCell (Matrix.HARD, player.getTotal (), dealerTotal);
+  }
+
+  /**
+   * Find the strategy cell that decide() looks up when splitting may not
+   * be allowed.
+   * @param g The game.
+   * @param allowSplit Whether pairs may be split.
+   * @return The cell number, or -1 for the unsplit pairs 2-2 and A-A,
+   *         which are outside of the matrices and always hit.
+   */
+  public static int getCell (Game g, boolean allowSplit)
+  {
+    final Hand player = g.getPlayerHand ();
+    if (allowSplit || !player.isPair ())
+      return getCell (g);
+
+    final byte total = player.getTotal ();
+    if (player.isSoft ())
+      {
+        if (total < SOFT_FROM)
+          return -1;
+        return getCell (Matrix.SOFT, total, getUpCard (g));
+      }
+    if (total < HARD_FROM)
+      return -1;
+    return getCell (Matrix.HARD, total, getUpCard (g));
+  }
+
+  /**
+   * Get the value of the dealer's up card.  This is the dealer total while
+   * the player decides, but split hands sharing the dealer's hand may be
+   * played after the dealer has already drawn for an earlier one.
+   * @param g The game.
+   * @return Value of the dealer's first card.
+   */
+  private static byte getUpCard (Game g)
+  {
+    return g.getDealerHand ().getCards ().get (0).getValue ();
+  }
+
+  /**
+   * Compute the number of a strategy cell.
+   * @param m The matrix.
+   * @param player Player index into the matrix.
+   * @param dealer Dealer card value.
+   * @return The cell number.
+   * @throws RuntimeException If the indices are out of range.
+   */
+  public static int getCell (Matrix m, int player, int dealer)
+  {
+    int row;
+    switch (m)
+      {
+        case HARD:
+          if (player < HARD_FROM || player > HARD_TO)
+            throw new RuntimeException ("Hard total out of range!");
+          row = player - HARD_FROM;
+          break;
+
+        case SOFT:
+          if (player < SOFT_FROM || player > SOFT_TO)
+            throw new RuntimeException ("Soft total out of range!");
+          row = SOFT_ROW + player - SOFT_FROM;
+          break;
+
+        case PAIR:
+          if (player < PAIR_FROM || player > PAIR_TO)
+            throw new RuntimeException ("Pair value out of range!");
+          row = PAIR_ROW + player - PAIR_FROM;
+          break;
+
+        default:
+          assert (false);
+          /* Silence compiler.  */
+          row = -1;
+      }
+
+    if (dealer < 2 || dealer > 11)
+      throw new RuntimeException ("Dealer value out of range!");
+
+    return row * DEALER_VALUES + dealer - 2;
+  }
+
+  /**
+   * Get the matrix of a cell.
+   * @param cell The cell number.
+   * @return The matrix it belongs to.
+   */
+  public static Matrix getCellMatrix (int cell)
+  {
+    final int row = cell / DEALER_VALUES;
+    if (row < SOFT_ROW)
+      return Matrix.HARD;
+    if (row < PAIR_ROW)
+      return Matrix.SOFT;
+    return Matrix.PAIR;
+  }
+
+  /**
+   * Get the player index of a cell.
+   * @param cell The cell number.
+   * @return Player total or pair value, as index into the matrix.
+   */
+  public static int getCellPlayer (int cell)
+  {
+    final int row = cell / DEALER_VALUES;
+    if (row < SOFT_ROW)
+      return HARD_FROM + row;
+    if (row < PAIR_ROW)
+      return SOFT_FROM + row - SOFT_ROW;
+    return PAIR_FROM + row - PAIR_ROW;
+  }
+
+  /**
+   * Get the dealer value of a cell.
+   * @param cell The cell number.
+   * @return Dealer card value, 2 to 11.
+   */
+  public static int getCellDealer (int cell)
+  {
+    return cell % DEALER_VALUES + 2;
+  }
+
   /**
    * Fill by parsing an XML file.
    * @param p The parser to use.
@@ -165,13 +408,33 @@ public class Strategy
    * @throws RuntimeException On error with the parsing.
    */
   public void fill (XmlPullParser p, boolean overwrite)
+  {
+    parse (p, overwrite);
+    if (!filledIn ())
+      throw new RuntimeException ("Matrix not fully filled in by XML!");
+  }
+
+  /**
+   * Parse an XML file into the matrices, which need not fill them in.
+   * @param p The parser to use.
+   * @param overwrite Only change the given entries by overwriting them.
+   * @throws RuntimeException On error with the parsing.
+   */
+  void parse (XmlPullParser p, boolean overwrite)
   {
     try
       {
         p.setFeature (XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
-        if (p.next () != XmlPullParser.START_DOCUMENT)
+
+        /* Android's resource parser reports the document start again on
+           the first next(), while plain pull parsers (as used by the
+           standalone simulator) go straight to the root element.  Thus
+           simply skip forward to the first tag.  */
+        if (p.getEventType () != XmlPullParser.START_DOCUMENT)
           throw new RuntimeException ("Expected document start event!");
-        p.nextTag ();
+        while (p.getEventType () != XmlPullParser.START_TAG)
+          if (p.next () == XmlPullParser.END_DOCUMENT)
+            throw new RuntimeException ("Expected strategy as root element!");
         if (!checkTag (p, "strategy"))
           throw new RuntimeException ("Expected strategy as root element!");
 
@@ -190,7 +453,7 @@ public class Strategy
           throw new RuntimeException ("Expected pair tag!");
         parseMatrix (p, pair, overwrite);
 
-        if (p.next () != XmlPullParser.END_TAG)
+        if (p.nextTag () != XmlPullParser.END_TAG)
           throw new RuntimeException ("Additional matrix-tags found!");
         if (p.next () != XmlPullParser.END_DOCUMENT)
           throw new RuntimeException ("Expected end of document!");
@@ -205,9 +468,6 @@ public class Strategy
         exc.printStackTrace ();
         throw new RuntimeException ("Reading XML failed: " + exc.getMessage ());
       }
-
-    if (!filledIn ())
-      throw new RuntimeException ("Matrix not fully filled in by XML!");
   }
 
   /**
@@ -240,11 +500,11 @@ public class Strategy
    */
   private boolean filledIn ()
   {
-    if (!filledIn (hard, 5, 21))
+    if (!filledIn (hard, HARD_FROM, HARD_TO))
       return false;
-    if (!filledIn (soft, 13, 21))
+    if (!filledIn (soft, SOFT_FROM, SOFT_TO))
       return false;
-    if (!filledIn (pair, 2, 11))
+    if (!filledIn (pair, PAIR_FROM, PAIR_TO))
       return false;
 
     return true;
@@ -261,6 +521,19 @@ public class Strategy
         m[i][j] = MatrixEntry.NAN;
   }
 
+  /**
+   * Helper routine to copy a matrix.
+   * @param m Matrix to copy.
+   * @return The copy.
+   */
+  private static MatrixEntry[][] copyMatrix (MatrixEntry[][] m)
+  {
+    final MatrixEntry[][] res = new MatrixEntry[m.length][];
+    for (int i = 0; i < m.length; ++i)
+      res[i] = m[i].clone ();
+    return res;
+  }
+
   /**
    * Helper routine checking whether a matrix is filled in properly.
    * @param m The matrix to check.
@@ -273,10 +546,7 @@ public class Strategy
     for (int i = from; i <= to; ++i)
       for (int j = 2; j <= 11; ++j)
         if (m[i][j] == MatrixEntry.NAN)
-          {
-          android.util.Log.d ("", i + " " + j);
           return false;
-          }
 
     return true;
   }
@@ -288,7 +558,7 @@ public class Strategy
    * @return True iff the current element is the one.
    * @throws RuntimeException If namespace does not match.
    */
-  private static boolean checkTag (XmlPullParser p, String el)
+  static boolean checkTag (XmlPullParser p, String el)
   {
     if (!p.getNamespace ().equals (NS))
       throw new RuntimeException ("Wrong namespace in strategy XML!");
@@ -325,20 +595,7 @@ public class Strategy
         final int[] playerBds = parseBounds (player);
         final int[] dealerBds = parseBounds (dealer);
 
-        final String action = p.nextText ();
-        MatrixEntry value;
-        if (action.equals ("H"))
-          value = MatrixEntry.HIT;
-        else if (action.equals ("S"))
-          value = MatrixEntry.STAND;
-        else if (action.equals ("SP"))
-          value = MatrixEntry.SPLIT;
-        else if (action.equals ("Dh"))
-          value = MatrixEntry.DOUBLE_HIT;
-        else if (action.equals ("Ds"))
-          value = MatrixEntry.DOUBLE_STAND;
-        else
-          throw new RuntimeException ("Invalid action: " + action);
+        final MatrixEntry value = parseEntry (p.nextText ());
 
         for (int i = playerBds[0]; i <= playerBds[1]; ++i)
           for (int j = dealerBds[0]; j <= dealerBds[1]; ++j)
@@ -356,6 +613,27 @@ public class Strategy
       }
   }
 
+  /**
+   * Parse an action as given in the XML file.
+   * @param action The action string.
+   * @return The matrix entry.
+   * @throws RuntimeException If the action is invalid.
+   */
+  static MatrixEntry parseEntry (String action)
+  {
+    if (action.equals ("H"))
+      return MatrixEntry.HIT;
+    if (action.equals ("S"))
+      return MatrixEntry.STAND;
+    if (action.equals ("SP"))
+      return MatrixEntry.SPLIT;
+    if (action.equals ("Dh"))
+      return MatrixEntry.DOUBLE_HIT;
+    if (action.equals ("Ds"))
+      return MatrixEntry.DOUBLE_STAND;
+    throw new RuntimeException ("Invalid action: " + action);
+  }
+
   /**
    * Parse bounds in the form given in the XML file.  Can be either a single
    * number, or of the form A-B.  Returned is a 2 element array with lower
@@ -0,0 +1,566 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import android.content.Context;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import android.util.AttributeSet;
+
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * View drawing the strategy chart, with the hard, soft and pair matrices.
+ * Consecutive player rows with the same decisions are collapsed into one.
+ * The chart only depends on the rule set, so it is built once off the UI
+ * thread and drawn once into a bitmap, which are kept for the lifetime
+ * of the process.  Cells where the
+ * user made wrong decisions in the trainer are framed on top of it, the
+ * darker the more often.
+ */
+public class StrategyChart extends View
+{
+
+  /** Minimum number of decisions for a cell to be framed.  */
+  private static final int HEAT_MIN_COUNT = 3;
+
+  /** Width of the label column in units of the cell width.  */
+  private static final float LABEL_WIDTH = 2.2f;
+  /** Height of a row in units of the cell width.  */
+  private static final float ROW_HEIGHT = 0.8f;
+
+  /** Background colour of hit cells.  */
+  private static final int COLOUR_HIT = 0xFF00FF00;
+  /** Background colour of stand cells.  */
+  private static final int COLOUR_STAND = 0xFFFF0000;
+  /** Background colour of split cells.  */
+  private static final int COLOUR_SPLIT = 0xFFFFFF00;
+  /** Background colour of double cells.  */
+  private static final int COLOUR_DOUBLE = 0xFF00FFFF;
+
+  /**
+   * A row of the chart.  This is either a header or a group of player
+   * rows with the same decisions.  Headers are a title across the chart,
+   * or a label followed by the dealer values or a title over them.
+   */
+  private static class Row
+  {
+
+    /** Label of the row, or title if this is a header.  */
+    public final String label;
+
+    /** Whether the dealer values are shown in this header.  */
+    public final boolean dealerHeader;
+    /** Title over the dealer columns in this header, or null.  */
+    public final String dealerTitle;
+
+    /** Matrix of the group, or null for headers.  */
+    public final Strategy.Matrix matrix;
+    /** Lowest player index in the group.  */
+    public final int low;
+    /** Highest player index in the group.  */
+    public final int high;
+    /** The group's decisions, indexed by dealer value.  */
+    public final Strategy.MatrixEntry[] entries;
+
+    /**
+     * Construct a header.
+     * @param l The title.
+     * @param d Whether to show the dealer values.
+     */
+    public Row (String l, boolean d)
+    {
+      label = l;
+      dealerHeader = d;
+      dealerTitle = null;
+      matrix = null;
+      low = high = -1;
+      entries = null;
+    }
+
+    /**
+     * Construct a header with a title over the dealer columns.
+     * @param l The label.
+     * @param t The title over the dealer columns.
+     */
+    public Row (String l, String t)
+    {
+      label = l;
+      dealerHeader = false;
+      dealerTitle = t;
+      matrix = null;
+      low = high = -1;
+      entries = null;
+    }
+
+    /**
+     * Construct a group.
+     * @param l The label.
+     * @param m The matrix.
+     * @param lo Lowest player index.
+     * @param hi Highest player index.
+     * @param e Decisions of the group.
+     */
+    public Row (String l, Strategy.Matrix m, int lo, int hi,
+                Strategy.MatrixEntry[] e)
+    {
+      label = l;
+      dealerHeader = false;
+      dealerTitle = null;
+      matrix = m;
+      low = lo;
+      high = hi;
+      entries = e;
+    }
+
+  }
+
+  /**
+   * The chart for one rule set, shared by all views.
+   */
+  private static class Sheet
+  {
+
+    /** The rows of the chart.  */
+    public final Row[] rows;
+
+    /** Chart drawn for the width below, or null.  */
+    public Bitmap bitmap;
+    /** Width the bitmap was drawn for.  */
+    public int width;
+
+    /**
+     * Construct it.
+     * @param r The rows.
+     */
+    public Sheet (Row[] r)
+    {
+      rows = r;
+      bitmap = null;
+      width = 0;
+    }
+
+  }
+
+  /** Sheets for S17 and H17, built by buildSheet.  */
+  private static final Sheet[] sheets = new Sheet[2];
+
+  /** Sheet shown, or null.  */
+  private Sheet sheet;
+
+  /** The user's decision statistics, or null.  */
+  private DecisionStats stats;
+
+  /** Paint for the heat frames.  */
+  private final Paint heatPaint;
+
+  /**
+   * Construct it.
+   * @param c The context.
+   * @param attrs Attributes from the layout.
+   */
+  public StrategyChart (Context c, AttributeSet attrs)
+  {
+    super (c, attrs);
+    sheet = null;
+    stats = null;
+
+    heatPaint = new Paint ();
+    heatPaint.setStyle (Paint.Style.STROKE);
+  }
+
+  /**
+   * Build the chart for a rule set if it was not built before.  This may
+   * load the strategy, so it must not be called on the UI thread.  The
+   * lock is not held while building, so that drawing is not blocked.
+   * @param c Context for the strategy and strings.
+   * @param h17 Whether the dealer hits soft 17.
+   */
+  public static void buildSheet (Context c, boolean h17)
+  {
+    final int ind = h17 ? 1 : 0;
+    synchronized (sheets)
+      {
+        if (sheets[ind] != null)
+          return;
+      }
+
+    final Sheet built = new Sheet (buildRows (c, h17));
+    synchronized (sheets)
+      {
+        if (sheets[ind] == null)
+          sheets[ind] = built;
+      }
+  }
+
+  /**
+   * Set the rule set to show.  Its chart must have been built with
+   * buildSheet before.
+   * @param h17 Whether the dealer hits soft 17.
+   */
+  public void setRules (boolean h17)
+  {
+    synchronized (sheets)
+      {
+        sheet = sheets[h17 ? 1 : 0];
+      }
+    if (sheet == null)
+      throw new RuntimeException ("Strategy chart is not built.");
+
+    requestLayout ();
+    invalidate ();
+  }
+
+  /**
+   * Set the statistics to frame the cells with.
+   * @param s The statistics or null.
+   */
+  public void setStats (DecisionStats s)
+  {
+    stats = s;
+    invalidate ();
+  }
+
+  /**
+   * Measure the view, which is as high as the chart for the width given.
+   * @param widthSpec Width specification.
+   * @param heightSpec Height specification.
+   */
+  @Override
+  protected void onMeasure (int widthSpec, int heightSpec)
+  {
+    final int w = MeasureSpec.getSize (widthSpec);
+    int h = 0;
+    if (sheet != null)
+      h = Math.round (sheet.rows.length * getRowHeight (w));
+    setMeasuredDimension (w, h);
+  }
+
+  /**
+   * Draw the chart from the cached bitmap, and the frames on top.
+   * @param screen Canvas to draw to.
+   */
+  @Override
+  protected void onDraw (Canvas screen)
+  {
+    if (sheet == null)
+      return;
+
+    final int w = getWidth ();
+    synchronized (sheets)
+      {
+        if (sheet.bitmap == null || sheet.width != w)
+          {
+            if (sheet.bitmap != null)
+              sheet.bitmap.recycle ();
+            sheet.bitmap = drawSheet (sheet.rows, w);
+            sheet.width = w;
+          }
+        screen.drawBitmap (sheet.bitmap, 0, 0, null);
+      }
+
+    if (stats != null)
+      drawHeat (screen, w);
+  }
+
+  /**
+   * Frame the cells according to the user's error rate in the strategy
+   * cells they cover.
+   * @param screen Canvas to draw to.
+   * @param w Width of the chart.
+   */
+  private void drawHeat (Canvas screen, int w)
+  {
+    final float cellW = getCellWidth (w);
+    final float rowH = getRowHeight (w);
+    final float frame = cellW / 12.0f;
+    heatPaint.setStrokeWidth (frame);
+
+    for (int r = 0; r < sheet.rows.length; ++r)
+      {
+        final Row row = sheet.rows[r];
+        if (row.matrix == null)
+          continue;
+
+        for (int d = 2; d <= 11; ++d)
+          {
+            long total = 0, errors = 0;
+            for (int p = row.low; p <= row.high; ++p)
+              {
+                final int cell = Strategy.getCell (row.matrix, p, d);
+                total += stats.getTotal (cell);
+                errors += stats.getErrors (cell);
+              }
+            if (total < HEAT_MIN_COUNT || errors == 0)
+              continue;
+
+            final float rate = (float) errors / total;
+            heatPaint.setColor (0xFF000000);
+            heatPaint.setAlpha (Math.round (255 * (0.2f + 0.8f * rate)));
+
+            final float left = getColumnLeft (w, d);
+            final float top = r * rowH;
+            screen.drawRect (left + frame, top + frame,
+                             left + cellW - frame, top + rowH - frame,
+                             heatPaint);
+          }
+      }
+  }
+
+  /**
+   * Draw the chart into a bitmap.
+   * @param rows The rows to draw.
+   * @param w Width of the chart.
+   * @return The bitmap.
+   */
+  private Bitmap drawSheet (Row[] rows, int w)
+  {
+    final float cellW = getCellWidth (w);
+    final float rowH = getRowHeight (w);
+    final Bitmap res = Bitmap.createBitmap (w,
+                                            Math.round (rows.length * rowH),
+                                            Bitmap.Config.RGB_565);
+    final Canvas c = new Canvas (res);
+    c.drawColor (0xFFFFFFFF);
+
+    final Paint fill = new Paint ();
+    final Paint line = new Paint ();
+    line.setStyle (Paint.Style.STROKE);
+    line.setColor (0xFF000000);
+    final Paint text = new Paint (Paint.ANTI_ALIAS_FLAG);
+    text.setTextAlign (Paint.Align.CENTER);
+    text.setColor (0xFF000000);
+    text.setTextSize (rowH / 2.0f);
+    final Paint title = new Paint (text);
+    title.setFakeBoldText (true);
+
+    final float labelRight = getColumnLeft (w, 2);
+    for (int r = 0; r < rows.length; ++r)
+      {
+        final Row row = rows[r];
+        final float top = r * rowH;
+        final float bottom = top + rowH;
+        final float baseline = top + (rowH - text.ascent ()
+                                      - text.descent ()) / 2.0f;
+
+        if (row.entries == null && !row.dealerHeader
+            && row.dealerTitle == null)
+          {
+            c.drawRect (0, top, w - 1, bottom, line);
+            c.drawText (row.label, w / 2.0f, baseline, title);
+            continue;
+          }
+
+        c.drawRect (0, top, labelRight, bottom, line);
+        c.drawText (row.label, labelRight / 2.0f, baseline,
+                    row.entries == null ? title : text);
+
+        if (row.dealerTitle != null)
+          {
+            c.drawRect (labelRight, top, w - 1, bottom, line);
+            c.drawText (row.dealerTitle, (labelRight + w) / 2.0f, baseline,
+                        title);
+            continue;
+          }
+
+        for (int d = 2; d <= 11; ++d)
+          {
+            final float left = getColumnLeft (w, d);
+            final float right = left + cellW;
+            String content;
+            if (row.entries == null)
+              content = (d == 11 ? "A" : String.valueOf (d));
+            else
+              {
+                switch (row.entries[d])
+                  {
+                    case HIT:
+                      fill.setColor (COLOUR_HIT);
+                      content = "H";
+                      break;
+
+                    case STAND:
+                      fill.setColor (COLOUR_STAND);
+                      content = "S";
+                      break;
+
+                    case SPLIT:
+                      fill.setColor (COLOUR_SPLIT);
+                      content = "SP";
+                      break;
+
+                    case DOUBLE_HIT:
+                      fill.setColor (COLOUR_DOUBLE);
+                      content = "Dh";
+                      break;
+
+                    case DOUBLE_STAND:
+                      fill.setColor (COLOUR_DOUBLE);
+                      content = "Ds";
+                      break;
+
+                    default:
+                      assert (false);
+                      content = "";
+                  }
+                c.drawRect (left, top, right, bottom, fill);
+              }
+
+            c.drawRect (left, top, right, bottom, line);
+            c.drawText (content, left + cellW / 2.0f, baseline,
+                        row.entries == null ? title : text);
+          }
+      }
+
+    return res;
+  }
+
+  /**
+   * Get the width of a decision cell.
+   * @param w Width of the chart.
+   * @return Width of a cell.
+   */
+  private static float getCellWidth (int w)
+  {
+    return (w - 1) / (LABEL_WIDTH + Strategy.DEALER_VALUES);
+  }
+
+  /**
+   * Get the height of a row.
+   * @param w Width of the chart.
+   * @return Height of a row.
+   */
+  private static float getRowHeight (int w)
+  {
+    return ROW_HEIGHT * getCellWidth (w);
+  }
+
+  /**
+   * Get the left edge of the column for a dealer value.
+   * @param w Width of the chart.
+   * @param d The dealer value.
+   * @return Left edge of the column.
+   */
+  private static float getColumnLeft (int w, int d)
+  {
+    return (LABEL_WIDTH + d - 2) * getCellWidth (w);
+  }
+
+  /**
+   * Build the rows of the chart for a rule set.
+   * @param c Context for the strategy and strings.
+   * @param h17 Whether the dealer hits soft 17.
+   * @return The rows.
+   */
+  private static Row[] buildRows (Context c, boolean h17)
+  {
+    final Strategy optimal
+      = StrategyResources.getOptimal (c.getResources (), h17);
+
+    final List<Row> rows = new ArrayList<Row> ();
+    rows.add (new Row ("", c.getString (R.string.chart_dealer_card)));
+    rows.add (new Row (c.getString (R.string.chart_player_hand), true));
+    buildMatrix (rows, c.getString (R.string.chart_hard), optimal,
+                 Strategy.Matrix.HARD, 5, 20);
+    buildMatrix (rows, c.getString (R.string.chart_soft), optimal,
+                 Strategy.Matrix.SOFT, 13, 20);
+    buildMatrix (rows, c.getString (R.string.chart_pairs), optimal,
+                 Strategy.Matrix.PAIR, 2, 11);
+
+    return rows.toArray (new Row[rows.size ()]);
+  }
+
+  /**
+   * Build the rows for one of the three matrices, collapsing consecutive
+   * player rows with the same decisions.
+   * @param rows Put the rows here.
+   * @param title Title of the matrix.
+   * @param optimal The strategy.
+   * @param mType Matrix type to show.
+   * @param from From this player index.
+   * @param to To this player index.
+   */
+  private static void buildMatrix (List<Row> rows, String title,
+                                   Strategy optimal, Strategy.Matrix mType,
+                                   int from, int to)
+  {
+    rows.add (new Row (title, false));
+    if (mType != Strategy.Matrix.HARD)
+      rows.add (new Row ("", true));
+
+    final Strategy.MatrixEntry[][] m = optimal.getMatrix (mType);
+    int high = to;
+    for (int i = to; i >= from; --i)
+      {
+        boolean last = (i == from);
+        if (!last)
+          for (int j = 2; j <= 11; ++j)
+            if (m[i - 1][j] != m[i][j])
+              {
+                last = true;
+                break;
+              }
+        if (!last)
+          continue;
+
+        String label = getLabel (mType, i);
+        if (i != high)
+          label = String.format ("%s-%s", label, getLabel (mType, high));
+        rows.add (new Row (label, mType, i, high, m[i]));
+        high = i - 1;
+      }
+  }
+
+  /**
+   * Get the label of a player index.
+   * @param mType Matrix type.
+   * @param i The player index.
+   * @return The label.
+   */
+  private static String getLabel (Strategy.Matrix mType, int i)
+  {
+    switch (mType)
+      {
+        case HARD:
+          return String.format ("%d", i);
+
+        case SOFT:
+          return String.format ("A,%d", i - 11);
+
+        case PAIR:
+          String val;
+          if (i == 11)
+            val = "A";
+          else
+            val = String.format ("%d", i);
+          return String.format ("%s,%s", val, val);
+
+        default:
+          assert (false);
+          return null;
+      }
+  }
+
+}
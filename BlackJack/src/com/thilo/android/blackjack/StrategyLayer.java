@@ -0,0 +1,141 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * A sparse layer of strategy cells, which overwrite those of a base
+ * strategy.  This is used for rule variants like H17, and keeps only the
+ * cells that differ.
+ */
+public class StrategyLayer
+{
+
+  /** Name of the layer.  */
+  public final String name;
+
+  /** Cells in the layer.  */
+  private short[] cells;
+  /** Entries of the cells.  */
+  private Strategy.MatrixEntry[] entries;
+  /** Number of cells in the layer.  */
+  private int size;
+
+  /**
+   * Construct it empty.
+   * @param n The name.
+   */
+  public StrategyLayer (String n)
+  {
+    name = n;
+    cells = new short[8];
+    entries = new Strategy.MatrixEntry[8];
+    size = 0;
+  }
+
+  /**
+   * Parse a layer from an XML file, which has the same format as those of
+   * full strategies but need not contain all cells.
+   * @param n The layer's name.
+   * @param p The parser to use.
+   * @return The layer.
+   * @throws RuntimeException If the XML is invalid.
+   */
+  public static StrategyLayer parse (String n, XmlPullParser p)
+  {
+    final Strategy s = new Strategy ();
+    s.parse (p, false);
+
+    final StrategyLayer res = new StrategyLayer (n);
+    for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+      {
+        final Strategy.MatrixEntry e = s.getEntry (c);
+        if (e != Strategy.MatrixEntry.NAN)
+          res.put (c, e);
+      }
+
+    return res;
+  }
+
+  /**
+   * Set the entry of a cell, replacing it if the cell is already in the
+   * layer.
+   * @param cell The cell.
+   * @param e The entry.
+   * @throws RuntimeException If the entry is NAN.
+   */
+  public void put (int cell, Strategy.MatrixEntry e)
+  {
+    if (e == Strategy.MatrixEntry.NAN)
+      throw new RuntimeException ("Layer entries must not be empty!");
+
+    for (int i = 0; i < size; ++i)
+      if (cells[i] == cell)
+        {
+          entries[i] = e;
+          return;
+        }
+
+    if (size == cells.length)
+      {
+        final short[] newCells = new short[2 * size];
+        final Strategy.MatrixEntry[] newEntries
+          = new Strategy.MatrixEntry[2 * size];
+        System.arraycopy (cells, 0, newCells, 0, size);
+        System.arraycopy (entries, 0, newEntries, 0, size);
+        cells = newCells;
+        entries = newEntries;
+      }
+
+    cells[size] = (short) cell;
+    entries[size] = e;
+    ++size;
+  }
+
+  /**
+   * Get the number of cells in the layer.
+   * @return Number of cells.
+   */
+  public int size ()
+  {
+    return size;
+  }
+
+  /**
+   * Get a cell of the layer.
+   * @param i Index into the layer.
+   * @return The cell number.
+   */
+  public int getCell (int i)
+  {
+    return cells[i];
+  }
+
+  /**
+   * Get the entry of a cell of the layer.
+   * @param i Index into the layer.
+   * @return The entry.
+   */
+  public Strategy.MatrixEntry getEntry (int i)
+  {
+    return entries[i];
+  }
+
+}
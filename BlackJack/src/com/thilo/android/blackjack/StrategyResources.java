@@ -0,0 +1,82 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import android.content.res.Resources;
+
+/**
+ * The strategies shipped as resources, loaded once per process and shared
+ * by all activities.  The S17 strategy is the base, and H17 is a layer
+ * over it.
+ */
+public class StrategyResources
+{
+
+  /** Name of the H17 layer.  */
+  public static final String H17 = "h17";
+
+  /** The loaded strategies, or null.  */
+  private static StrategyVariants variants = null;
+
+  /**
+   * Construct it, which is not possible.
+   */
+  private StrategyResources ()
+  {
+    // Nothing to do.
+  }
+
+  /**
+   * Get the strategies, loading them if necessary.
+   * @param res Resources to load them from.
+   * @return The strategies.
+   * @throws RuntimeException If parsing fails.
+   */
+  public static synchronized StrategyVariants get (Resources res)
+  {
+    if (variants == null)
+      {
+        final Strategy base = new Strategy ();
+        base.fill (res.getXml (R.xml.strategy_stand17), false);
+
+        final StrategyVariants v = new StrategyVariants (base);
+        v.addLayer (StrategyLayer.parse (H17,
+                                         res.getXml (R.xml.strategy_h17)));
+        variants = v;
+      }
+
+    return variants;
+  }
+
+  /**
+   * Get the optimal strategy for a rule set, loading it if necessary.
+   * @param res Resources to load it from.
+   * @param h17 Whether the dealer hits soft 17.
+   * @return The strategy.
+   * @throws RuntimeException If parsing fails.
+   */
+  public static Strategy getOptimal (Resources res, boolean h17)
+  {
+    final StrategyVariants v = get (res);
+    if (h17)
+      return v.get (H17);
+    return v.get ();
+  }
+
+}
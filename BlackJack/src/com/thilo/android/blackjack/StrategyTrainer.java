@@ -24,6 +24,7 @@ import android.app.Dialog;
 import android.content.SharedPreferences;
 import android.content.Intent;
 
+import android.os.Build;
 import android.os.Bundle;
 
 import android.preference.PreferenceManager;
@@ -43,25 +44,27 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
 import java.util.ArrayList;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import com.google.android.gms.ads.AdRequest;
 import com.google.android.gms.ads.AdView;
 
 
 /**
- * The activity class for explicitly training the optimal strategy.
+ * The activity class for explicitly training the optimal strategy.  The
+ * startup is staged:  The table is shown right away with the buttons
+ * disabled, while the card images and strategies are loaded in the
+ * background.  The first hand is dealt when the strategies are ready,
+ * and the ad is loaded after that.
  */
 public class StrategyTrainer extends Activity implements View.OnClickListener
 {
@@ -73,7 +76,22 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
   private static final int DIALOG_HELP = 0;
   /** ID for about dialog.  */
   private static final int DIALOG_ABOUT = 1;
+  /** ID for statistics dialog.  */
+  private static final int DIALOG_STATS = 2;
+
+  /** Number of slowest cells listed in the statistics.  */
+  private static final int STATS_CELLS = 5;
+  /** Minimum number of timed decisions for a cell to be listed.  */
+  private static final int STATS_MIN_COUNT = 3;
+
+  /** Version of the binary format for saved games.  */
+  private static final int STATE_VERSION = 2;
 
+  /** Name of the file holding the trainer's progress.  */
+  private static final String TRAINER_FILE = "trainer";
+
+  /** Card images for the displays, or null while they are loaded.  */
+  private CardImages images;
   /** Display for player's hand.  */
   private HandDisplay playerDisplay;
   /** Display for dealer's hand.  */
@@ -103,16 +121,21 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
 
   /** Systematic trainer instance used.  */
   private SystematicTrainer trainer;
+  /** Whether the current game (or its splits) is from the trainer.  */
+  private boolean trainerGame;
 
   /** Stack of queued games from splits.  */
   private ArrayList<Game> gameStack;
   /** Current game in the UI.  */
   private Game currentGame;
 
+  /** Background preparation of hands.  */
+  private HandPrefetcher prefetcher;
+
   /** Optimal strategy.  */
   private Strategy optimal;
-  /** Whether the calculated strategy is h17.  */
-  private boolean h17Strategy;
+  /** Optimal decision for the current game while it is initial, or null.  */
+  private Strategy.Decision initialDecision;
 
   /** Running total gains.  */
   private float total;
@@ -120,6 +143,25 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
   /** Keep track about whether the user answered wrong for current try.  */
   private boolean wrongAnswer;
 
+  /** Statistics of the user's decisions.  */
+  private TrainerStats stats;
+  /**
+   * Drawing time of the cards a decision was last timed for, so that only
+   * the first decision on them is timed.
+   */
+  private long timedShown;
+
+  /** Timing of the startup stages.  */
+  private StageTimer timer;
+  /** Tracer of the rounds dealt and the decisions.  */
+  private Tracer tracer;
+  /** Executor for the background startup stages.  */
+  private ExecutorService startup;
+  /** Whether the strategies are loaded and the game can be played.  */
+  private boolean ready;
+  /** Whether the activity is destroyed.  */
+  private boolean destroyed;
+
   /**
    * Create the activity.
    * @param savedInstanceState Saved state.
@@ -127,23 +169,25 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
   @Override
   public void onCreate (Bundle savedInstanceState)
   {
+    timer = new StageTimer (TAG, "Startup");
+    if (Build.VERSION.SDK_INT >= AndroidTracer.MIN_SDK)
+      tracer = new AndroidTracer ();
+    else
+      tracer = Tracer.NONE;
     super.onCreate (savedInstanceState);
     PreferenceManager.setDefaultValues (this, R.xml.preferences, false);
     pref = PreferenceManager.getDefaultSharedPreferences (this);
     setContentView (R.layout.main);
-    
-    AdView mAdView = (AdView) findViewById(R.id.adView);
-    AdRequest adRequest = new AdRequest.Builder().build();
-    mAdView.loadAd(adRequest);
 
-    CardImages img = new CardImages (getResources ());
+    images = null;
     deck = new RandomSupply ();
 
+    /* The card images are set when they are loaded.  */
     SurfaceView v = (SurfaceView) findViewById (R.id.player_cards);
-    playerDisplay = new HandDisplay (this, img, v);
+    playerDisplay = new HandDisplay (this, null, v);
 
     v = (SurfaceView) findViewById (R.id.dealer_cards);
-    dealerDisplay = new HandDisplay (this, img, v);
+    dealerDisplay = new HandDisplay (this, null, v);
 
     wholeLayout = findViewById (R.id.whole_layout);
     message = (TextView) findViewById (R.id.game_message);
@@ -160,11 +204,126 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
     btnDouble.setOnClickListener (this);
     btnSplit.setOnClickListener (this);
 
+    prefetcher = new HandPrefetcher (getResources (), deck,
+                                     pref.getBoolean ("h17", false));
     optimal = null;
+    initialDecision = null;
     trainer = null;
+    trainerGame = false;
     total = 0.0f;
+    stats = new TrainerStats ();
+    stats.load (this);
+    timedShown = 0;
     gameStack = new ArrayList<Game> ();
-    startNewGame ();
+    currentGame = null;
+
+    ready = false;
+    destroyed = false;
+    setButtonsEnabled (false);
+    message.setText (R.string.loading);
+    timer.mark ("layout");
+
+    startup = Executors.newSingleThreadExecutor ();
+    startup.execute (new Runnable ()
+      {
+        public void run ()
+        {
+          loadImages ();
+        }
+      });
+    startup.execute (new Runnable ()
+      {
+        public void run ()
+        {
+          waitForStrategies ();
+        }
+      });
+  }
+
+  /**
+   * Load the card images, which is run in the background.  They are
+   * handed to the displays on the UI thread.
+   */
+  private void loadImages ()
+  {
+    final CardImages img = new CardImages (getResources ());
+    timer.mark ("card images");
+
+    runOnUiThread (new Runnable ()
+      {
+        public void run ()
+        {
+          if (destroyed)
+            {
+              img.recycle ();
+              return;
+            }
+
+          images = img;
+          playerDisplay.setImages (img);
+          dealerDisplay.setImages (img);
+        }
+      });
+  }
+
+  /**
+   * Wait in the background until the prefetcher has loaded the strategies,
+   * and then start playing on the UI thread.
+   */
+  private void waitForStrategies ()
+  {
+    prefetcher.getStrategy (false);
+
+    runOnUiThread (new Runnable ()
+      {
+        public void run ()
+        {
+          if (!destroyed)
+            startPlaying ();
+        }
+      });
+  }
+
+  /**
+   * Start playing once the strategies are loaded.  The restored game is
+   * continued, or the first one dealt.  The ad is loaded afterwards, so
+   * that it does not delay the first hand.
+   */
+  private void startPlaying ()
+  {
+    timer.mark ("strategies");
+    ready = true;
+    setButtonsEnabled (true);
+    if (currentGame == null)
+      startNewGame ();
+    else
+      updateAll ();
+    timer.mark ("first hand");
+
+    wholeLayout.post (new Runnable ()
+      {
+        public void run ()
+        {
+          if (destroyed)
+            return;
+
+          AdView adView = (AdView) findViewById (R.id.adView);
+          adView.loadAd (new AdRequest.Builder ().build ());
+          timer.mark ("ad requested");
+        }
+      });
+  }
+
+  /**
+   * Enable or disable the buttons.
+   * @param e Whether to enable them.
+   */
+  private void setButtonsEnabled (boolean e)
+  {
+    btnHit.setEnabled (e);
+    btnStand.setEnabled (e);
+    btnDouble.setEnabled (e);
+    btnSplit.setEnabled (e);
   }
 
   /**
@@ -177,19 +336,23 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
     super.onSaveInstanceState (outState);
     outState.putFloat ("total", total);
 
-    outState.putInt ("numGames", gameStack.size ());
-    outState.putBoolean ("hasTrainer", trainer != null);
+    /* Nothing was dealt yet if the strategies are still loaded.  */
+    if (currentGame == null)
+      return;
+
     try
       {
         ByteArrayOutputStream byteOut = new ByteArrayOutputStream ();
-        ObjectOutputStream out = new ObjectOutputStream (byteOut);
+        DataOutputStream out = new DataOutputStream (byteOut);
 
-        out.writeObject (currentGame);
+        out.writeByte (STATE_VERSION);
+        currentGame.write (out);
+        out.writeShort (gameStack.size ());
         for (Game g : gameStack)
-          out.writeObject (g);
+          g.write (out);
 
-        if (trainer != null)
-          out.writeObject (trainer);
+        /* The trainer itself is kept in its own store.  */
+        out.writeBoolean (trainerGame);
 
         out.close ();
         byteOut.close ();
@@ -214,11 +377,11 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
     super.onRestoreInstanceState (savedInstanceState);
     total = savedInstanceState.getFloat ("total");
 
-    final int numGames = savedInstanceState.getInt ("numGames");
     final byte[] data = savedInstanceState.getByteArray ("gameStack");
 
     /* Force re-intialisation of the strategy.  */
     optimal = null;
+    initialDecision = null;
     trainer = null;
 
     boolean notRestored;
@@ -230,21 +393,19 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
           notRestored = false;
 
           ByteArrayInputStream byteIn = new ByteArrayInputStream (data);
-          ObjectInputStream in = new ObjectInputStream (byteIn);
+          DataInputStream in = new DataInputStream (byteIn);
+
+          if (in.readUnsignedByte () != STATE_VERSION)
+            throw new IOException ("Saved state has a different version!");
 
-          currentGame = (Game) in.readObject ();
-          currentGame.setCardSupply (deck);
+          currentGame = Game.read (in, deck);
 
+          final int numGames = in.readUnsignedShort ();
           gameStack = new ArrayList<Game> ();
           for (int i = 0; i < numGames; ++i)
-            {
-              Game g = (Game) in.readObject ();
-              g.setCardSupply (deck);
-              gameStack.add (g);
-            }
+            gameStack.add (Game.read (in, deck));
 
-          if (savedInstanceState.getBoolean ("hasTrainer"))
-            trainer = (SystematicTrainer) in.readObject ();
+          trainerGame = in.readBoolean ();
 
           in.close ();
           byteIn.close ();
@@ -262,12 +423,54 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
     if (notRestored)
       {
         total = 0.0f;
-        trainer = null;
+        trainerGame = false;
         gameStack = new ArrayList<Game> ();
-        startNewGame ();
+        currentGame = null;
       }
     else
-      updateAll ();
+      {
+        /* The trainer's current cell is shown again, so keep it.  */
+        if (trainerGame)
+          restoreTrainer (true);
+      }
+
+    /* Otherwise, startPlaying() deals or shows the game.  */
+    if (ready)
+      {
+        if (currentGame == null)
+          startNewGame ();
+        else
+          updateAll ();
+      }
+  }
+
+  /**
+   * Save the statistics when the activity is paused.
+   */
+  @Override
+  public void onPause ()
+  {
+    super.onPause ();
+    stats.save (this);
+  }
+
+  /**
+   * Stop preparing hands and drawing, close the trainer's store and release
+   * the card images when the activity goes away.
+   */
+  @Override
+  public void onDestroy ()
+  {
+    destroyed = true;
+    startup.shutdown ();
+    prefetcher.stop ();
+    playerDisplay.stop ();
+    dealerDisplay.stop ();
+    if (trainer != null)
+      trainer.close ();
+    if (images != null)
+      images.recycle ();
+    super.onDestroy ();
   }
 
   /**
@@ -276,13 +479,48 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
    */
   public void onClick (View v)
   {
+    final long clicked = System.nanoTime ();
+    if (!ready)
+      return;
     if (!currentGame.isRunning ())
       {
         startNewGame ();
         return;
       }
 
-    final Strategy.Decision dec = optimal.decide (currentGame);
+    final int cell = Strategy.getCell (currentGame);
+
+    Strategy.Decision dec;
+    if (initialDecision != null && currentGame.isInitial ())
+      dec = initialDecision;
+    else
+      {
+        final Object t = tracer.begin (Tracer.Section.LOOKUP);
+        dec = optimal.decide (currentGame);
+        tracer.end (t, -1, 0);
+      }
+
+    final Strategy.Decision chosen = getChosen (v);
+    if (chosen != null)
+      {
+        /* Time the decision from when the cards were shown, if they were.
+           Retries after a warning are not timed, as they include reading
+           it.  New cards get a new drawing time.  */
+        final long playerShown = playerDisplay.getDrawnTime ();
+        final long dealerShown = dealerDisplay.getDrawnTime ();
+        final long shown = Math.max (playerShown, dealerShown);
+        if (playerShown != 0 && dealerShown != 0 && shown != timedShown)
+          {
+            stats.latency.record (cell, clicked - shown);
+            timedShown = shown;
+          }
+
+        /* The EV table is only valid for first decisions.  */
+        EvTable ev = null;
+        if (currentGame.isInitial ())
+          ev = prefetcher.getEvTable (currentGame.hitSoft17);
+        stats.decisions.record (cell, chosen, dec, ev);
+      }
 
     assert (currentGame.isRunning ());
     if (v == btnHit)
@@ -297,7 +535,11 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
         if (dec != Strategy.Decision.STAND)
           warnStrategy (dec);
         else
-          currentGame.doStand ();
+          {
+            final Object t = tracer.begin (Tracer.Section.DEALER);
+            currentGame.doStand ();
+            tracer.end (t, -1, 0);
+          }
       }
     if (v == btnDouble)
       {
@@ -311,7 +553,11 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
         else if (dec != Strategy.Decision.DOUBLE)
           warnStrategy (dec);
         else
-          currentGame.doDouble ();
+          {
+            final Object t = tracer.begin (Tracer.Section.DEALER);
+            currentGame.doDouble ();
+            tracer.end (t, -1, 0);
+          }
       }
     if (v == btnSplit)
       {
@@ -333,6 +579,25 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
     update ();
   }
 
+  /**
+   * Find the decision chosen by a click on one of the buttons.  Doubling
+   * and splitting count only if they are possible.
+   * @param v The clicked button.
+   * @return The decision chosen or null.
+   */
+  private Strategy.Decision getChosen (View v)
+  {
+    if (v == btnHit)
+      return Strategy.Decision.HIT;
+    if (v == btnStand)
+      return Strategy.Decision.STAND;
+    if (v == btnDouble && currentGame.canDouble ())
+      return Strategy.Decision.DOUBLE;
+    if (v == btnSplit && currentGame.canSplit ())
+      return Strategy.Decision.SPLIT;
+    return null;
+  }
+
   /**
    * Create the menu.
    * @param menu The menu to create.
@@ -365,9 +630,17 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
           return true;
 
         case R.id.reset_trainer:
-          deleteFile ("trainer");
+          if (trainer != null)
+            trainer.close ();
+          deleteFile (TRAINER_FILE);
+          stats.reset (this);
           Log.d (TAG, "Deleted trainer data on local storage.");
           trainer = null;
+          trainerGame = false;
+          return true;
+
+        case R.id.stats:
+          showDialog (DIALOG_STATS);
           return true;
 
         case R.id.about:
@@ -420,6 +693,11 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
           dlg.setTitle (R.string.about_title);
           break;
 
+        case DIALOG_STATS:
+          dlg.setContentView (R.layout.stats);
+          dlg.setTitle (R.string.stats_title);
+          break;
+
         default:
           assert (false);
       }
@@ -428,11 +706,113 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
   }
 
   /**
-   * Start a fresh game.
+   * Prepare a dialog before it is shown.
+   * @param id ID of the dialog.
+   * @param dlg The dialog.
+   */
+  @Override
+  public void onPrepareDialog (int id, Dialog dlg)
+  {
+    super.onPrepareDialog (id, dlg);
+    if (id == DIALOG_STATS)
+      {
+        TextView tv = (TextView) dlg.findViewById (R.id.stats_text);
+        tv.setText (buildStats ());
+      }
+  }
+
+  /**
+   * Build the text of the statistics dialog.
+   * @return The statistics text.
+   */
+  private String buildStats ()
+  {
+    final int total = stats.latency.getTotal (-1);
+    if (total == 0)
+      return getString (R.string.stats_none);
+
+    final StringBuilder res = new StringBuilder ();
+    res.append (String.format (getString (R.string.stats_summary), total,
+                               stats.latency.getQuantile (-1, 0.5f),
+                               stats.latency.getQuantile (-1, 0.9f)));
+    res.append ("\n\n");
+    res.append (getString (R.string.stats_slowest));
+
+    /* Pick the slowest cells by repeated selection, there are only few.  */
+    final boolean[] listed = new boolean[Strategy.NUM_CELLS];
+    for (int i = 0; i < STATS_CELLS; ++i)
+      {
+        int slowest = -1;
+        long slowestMedian = -1;
+        for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+          {
+            if (listed[c] || stats.latency.getTotal (c) < STATS_MIN_COUNT)
+              continue;
+            final long median = stats.latency.getQuantile (c, 0.5f);
+            if (median > slowestMedian)
+              {
+                slowest = c;
+                slowestMedian = median;
+              }
+          }
+        if (slowest == -1)
+          break;
+
+        listed[slowest] = true;
+        final String player = getValueName (Strategy.getCellPlayer (slowest));
+        final String dealer = getValueName (Strategy.getCellDealer (slowest));
+        res.append ("\n");
+        res.append (String.format (getString (R.string.stats_cell),
+                                   getMatrixName (slowest), player, dealer,
+                                   slowestMedian,
+                                   stats.latency.getTotal (slowest)));
+      }
+
+    return res.toString ();
+  }
+
+  /**
+   * Get the display name of a cell's matrix.
+   * @param cell The cell.
+   * @return Name of its matrix.
+   */
+  private String getMatrixName (int cell)
+  {
+    switch (Strategy.getCellMatrix (cell))
+      {
+        case HARD:
+          return getString (R.string.stats_hard);
+        case SOFT:
+          return getString (R.string.stats_soft);
+        case PAIR:
+          return getString (R.string.stats_pair);
+        default:
+          assert (false);
+          return "";
+      }
+  }
+
+  /**
+   * Format a card value or total for display, showing aces as A.
+   * @param v The value.
+   * @return The formatted value.
+   */
+  private static String getValueName (int v)
+  {
+    if (v == 11)
+      return "A";
+    return String.valueOf (v);
+  }
+
+  /**
+   * Start a fresh game.  This is traced as round, since it is where the
+   * trainer schedules and stores the cells.
    */
   private void startNewGame ()
   {
+    final Object trace = tracer.begin (Tracer.Section.ROUND);
     final boolean h17 = pref.getBoolean ("h17", false);
+    initialDecision = null;
     if (!gameStack.isEmpty ())
       currentGame = gameStack.remove (gameStack.size () - 1);
     else
@@ -441,46 +821,51 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
           {
             if (trainer == null)
               {
-                restoreTrainer ();
+                restoreTrainer (false);
                 wrongAnswer = false;
               }
 
+            /* Only wrong answers are rescheduled by their cost.  The EV
+               tables are loaded right after the strategies, so they are
+               there by the time a hand was answered.  */
             if (wrongAnswer)
-              trainer.repeat ();
+              trainer.setCosts (prefetcher.getEvTable (h17));
+            trainer.answer (wrongAnswer);
             wrongAnswer = false;
 
-            /* Do this before getNext(), so that the current index is
-               not "lost" if quit before answering it!  */
-            saveTrainer ();
-
+            /* The store keeps the cell returned as current until it is
+               answered, so that it is not "lost" if quit before.  */
             final Game next = trainer.getNext (deck, h17);
             if (next == null)
               {
                 final String msg = getString (R.string.finished_learning);
-                deleteFile ("trainer");
+                trainer.close ();
+                deleteFile (TRAINER_FILE);
                 Toast t = Toast.makeText (this, msg, Toast.LENGTH_SHORT);
                 t.setGravity (Gravity.CENTER, 0, 0);
                 t.show ();
+                tracer.end (trace, -1, 0);
                 return;
               }
             else
-              currentGame = next;
+              {
+                currentGame = next;
+                initialDecision = prefetcher.prepare (next).decision;
+                trainerGame = true;
+              }
           }
         else
           {
-            Hand player = new Hand ();
-            player.add (deck.getNextCard ());
-            player.add (deck.getNextCard ());
-
-            Hand dealer = new Hand ();
-            dealer.add (deck.getNextCard ());
-
-            currentGame = new Game (player, dealer, deck, h17);
+            final HandPrefetcher.Entry e = prefetcher.take (h17);
+            currentGame = e.game;
+            initialDecision = e.decision;
+            trainerGame = false;
           }
       }
 
     assert (currentGame != null);
     updateAll ();
+    tracer.end (trace, -1, 1);
   }
 
   /**
@@ -490,15 +875,9 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
   private void updateAll ()
   {
     update ();
-    if (optimal == null || (currentGame.hitSoft17 != h17Strategy))
-      {
-        optimal = new Strategy ();
-        optimal.fill (getResources ().getXml (R.xml.strategy_stand17), false);
-        if (currentGame.hitSoft17)
-          optimal.fill (getResources ().getXml (R.xml.strategy_h17), true);
 
-        h17Strategy = currentGame.hitSoft17;
-      }
+    /* The strategies are parsed by the prefetcher in the background.  */
+    optimal = prefetcher.getStrategy (currentGame.hitSoft17);
   }
 
   /**
@@ -592,64 +971,25 @@ public class StrategyTrainer extends Activity implements View.OnClickListener
   }
 
   /**
-   * Save the strategy trainer to persistent internal storage.
-   */
-  private void saveTrainer ()
-  {
-    try
-      {
-        FileOutputStream fileOut = openFileOutput ("trainer", MODE_PRIVATE);
-        BufferedOutputStream bufferedOut = new BufferedOutputStream (fileOut);
-        ObjectOutputStream out = new ObjectOutputStream (bufferedOut);
-
-        out.writeObject (trainer);
-
-        out.close ();
-        bufferedOut.close ();
-        fileOut.close ();
-
-        Log.d (TAG, "Saved trainer state.");
-      }
-    catch (IOException exc)
-      {
-        exc.printStackTrace ();
-        Log.e (TAG, "Saving trainer to persistent storage failed!");
-      }
-  }
-
-  /**
-   * Restore the trainer from local storage, if there is one.  Construct
-   * a new one if there's none.
+   * Open the trainer on its store in local storage.  The store starts a
+   * new trainer if there is no (valid) progress saved.
+   * @param keepCurrent Whether the trainer's current cell is shown again.
    */
-  private void restoreTrainer ()
+  private void restoreTrainer (boolean keepCurrent)
   {
-    trainer = null;
     try
       {
-        FileInputStream fileIn = openFileInput ("trainer");
-        BufferedInputStream bufferedIn = new BufferedInputStream (fileIn);
-        ObjectInputStream in = new ObjectInputStream (bufferedIn);
-
-        trainer = (SystematicTrainer) in.readObject ();
+        final TrainerStore store
+          = new TrainerStore (getFileStreamPath (TRAINER_FILE));
+        trainer = new SystematicTrainer (store, keepCurrent);
         Log.d (TAG, "Restored trainer state.");
-
-        in.close ();
-        bufferedIn.close ();
-        fileIn.close ();
-      }
-    catch (FileNotFoundException exc)
-      {
-        /* Do nothing, this is not really a serious error and just means
-           that no trainer was saved yet.  */
       }
-    catch (Exception exc)
+    catch (IOException exc)
       {
         exc.printStackTrace ();
-        Log.e (TAG, "Reading trainer from persistent storage failed!");
+        Log.e (TAG, "Opening trainer on persistent storage failed!");
+        trainer = new SystematicTrainer ();
       }
-
-    if (trainer == null)
-      trainer = new SystematicTrainer ();
   }
 
 }
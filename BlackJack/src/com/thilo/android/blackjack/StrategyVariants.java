@@ -0,0 +1,109 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A base strategy with named layers, from which variants are built by
+ * applying some of the layers in order.  Each variant is materialized
+ * into a full strategy when first requested and cached, so that deciding
+ * with it is as fast as with the base, while all variants share the base
+ * and the layers only hold the cells they change.
+ */
+public class StrategyVariants
+{
+
+  /** The base strategy.  */
+  private final Strategy base;
+
+  /** Layers by name.  */
+  private final Map<String, StrategyLayer> layers;
+
+  /** Materialized variants by their key.  */
+  private final Map<String, Strategy> variants;
+
+  /**
+   * Construct it.
+   * @param b The base strategy, which must be filled in.
+   */
+  public StrategyVariants (Strategy b)
+  {
+    base = b;
+    layers = new HashMap<String, StrategyLayer> ();
+    variants = new HashMap<String, Strategy> ();
+  }
+
+  /**
+   * Add a layer.
+   * @param l The layer.
+   * @throws RuntimeException If there is already a layer with its name.
+   */
+  public synchronized void addLayer (StrategyLayer l)
+  {
+    if (layers.containsKey (l.name))
+      throw new RuntimeException ("Duplicate strategy layer: " + l.name);
+    layers.put (l.name, l);
+  }
+
+  /**
+   * Get a layer.
+   * @param name The layer's name.
+   * @return The layer or null if there is none with the name.
+   */
+  public synchronized StrategyLayer getLayer (String name)
+  {
+    return layers.get (name);
+  }
+
+  /**
+   * Get a variant.  The base itself is returned if no layers are given.
+   * The result must not be changed, since it is shared.
+   * @param names Names of the layers to apply, in order.
+   * @return The variant.
+   * @throws RuntimeException If a layer is unknown.
+   */
+  public synchronized Strategy get (String... names)
+  {
+    if (names.length == 0)
+      return base;
+
+    final StringBuilder key = new StringBuilder ();
+    for (final String n : names)
+      key.append (n).append ('\n');
+
+    Strategy res = variants.get (key.toString ());
+    if (res == null)
+      {
+        res = new Strategy (base);
+        for (final String n : names)
+          {
+            final StrategyLayer l = layers.get (n);
+            if (l == null)
+              throw new RuntimeException ("Unknown strategy layer: " + n);
+            res.apply (l);
+          }
+        variants.put (key.toString (), res);
+      }
+
+    return res;
+  }
+
+}
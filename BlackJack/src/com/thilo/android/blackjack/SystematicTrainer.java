@@ -20,198 +20,143 @@ package com.thilo.android.blackjack;
 
 import android.util.Log;
 
-import java.io.Serializable;
-
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.IOException;
 
 /**
  * Handle systematic training of all strategy cells, repeating wrong ones
- * until handled correctly.
+ * until handled correctly.  Which cell comes next is decided by a
+ * CellScheduler, and progress can be kept in a TrainerStore, which is
+ * updated in place for each hand.  The cost of mistakes per cell, which
+ * makes costly cells come back sooner, is taken from an EV table.
  */
-public class SystematicTrainer implements Serializable
+public class SystematicTrainer
 {
   /** Log tag.  */
   private static final String TAG = "BJTrainer/SystematicTrainer";
 
-  /**
-   * Index into one of the cells, including hard/soft/pair and the
-   * player as well as dealer values.
-   */
-  private static class Index implements Serializable
-  {
-
-    /** Serial version id.  */
-    private static final long serialVersionUID = 0l;
-
-    /** This index' matrix type.  */
-    public final Strategy.Matrix matrix;
-
-    /** This index' player total, as indexing in the strategy.  */
-    public final byte player;
-
-    /** Dealer face card value.  */
-    public final byte dealer;
-
-    /**
-     * Construct it with given parameters.
-     * @param m The matrix.
-     * @param p Player value.
-     * @param d Dealer value.
-     */
-    public Index (Strategy.Matrix m, byte p, byte d)
-    {
-      matrix = m;
-      player = p;
-      dealer = d;
-    }
-
-    /**
-     * Construct a game fitting this index.
-     * @param deck Card supply for this game.
-     * @param h17 H17 flag to use for the game.
-     * @return A game whose configuration is in this matrix entry.
-     */
-    public Game constructGame (CardSupply deck, boolean h17)
-    {
-      Log.d (TAG, String.format ("Constructing game for %s...", toString ()));
-
-      final Hand dealerHand = new Hand ();
-      dealerHand.add (constructCard (dealer));
+  /** Minimum cost of mistakes in a cell, relative to the average.  */
+  private static final float MIN_COST = 0.25f;
+  /** Maximum cost of mistakes in a cell, relative to the average.  */
+  private static final float MAX_COST = 4.0f;
 
-      final Hand playerHand = new Hand ();
-      switch (matrix)
-        {
-          case HARD:
-            switch (player)
-              {
-                case 21:
-                  playerHand.add (constructCard (10));
-                  playerHand.add (constructCard (11));
-                  break;
+  /** Scheduler for the cells to learn.  */
+  private final CellScheduler scheduler;
 
-                case 20:
-                  /* It's not possible to actually have hard 20, this
-                     is always going to be a pair.  */
-                  playerHand.add (constructCard (10));
-                  playerHand.add (constructCard (10));
-                  break;
+  /** The current cell for the sake of repeating it, or -1.  */
+  private int current;
 
-                default:
-                  int v1, v2;
-                  do
-                    {
-                      v1 = RandomSupply.rng.nextInt (9) + 2;
-                      v2 = RandomSupply.rng.nextInt (9) + 2;
-                    }
-                  while (v1 == v2 || v1 + v2 != player);
-                  playerHand.add (constructCard (v1));
-                  playerHand.add (constructCard (v2));
-                  break;
-              }
-            break;
+  /** Store persisting the progress, or null if it is not persisted.  */
+  private TrainerStore store;
 
-          case SOFT:
-            playerHand.add (constructCard (player - 11));
-            playerHand.add (constructCard (11));
-            break;
-
-          case PAIR:
-            playerHand.add (constructCard (player));
-            playerHand.add (constructCard (player));
-            break;
-
-          default:
-            assert (false);
-        }
-
-      return new Game (playerHand, dealerHand, deck, h17);
-    }
-
-    /**
-     * Construct a card with the given value.
-     * @param v Value the card should have.
-     * @return A random card with this value.
-     */
-    private Card constructCard (int v)
-    {
-      byte type;
-      switch (v)
-        {
-          case 11:
-            type = Card.ACE;
-            break;
-
-          case 10:
-            final int cardInt = RandomSupply.rng.nextInt (4);
-            switch (cardInt)
-              {
-                case 0:
-                  type = 10;
-                  break;
-                case 1:
-                  type = Card.JACK;
-                  break;
-                case 2:
-                  type = Card.QUEEN;
-                  break;
-                case 3:
-                  type = Card.KING;
-                  break;
-                default:
-                  assert (false);
-                  /* Silence the compiler.  */
-                  type = -1;
-              }
-            break;
-
-          default:
-            type = (byte) v;
-            break;
-        }
-
-      return new Card (RandomSupply.getRandomSuit (), type);
-    }
-
-    /**
-     * Convert to string for logging.
-     * @return String representation.
-     */
-    @Override
-    public String toString ()
-    {
-      return String.format ("%s(%d, %d)", matrix.toString (), player, dealer);
-    }
+  /** EV table the costs were set from, or null.  */
+  private EvTable costs;
 
+  /**
+   * Construct it, which starts with all possible entries scheduled in
+   * a random ordering.
+   */
+  public SystematicTrainer ()
+  {
+    scheduler = new CellScheduler ();
+    scheduler.reset (RandomSupply.rng);
+    current = -1;
+    store = null;
+    costs = null;
   }
 
-  /** Serial version id.  */
-  private static final long serialVersionUID = 0l;
-
   /**
-   * Queue for entries to learn.  A deque would be ideal for this task, but
-   * unfortunately ArrayDeque is not available in the SDK version targetted.
-   * Thus use array list and take the (probably anyway unimportant)
-   * performance hit from removing at the beginning anyway.
+   * Construct it backed by a store.  If the store holds no valid progress,
+   * a new schedule is written to it.
+   * @param s The store to use.
+   * @param keepCurrent If false, an unanswered current cell is scheduled
+   *                    again as due now.  It should be true only if its
+   *                    game is shown again.
    */
-  private ArrayList<Index> queue;
-
-  /** Remember the current index for the sake of repeating it.  */
-  private Index current;
+  public SystematicTrainer (TrainerStore s, boolean keepCurrent)
+  {
+    scheduler = new CellScheduler ();
+    current = -1;
+
+    if (!s.load (scheduler))
+      {
+        scheduler.reset (RandomSupply.rng);
+        s.saveAll (scheduler);
+      }
+    else
+      {
+        final int c = s.getCurrent ();
+        if (keepCurrent)
+          current = c;
+        else if (c != -1)
+          {
+            scheduler.requeue (c);
+            s.saveCell (scheduler, c);
+            s.setCurrent (scheduler, -1);
+          }
+      }
+
+    store = s;
+    costs = null;
+  }
 
   /**
-   * Construct it, which starts with all possible entries shuffled into
-   * a random ordering.
+   * Close the store backing this trainer, if any.  Changes afterwards
+   * are no longer persisted.
    */
-  public SystematicTrainer ()
+  public void close ()
   {
-    queue = new ArrayList<Index> ();
-    fillIn (Strategy.Matrix.HARD, 5, 21);
-    fillIn (Strategy.Matrix.SOFT, 13, 21);
-    fillIn (Strategy.Matrix.PAIR, 2, 11);
-    Collections.shuffle (queue);
+    if (store == null)
+      return;
+
+    try
+      {
+        store.close ();
+      }
+    catch (IOException exc)
+      {
+        exc.printStackTrace ();
+        Log.e (TAG, "Closing trainer store failed!");
+      }
+    store = null;
+  }
 
-    current = null;
+  /**
+   * Set the cost of mistakes per cell from an EV table, as the EV a
+   * mistake loses in the cell relative to the average over all cells.
+   * Cells without EVs in the table keep the average cost.  This is cheap
+   * if the costs are set from the same table already.
+   * @param ev The EV table, may be null if there is none.
+   */
+  public void setCosts (EvTable ev)
+  {
+    if (ev == null || ev == costs)
+      return;
+
+    float sum = 0.0f;
+    int known = 0;
+    for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+      {
+        final float loss = ev.getMistakeLoss (c);
+        if (!Float.isNaN (loss))
+          {
+            sum += loss;
+            ++known;
+          }
+      }
+    if (!(sum > 0.0f))
+      return;
+
+    final float mean = sum / known;
+    for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+      {
+        final float loss = ev.getMistakeLoss (c);
+        float cost = 1.0f;
+        if (!Float.isNaN (loss))
+          cost = Math.min (MAX_COST, Math.max (MIN_COST, loss / mean));
+        scheduler.setCost (c, cost);
+      }
+
+    costs = ev;
   }
 
   /**
@@ -220,59 +165,62 @@ public class SystematicTrainer implements Serializable
    */
   public int getRemainingCount ()
   {
-    return queue.size ();
+    return scheduler.size ();
   }
 
   /**
-   * Access the next game, returns null if the queue is already empty.
+   * Access the next game, returns null if there are no more cells to learn.
+   * answer() must be called for the current game before.
    * @param deck The card supply to use for the constructed game.
    * @param h17 The game's h17 value.
    * @return The next game to play or null.
    */
   public Game getNext (CardSupply deck, boolean h17)
   {
-    if (queue.isEmpty ())
+    if (current != -1)
+      throw new RuntimeException ("Current game is not yet answered!");
+    if (scheduler.size () == 0)
       return null;
 
     Log.i (TAG, String.format ("Training next entry, %d remaining.",
                                getRemainingCount ()));
 
-    current = queue.remove (0);
-    return current.constructGame (deck, h17);
-  }
-
-  /**
-   * Assume the last game should be repeated.  This duplicates the queue's
-   * head into a random position, since getNext() follows and pops the original
-   * version off the queue.
-   * @throws RuntimeException If no game is there to repeat.
-   */
-  public void repeat ()
-  {
-    if (current == null)
-      throw new RuntimeException ("No game yet there to repeat!");
-    Log.i (TAG, String.format ("Repeating last %s.", current.toString ()));
+    current = scheduler.next ();
+    if (store != null)
+      {
+        /* The header goes first, so that an interrupted update leaves
+           the cell scheduled and not current.  */
+        store.setCurrent (scheduler, current);
+        store.saveCell (scheduler, current);
+      }
 
-    int pos;
-    if (queue.isEmpty ())
-      pos = 0;
-    else
-      pos = RandomSupply.rng.nextInt (queue.size ()) + 1;
-    queue.add (pos, current);
+    return HandTable.construct (current, RandomSupply.rng, deck, h17);
   }
 
   /**
-   * Fill in the indices for a matrix type and given range of player
-   * totals into the queue.
-   * @param m Matrix type.
-   * @param from From this player index.
-   * @param to To this player index.
+   * Record the answer to the current game.  Cells answered wrongly are
+   * scheduled again, correct ones are learned.  Nothing is done if there
+   * is no current game.
+   * @param wrong Whether the game was answered wrongly.
    */
-  private void fillIn (Strategy.Matrix m, int from, int to)
+  public void answer (boolean wrong)
   {
-    for (int p = from; p <= to; ++p)
-      for (int d = 2; d <= 11; ++d)
-        queue.add (new Index (m, (byte) p, (byte) d));
+    if (current == -1)
+      return;
+    if (wrong)
+      Log.i (TAG, String.format ("Repeating last %s(%d, %d).",
+                                 Strategy.getCellMatrix (current).toString (),
+                                 Strategy.getCellPlayer (current),
+                                 Strategy.getCellDealer (current)));
+
+    scheduler.answer (current, wrong);
+    if (store != null)
+      {
+        store.saveCell (scheduler, current);
+        store.setCurrent (scheduler, -1);
+      }
+
+    current = -1;
   }
 
 }
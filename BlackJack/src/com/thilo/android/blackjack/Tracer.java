@@ -0,0 +1,97 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+/**
+ * Profiling hook marking the time spent in sections of simulations and
+ * trainer rounds, like shuffling or the strategy lookup.  Backends pass
+ * the sections on to a profiler, JfrTracer as Java Flight Recorder events
+ * and AndroidTracer to systrace, or measure them like ProfileTracer.
+ * They should record only while the profiler is, so that the hook is
+ * cheap otherwise.
+ */
+public interface Tracer
+{
+
+  /**
+   * The sections traced.  Deal, strategy lookup, dealer play-out and
+   * recording the result are nested in rounds.  Games are settled by
+   * Game.calculate() after every card, so settling is part of the deal,
+   * the hits and the dealer play-out and has no section of its own.
+   */
+  enum Section
+  {
+    SHUFFLE ("Shuffle", "Shuffle"),
+    ROUND ("Round", "Round Played"),
+    DEAL ("Deal", "Deal"),
+    LOOKUP ("StrategyLookup", "Strategy Lookup"),
+    DEALER ("DealerPlay", "Dealer Play-Out"),
+    RECORD ("RecordResult", "Record Result"),
+    MERGE ("ResultMerge", "Result Merge");
+
+    /** Identifier of the section, without spaces.  */
+    public final String id;
+
+    /** Human-readable name of the section.  */
+    public final String label;
+
+    /**
+     * Construct it.
+     * @param i Identifier.
+     * @param l Label.
+     */
+    private Section (String i, String l)
+    {
+      id = i;
+      label = l;
+    }
+  }
+
+  /** Tracer doing nothing.  */
+  Tracer NONE = new Tracer ()
+    {
+      public Object begin (Section s)
+      {
+        return null;
+      }
+
+      public void end (Object token, int shard, long rounds)
+      {
+        // Nothing to do.
+      }
+    };
+
+  /**
+   * Start a section.  Sections must be ended on the same thread and
+   * nested properly.
+   * @param s The section.
+   * @return Token to pass to end(), or null if nothing is recorded.
+   */
+  Object begin (Section s);
+
+  /**
+   * End a section started by begin().
+   * @param token The token returned by begin().
+   * @param shard Index of the simulation shard, or -1 if not in one.
+   * @param rounds Number of rounds done in the section, like played or
+   *               merged.
+   */
+  void end (Object token, int shard, long rounds);
+
+}
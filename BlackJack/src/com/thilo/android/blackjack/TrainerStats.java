@@ -0,0 +1,139 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import android.content.Context;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Statistics about the user's decisions, which are kept in the app's
+ * private storage:  The decision latencies and the counters of chosen
+ * against optimal decisions per strategy cell.
+ */
+public class TrainerStats
+{
+
+  /** Log tag.  */
+  private static final String TAG = "BJTrainer/TrainerStats";
+
+  /** Name of the file holding the statistics.  */
+  private static final String FILE = "stats";
+  /** Version of the file format.  */
+  private static final int VERSION = 2;
+
+  /** Decision latencies per strategy cell.  */
+  public final LatencyHistogram latency;
+
+  /** Decisions per strategy cell.  */
+  public final DecisionStats decisions;
+
+  /**
+   * Construct it empty.
+   */
+  public TrainerStats ()
+  {
+    latency = new LatencyHistogram ();
+    decisions = new DecisionStats ();
+  }
+
+  /**
+   * Clear the statistics and remove them from storage.
+   * @param c Context for file access.
+   */
+  public void reset (Context c)
+  {
+    latency.clear ();
+    decisions.clear ();
+    c.deleteFile (FILE);
+  }
+
+  /**
+   * Save the statistics to persistent internal storage.
+   * @param c Context for file access.
+   */
+  public void save (Context c)
+  {
+    try
+      {
+        BufferedOutputStream bufferedOut
+          = new BufferedOutputStream (c.openFileOutput (FILE,
+                                                        Context.MODE_PRIVATE));
+        DataOutputStream out = new DataOutputStream (bufferedOut);
+
+        out.writeByte (VERSION);
+        latency.write (out);
+        decisions.write (out);
+
+        out.close ();
+        Log.d (TAG, "Saved statistics.");
+      }
+    catch (IOException exc)
+      {
+        exc.printStackTrace ();
+        Log.e (TAG, "Saving statistics failed!");
+      }
+  }
+
+  /**
+   * Load the statistics from local storage, if there are some.
+   * @param c Context for file access.
+   */
+  public void load (Context c)
+  {
+    try
+      {
+        BufferedInputStream bufferedIn
+          = new BufferedInputStream (c.openFileInput (FILE));
+        DataInputStream in = new DataInputStream (bufferedIn);
+        try
+          {
+            if (in.readUnsignedByte () != VERSION)
+              throw new IOException ("Saved statistics have a different"
+                                     + " version!");
+            latency.read (in);
+            decisions.read (in);
+            Log.d (TAG, "Loaded statistics.");
+          }
+        finally
+          {
+            in.close ();
+          }
+      }
+    catch (FileNotFoundException exc)
+      {
+        /* Nothing was saved yet.  */
+      }
+    catch (IOException exc)
+      {
+        exc.printStackTrace ();
+        Log.e (TAG, "Loading statistics failed!");
+        latency.clear ();
+        decisions.clear ();
+      }
+  }
+
+}
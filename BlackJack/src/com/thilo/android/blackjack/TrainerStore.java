@@ -0,0 +1,218 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Persistent progress of the systematic trainer, as a small fixed-layout
+ * file that is memory-mapped and updated in place.  There is one record
+ * per strategy cell with its scheduling state, and a header holding the
+ * clock and the cell currently shown.  Each hand only rewrites the header
+ * and the record of the cell concerned.  The data is checked when
+ * loading it.
+ */
+public class TrainerStore
+{
+
+  /** Magic number at the file start, "BJTP".  */
+  private static final int MAGIC = 0x424a5450;
+  /** Version of the file layout.  */
+  private static final short VERSION = 3;
+
+  /** Offset of the number of cells in the header.  */
+  private static final int CELLS_OFFSET = 6;
+  /** Offset of the clock in the header.  */
+  private static final int CLOCK_OFFSET = 8;
+  /** Offset of the current cell in the header.  */
+  private static final int CURRENT_OFFSET = 12;
+  /** Size of the header.  */
+  private static final int HEADER_SIZE = 16;
+
+  /**
+   * Size of a record:  due time, last seen, attempts, errors
+   * and difficulty.
+   */
+  private static final int RECORD_SIZE = 16;
+
+  /** Total size of the file.  */
+  private static final int FILE_SIZE
+    = HEADER_SIZE + Strategy.NUM_CELLS * RECORD_SIZE;
+
+  /** The underlying file.  */
+  private final RandomAccessFile file;
+
+  /** The mapped data.  */
+  private final MappedByteBuffer data;
+
+  /**
+   * Open the store.  The file is created if it does not exist, and
+   * replaced if it has a different size.
+   * @param f The file to use.
+   * @throws IOException If the file can not be mapped.
+   */
+  public TrainerStore (File f)
+    throws IOException
+  {
+    file = new RandomAccessFile (f, "rw");
+    try
+      {
+        if (file.length () != FILE_SIZE)
+          {
+            file.setLength (0);
+            file.setLength (FILE_SIZE);
+          }
+        data = file.getChannel ().map (FileChannel.MapMode.READ_WRITE,
+                                       0, FILE_SIZE);
+      }
+    catch (IOException exc)
+      {
+        file.close ();
+        throw exc;
+      }
+  }
+
+  /**
+   * Close the file.
+   * @throws IOException If closing fails.
+   */
+  public void close ()
+    throws IOException
+  {
+    data.force ();
+    file.close ();
+  }
+
+  /**
+   * Load the stored progress into a scheduler.  The header and every
+   * record are checked, and a current cell that is also scheduled (left
+   * by an interrupted update) is cleared.
+   * @param s The scheduler to fill.
+   * @return True if the data was valid and loaded.
+   */
+  public boolean load (CellScheduler s)
+  {
+    if (data.getInt (0) != MAGIC || data.getShort (4) != VERSION
+        || data.getShort (CELLS_OFFSET) != Strategy.NUM_CELLS)
+      return false;
+
+    final int clock = data.getInt (CLOCK_OFFSET);
+    if (clock < 0)
+      return false;
+
+    for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+      {
+        final int off = getOffset (c);
+        final int due = data.getInt (off);
+        final int seen = data.getInt (off + 4);
+        final short attempts = data.getShort (off + 8);
+        final short errors = data.getShort (off + 10);
+        final float difficulty = data.getFloat (off + 12);
+
+        if (due < CellScheduler.NOT_QUEUED || seen < -1 || seen > clock
+            || errors < 0 || attempts < errors
+            || !(difficulty >= 0.0f && difficulty <= 1.0f))
+          return false;
+
+        s.due[c] = due;
+        s.lastSeen[c] = seen;
+        s.attempts[c] = attempts;
+        s.errors[c] = errors;
+        s.difficulty[c] = difficulty;
+      }
+
+    final int current = getCurrent ();
+    if (current < -1 || current >= Strategy.NUM_CELLS)
+      return false;
+    if (current != -1 && s.due[current] != CellScheduler.NOT_QUEUED)
+      data.putShort (CURRENT_OFFSET, (short) -1);
+
+    s.clock = clock;
+    s.rebuild ();
+
+    return true;
+  }
+
+  /**
+   * Get the current cell, which was dealt but not yet answered.
+   * @return The current cell or -1.
+   */
+  public int getCurrent ()
+  {
+    return data.getShort (CURRENT_OFFSET);
+  }
+
+  /**
+   * Write the complete state of a scheduler.
+   * @param s The scheduler.
+   */
+  public void saveAll (CellScheduler s)
+  {
+    data.putInt (0, MAGIC);
+    data.putShort (4, VERSION);
+    data.putShort (CELLS_OFFSET, (short) Strategy.NUM_CELLS);
+    for (int c = 0; c < Strategy.NUM_CELLS; ++c)
+      saveCell (s, c);
+    setCurrent (s, -1);
+
+    data.force ();
+  }
+
+  /**
+   * Write the record of one cell.
+   * @param s The scheduler.
+   * @param cell The cell to write.
+   */
+  public void saveCell (CellScheduler s, int cell)
+  {
+    final int off = getOffset (cell);
+    data.putInt (off, s.due[cell]);
+    data.putInt (off + 4, s.lastSeen[cell]);
+    data.putShort (off + 8, s.attempts[cell]);
+    data.putShort (off + 10, s.errors[cell]);
+    data.putFloat (off + 12, s.difficulty[cell]);
+  }
+
+  /**
+   * Write the header with the clock and current cell.
+   * @param s The scheduler.
+   * @param current The current cell or -1.
+   */
+  public void setCurrent (CellScheduler s, int current)
+  {
+    data.putInt (CLOCK_OFFSET, s.clock);
+    data.putShort (CURRENT_OFFSET, (short) current);
+  }
+
+  /**
+   * Compute the byte offset of a cell's record.
+   * @param cell The cell.
+   * @return Offset of the record in the file.
+   */
+  private static int getOffset (int cell)
+  {
+    return HEADER_SIZE + cell * RECORD_SIZE;
+  }
+
+}
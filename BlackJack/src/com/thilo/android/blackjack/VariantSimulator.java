@@ -0,0 +1,338 @@
+/*
+    BlackJack Trainer.  BJ strategy tutor.
+    Copyright (C) 2012  Daniel Kraft <d@domob.eu>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.thilo.android.blackjack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Simulation of several strategy variants in a single pass.  Each round is
+ * dealt once and played by all variants together, as long as they make
+ * the same decisions.  Where they differ, the round is forked:  The games
+ * of the round are copied for each group of variants deciding alike, and
+ * each group plays on from the same position of the shoe, so that the
+ * variants see the same cards.  Since the dealer's hole card is dealt with
+ * the round, all of them share it as well.  Most decisions are shared, so
+ * that this is much faster than a simulation per variant, and like
+ * Simulator.compare() the differences between the variants are paired.
+ *
+ * The variants are given as Simulators, of which only the strategy and
+ * index plays are used.  They play without mistakes.  The shoe always
+ * continues after the cards of the first variant, so that its results
+ * are the same as those of Simulator.run() with the same seed.
+ */
+public class VariantSimulator
+{
+
+  /** The variants.  */
+  private final Simulator[] variants;
+
+  /** Number of decks in the shoe.  */
+  private final int decks;
+
+  /** Fraction of the shoe dealt before reshuffling.  */
+  private final float penetration;
+
+  /**
+   * Construct it.
+   * @param v The variants, which all play the rules of the first one.
+   * @param d Number of decks.
+   * @param pen Fraction of the shoe dealt before reshuffling.
+   * @throws RuntimeException If there are no variants.
+   */
+  public VariantSimulator (Simulator[] v, int d, float pen)
+  {
+    if (v.length == 0)
+      throw new RuntimeException ("No variants to simulate!");
+
+    variants = v.clone ();
+    decks = d;
+    penetration = pen;
+  }
+
+  /**
+   * Results of all variants.
+   */
+  public static class Results
+  {
+
+    /** Results of each variant.  */
+    public final CellStats[] results;
+
+    /** Differences of each variant's results to those of the first.  */
+    public final CellStats[] differences;
+
+    /**
+     * Construct it empty.
+     * @param n Number of variants.
+     */
+    public Results (int n)
+    {
+      results = new CellStats[n];
+      differences = new CellStats[n];
+      for (int i = 0; i < n; ++i)
+        {
+          results[i] = new CellStats ();
+          differences[i] = new CellStats ();
+        }
+    }
+
+    /**
+     * Merge another instance into this one.
+     * @param o The other results.
+     */
+    public void merge (Results o)
+    {
+      for (int i = 0; i < results.length; ++i)
+        {
+          results[i].merge (o.results[i]);
+          differences[i].merge (o.differences[i]);
+        }
+    }
+
+  }
+
+  /**
+   * Run the simulation.  Shards are seeded as for Simulator.run().
+   * @param shards Number of shards to split the work into.
+   * @param rounds Number of rounds to play per shard.
+   * @param seed Base seed for the shards' RNGs.
+   * @param threads Number of worker threads.
+   * @return The merged results of all shards.
+   * @throws RuntimeException If a shard fails.
+   */
+  public Results run (int shards, long rounds, long seed, int threads)
+  {
+    final ExecutorService pool = Executors.newFixedThreadPool (threads);
+    try
+      {
+        final List<Future<Shard>> results = new ArrayList<Future<Shard>> ();
+        for (int i = 0; i < shards; ++i)
+          results.add (pool.submit (new Shard (i, rounds, seed)));
+
+        final Results res = new Results (variants.length);
+        for (final Future<Shard> f : results)
+          res.merge (f.get ().result);
+
+        return res;
+      }
+    catch (InterruptedException exc)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new RuntimeException ("Simulation interrupted!");
+      }
+    catch (ExecutionException exc)
+      {
+        exc.getCause ().printStackTrace ();
+        throw new RuntimeException ("Simulation shard failed: "
+                                    + exc.getCause ().getMessage ());
+      }
+    finally
+      {
+        pool.shutdownNow ();
+      }
+  }
+
+  /**
+   * One shard of the simulation, which is run as a task on the pool.
+   */
+  private class Shard implements Callable<Shard>
+  {
+
+    /** Number of rounds to play.  */
+    private final long rounds;
+
+    /** The shoe dealt from.  */
+    private final Shoe shoe;
+
+    /** The shard's results.  */
+    final Results result;
+
+    /** Result of the current round per variant.  */
+    private final double[] values;
+
+    /**
+     * Construct it.
+     * @param i Index of this shard.
+     * @param r Number of rounds to play.
+     * @param seed Base seed of the simulation.
+     */
+    public Shard (int i, long r, long seed)
+    {
+      rounds = r;
+      shoe = new Shoe (decks, penetration,
+                       new ShardRandom (seed + i * 0x9E3779B97F4A7C15l));
+      result = new Results (variants.length);
+      values = new double[variants.length];
+    }
+
+    /**
+     * Play all rounds.
+     * @return This shard with its results.
+     */
+    public Shard call ()
+    {
+      final int[] all = new int[variants.length];
+      for (int i = 0; i < all.length; ++i)
+        all[i] = i;
+
+      for (long n = 0; n < rounds; ++n)
+        {
+          if (shoe.needsShuffle ())
+            shoe.shuffle ();
+
+          final float trueCount = shoe.getTrueCount ();
+          final Game g = variants[0].deal (shoe);
+          final int cell = Strategy.getCell (g);
+          if (g.isRunning ())
+            {
+              final List<Game> hands = new ArrayList<Game> ();
+              hands.add (g);
+              play (hands, 0, all);
+            }
+          else
+            {
+              /* A blackjack of either side, which needs no decisions.  */
+              final double v = variants[0].playRound (g, shoe);
+              for (int i = 0; i < values.length; ++i)
+                values[i] = v;
+            }
+
+          for (int i = 0; i < values.length; ++i)
+            {
+              result.results[i].add (cell, trueCount, values[i]);
+              result.differences[i].add (cell, trueCount,
+                                         values[i] - values[0]);
+            }
+        }
+
+      return this;
+    }
+
+    /**
+     * Play out a round for a group of variants, forking it where they
+     * decide differently.  The group containing the first of them plays
+     * on in place, after all others, so that the shoe ends up after its
+     * cards.
+     * @param hands The games of the round.
+     * @param first Index of the first game still to play.
+     * @param group Indices of the variants playing, ascending.
+     */
+    private void play (List<Game> hands, int first, int[] group)
+    {
+      final Strategy.Decision[] chosen
+        = new Strategy.Decision[group.length];
+      int i = first;
+      while (true)
+        {
+          while (i < hands.size () && !hands.get (i).isRunning ())
+            ++i;
+          if (i == hands.size ())
+            break;
+
+          final Game g = hands.get (i);
+          final boolean allowSplit = (hands.size () < Simulator.MAX_HANDS);
+          boolean same = true;
+          for (int j = 0; j < group.length; ++j)
+            {
+              chosen[j] = variants[group[j]].decide (g, shoe, allowSplit);
+              same &= (chosen[j] == chosen[0]);
+            }
+          if (same)
+            {
+              Simulator.apply (hands, g, chosen[0]);
+              continue;
+            }
+
+          /* Fork for all decisions but the first variant's one.  */
+          final int pos = shoe.getPosition ();
+          for (final Strategy.Decision d : Strategy.Decision.values ())
+            {
+              if (d == chosen[0])
+                continue;
+              final int[] sub = getGroup (group, chosen, d);
+              if (sub == null)
+                continue;
+
+              final List<Game> copy = copyRound (hands);
+              Simulator.apply (copy, copy.get (i), d);
+              play (copy, i, sub);
+              shoe.seek (pos);
+            }
+
+          group = getGroup (group, chosen, chosen[0]);
+          Simulator.apply (hands, g, chosen[0]);
+        }
+
+      double res = 0.0;
+      for (final Game g : hands)
+        res += g.getPayout ();
+      for (final int v : group)
+        values[v] = res;
+    }
+
+  }
+
+  /**
+   * Find the variants of a group making a given decision.
+   * @param group Indices of the variants in the group.
+   * @param chosen Their decisions.
+   * @param d The decision.
+   * @return Indices of those making it, or null if there are none.
+   */
+  private static int[] getGroup (int[] group, Strategy.Decision[] chosen,
+                                 Strategy.Decision d)
+  {
+    int n = 0;
+    for (int j = 0; j < group.length; ++j)
+      if (chosen[j] == d)
+        ++n;
+    if (n == 0)
+      return null;
+
+    final int[] res = new int[n];
+    n = 0;
+    for (int j = 0; j < group.length; ++j)
+      if (chosen[j] == d)
+        res[n++] = group[j];
+
+    return res;
+  }
+
+  /**
+   * Copy the games of a round, sharing one copy of the dealer's hand.
+   * @param hands The games.
+   * @return The copies.
+   */
+  private static List<Game> copyRound (List<Game> hands)
+  {
+    final Hand dealer = new Hand (hands.get (0).getDealerHand ());
+    final List<Game> res = new ArrayList<Game> (hands.size () + 1);
+    for (final Game g : hands)
+      res.add (new Game (g, dealer));
+
+    return res;
+  }
+
+}